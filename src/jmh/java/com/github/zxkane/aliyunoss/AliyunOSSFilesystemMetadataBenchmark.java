@@ -0,0 +1,233 @@
+package com.github.zxkane.aliyunoss;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.zxkane.aliyunoss.store.InMemoryObjectStore;
+
+import net.fusejna.DirectoryFiller;
+import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructStat.StatWrapper;
+import net.fusejna.types.TypeMode.NodeType;
+
+/**
+ * Listings and attributes as requested by {@code ls -l} of a large directory
+ * and by {@code find} over a deep tree, once on a freshly mounted filesystem
+ * and once with everything cached.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AliyunOSSFilesystemMetadataBenchmark {
+
+	static final int WIDE_ENTRIES = 10000;
+
+	static final int DEPTH = 3;
+
+	static final int FANOUT = 6;
+
+	static final int FILES_PER_DIRECTORY = 4;
+
+	/**
+	 * A directory of 10000 files and a tree of 259 directories with 1036
+	 * files.
+	 */
+	@State(Scope.Benchmark)
+	public static class Bucket {
+
+		@Param({ "LOCAL", "OSS" })
+		BucketProfile profile;
+
+		private InMemoryObjectStore store;
+
+		@Setup
+		public void fill() {
+			store = new InMemoryObjectStore("benchmark");
+			final byte[] content = new byte[1024];
+			for (int i = 0; i < WIDE_ENTRIES; i++) {
+				store.put(String.format("wide/%05d", i), content);
+			}
+			fillTree("deep/", DEPTH, content);
+			profile.applyTo(store);
+		}
+
+		private void fillTree(final String prefix, final int depth, final byte[] content) {
+			store.put(prefix, new byte[0]);
+			for (int i = 0; i < FILES_PER_DIRECTORY; i++) {
+				store.put(prefix + "file" + i, content);
+			}
+			if (depth > 0) {
+				for (int i = 0; i < FANOUT; i++) {
+					fillTree(prefix + "dir" + i + "/", depth - 1, content);
+				}
+			}
+		}
+
+		AliyunOSSFilesystem mount() throws IOException {
+			return new AliyunOSSFilesystem(store, new MountConfig(), false);
+		}
+	}
+
+	/**
+	 * A filesystem mounted for every operation, nothing is cached.
+	 */
+	@State(Scope.Thread)
+	public static class ColdMount {
+
+		private AliyunOSSFilesystem fs;
+
+		private final StatWrapper stat = StatWrapperFactory.create();
+
+		@Setup(Level.Invocation)
+		public void mount(Bucket bucket) throws IOException {
+			fs = bucket.mount();
+		}
+
+		@TearDown(Level.Invocation)
+		public void unmount() throws IOException {
+			fs.close();
+		}
+	}
+
+	/**
+	 * A filesystem mounted once which has seen every entry already.
+	 */
+	@State(Scope.Thread)
+	public static class WarmMount {
+
+		private AliyunOSSFilesystem fs;
+
+		private final StatWrapper stat = StatWrapperFactory.create();
+
+		@Setup
+		public void mount(Bucket bucket) throws IOException {
+			fs = bucket.mount();
+			list(fs, "/wide", stat);
+			find(fs, "/deep", stat);
+		}
+
+		@TearDown
+		public void unmount() throws IOException {
+			fs.close();
+		}
+	}
+
+	@Benchmark
+	public int listWide(ColdMount mount) {
+		return list(mount.fs, "/wide", mount.stat);
+	}
+
+	@Benchmark
+	public int findDeep(ColdMount mount) {
+		return find(mount.fs, "/deep", mount.stat);
+	}
+
+	@Benchmark
+	public int listWideCached(WarmMount mount) {
+		return list(mount.fs, "/wide", mount.stat);
+	}
+
+	@Benchmark
+	public int findDeepCached(WarmMount mount) {
+		return find(mount.fs, "/deep", mount.stat);
+	}
+
+	@Benchmark
+	public int getattrCached(WarmMount mount) {
+		return AliyunOSSFilesystemReadBenchmark.check(mount.fs.getattr("/deep/dir1/dir2/file3", mount.stat));
+	}
+
+	/**
+	 * Read the directory and the attributes of every entry like
+	 * {@code ls -l}. The kernel looks up the directory itself first.
+	 *
+	 * @return number of entries
+	 */
+	static int list(final AliyunOSSFilesystem fs, final String path, final StatWrapper stat) {
+		getattr(fs, path, stat);
+		final List<String> entries = readdir(fs, path);
+		for (String entry : entries) {
+			getattr(fs, child(path, entry), stat);
+		}
+		return entries.size();
+	}
+
+	/**
+	 * Walk the tree below the directory like {@code find}, which reads the
+	 * attributes of every entry to know where to descend.
+	 *
+	 * @return number of entries
+	 */
+	static int find(final AliyunOSSFilesystem fs, final String path, final StatWrapper stat) {
+		getattr(fs, path, stat);
+		return walk(fs, path, stat);
+	}
+
+	private static int walk(final AliyunOSSFilesystem fs, final String path, final StatWrapper stat) {
+		int found = 0;
+		for (String entry : readdir(fs, path)) {
+			final String child = child(path, entry);
+			found++;
+			if (getattr(fs, child, stat) == NodeType.DIRECTORY) {
+				found += walk(fs, child, stat);
+			}
+		}
+		return found;
+	}
+
+	private static List<String> readdir(final AliyunOSSFilesystem fs, final String path) {
+		final List<String> entries = new ArrayList<>();
+		AliyunOSSFilesystemReadBenchmark.check(fs.readdir(path, new ListFiller(entries)));
+		return entries;
+	}
+
+	private static NodeType getattr(final AliyunOSSFilesystem fs, final String path, final StatWrapper stat) {
+		AliyunOSSFilesystemReadBenchmark.check(fs.getattr(path, stat));
+		return stat.type();
+	}
+
+	// fuse-jna hands the kernel the last segment of the filled paths only
+	private static String child(final String path, final String entry) {
+		return path + "/" + entry.substring(entry.lastIndexOf('/') + 1);
+	}
+
+	private static final class ListFiller implements DirectoryFiller {
+		private final List<String> entries;
+
+		private ListFiller(List<String> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public boolean add(String... files) {
+			return add(Arrays.asList(files));
+		}
+
+		@Override
+		public boolean add(Iterable<String> files) {
+			for (String file : files) {
+				entries.add(file);
+			}
+			return true;
+		}
+	}
+}
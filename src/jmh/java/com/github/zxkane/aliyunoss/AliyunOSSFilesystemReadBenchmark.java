@@ -0,0 +1,144 @@
+package com.github.zxkane.aliyunoss;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.zxkane.aliyunoss.store.InMemoryObjectStore;
+
+import net.fusejna.FileInfoWrapperFactory;
+import net.fusejna.StructFuseFileInfo.FileInfoWrapper;
+
+/**
+ * FUSE reads of open files through the block cache, read-ahead and parallel
+ * fetches. The files are four times larger than the memory cache, so
+ * sequential reads keep fetching and random reads mostly miss.
+ *
+ * Every operation is a single FUSE read, sample time reports its percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AliyunOSSFilesystemReadBenchmark {
+
+	static final int FILE_SIZE = 32 * 1024 * 1024;
+
+	static final int FILES = 8;
+
+	// the size of the reads of the kernel with big_writes and max_read
+	static final int READ_SIZE = 128 * 1024;
+
+	static final int RANDOM_READ_SIZE = 4096;
+
+	@Param({ "LOCAL", "OSS" })
+	BucketProfile profile;
+
+	private AliyunOSSFilesystem fs;
+
+	private final AtomicInteger nextFile = new AtomicInteger();
+
+	@Setup
+	public void mount() throws IOException {
+		final InMemoryObjectStore store = new InMemoryObjectStore("benchmark");
+		final byte[] content = new byte[FILE_SIZE];
+		new Random(0).nextBytes(content);
+		for (int i = 0; i < FILES; i++) {
+			store.put("file" + i, content);
+		}
+		profile.applyTo(store);
+
+		final MountConfig config = new MountConfig();
+		config.setMemoryCacheSize(FILE_SIZE / 4);
+		fs = new AliyunOSSFilesystem(store, config, false);
+	}
+
+	@TearDown
+	public void unmount() throws IOException {
+		fs.close();
+	}
+
+	/**
+	 * A file opened by a single thread, every thread reads another file.
+	 */
+	@State(Scope.Thread)
+	public static class Reader {
+
+		private AliyunOSSFilesystem fs;
+
+		private String path;
+
+		private FileInfoWrapper info;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_SIZE);
+
+		private final Random random = new Random(42);
+
+		private long position;
+
+		@Setup
+		public void open(AliyunOSSFilesystemReadBenchmark benchmark) {
+			fs = benchmark.fs;
+			path = "/file" + (benchmark.nextFile.getAndIncrement() % FILES);
+			info = FileInfoWrapperFactory.create(path);
+			check(fs.open(path, info));
+		}
+
+		@TearDown
+		public void release() {
+			fs.release(path, info);
+		}
+
+		int read(final long offset, final int size) {
+			buffer.clear();
+			return check(fs.read(path, buffer, size, offset, info));
+		}
+	}
+
+	@Benchmark
+	public int sequentialRead(Reader reader) {
+		final int read = reader.read(reader.position, READ_SIZE);
+		reader.position = (reader.position + READ_SIZE) % FILE_SIZE;
+		return read;
+	}
+
+	@Benchmark
+	public int randomRead(Reader reader) {
+		return reader.read((long) reader.random.nextInt(FILE_SIZE / RANDOM_READ_SIZE) * RANDOM_READ_SIZE, RANDOM_READ_SIZE);
+	}
+
+	/**
+	 * Sequential reads of eight files at the same time, e.g. a parallel
+	 * copy.
+	 */
+	@Benchmark
+	@Threads(FILES)
+	public int concurrentReaders(Reader reader) {
+		return sequentialRead(reader);
+	}
+
+	static int check(final int result) {
+		if (result < 0) {
+			throw new IllegalStateException("FUSE operation failed with error " + -result);
+		}
+		return result;
+	}
+}
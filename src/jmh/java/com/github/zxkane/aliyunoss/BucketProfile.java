@@ -0,0 +1,34 @@
+package com.github.zxkane.aliyunoss;
+
+import com.github.zxkane.aliyunoss.store.InMemoryObjectStore;
+
+/**
+ * How the simulated bucket of the filesystem benchmarks answers.
+ */
+public enum BucketProfile {
+
+	/**
+	 * Answers at once, so the benchmark measures the filesystem alone.
+	 */
+	LOCAL(0, 0),
+
+	/**
+	 * Answers like OSS from within its region, 10 ms to the first byte and
+	 * 64 MB/s per connection.
+	 */
+	OSS(10000, 64L * 1024 * 1024);
+
+	private final long latencyMicros;
+
+	private final long bandwidth;
+
+	private BucketProfile(long latencyMicros, long bandwidth) {
+		this.latencyMicros = latencyMicros;
+		this.bandwidth = bandwidth;
+	}
+
+	public void applyTo(InMemoryObjectStore store) {
+		store.setLatencyMicros(latencyMicros);
+		store.setBandwidth(bandwidth);
+	}
+}
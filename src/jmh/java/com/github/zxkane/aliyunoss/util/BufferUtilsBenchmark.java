@@ -0,0 +1,63 @@
+package com.github.zxkane.aliyunoss.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Copy of one FUSE read from an object stream into the direct buffer of FUSE.
+ * Every operation moves <code>size</code> bytes, so the bytes per second are
+ * the operations per second times the size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BufferUtilsBenchmark {
+
+	@Param({ "4096", "131072" })
+	int size;
+
+	private byte[] content;
+
+	private ByteBuffer buffer;
+
+	@Setup
+	public void setUp() {
+		content = new byte[size];
+		buffer = ByteBuffer.allocateDirect(size);
+	}
+
+	/**
+	 * The copy loop the read path used before, a new array per read.
+	 */
+	@Benchmark
+	public int copyLoop() throws IOException {
+		buffer.clear();
+		InputStream input = new ByteArrayInputStream(content);
+		byte[] readBuffer = new byte[1024];
+		int read = 0;
+		int bytesRead;
+		while ((bytesRead = input.read(readBuffer)) > -1) {
+			read += bytesRead;
+			buffer.put(readBuffer, 0, bytesRead);
+		}
+		return read;
+	}
+
+	@Benchmark
+	public int transfer() throws IOException {
+		buffer.clear();
+		return BufferUtils.transfer(new ByteArrayInputStream(content), buffer, size);
+	}
+}
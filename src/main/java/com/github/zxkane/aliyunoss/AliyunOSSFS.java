@@ -8,6 +8,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
@@ -18,9 +22,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.common.comm.Protocol;
 import com.github.zxkane.aliyunoss.console.Console;
+import com.github.zxkane.aliyunoss.metrics.Metrics;
+import com.github.zxkane.aliyunoss.metrics.MetricsServer;
 import com.github.zxkane.aliyunoss.util.FuseUtils;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -32,6 +41,7 @@ public class AliyunOSSFS {
 
 	private static final ConcurrentMap<Pair<String, String>, Pair<File, AliyunOSSFilesystem>> mounts = new ConcurrentHashMap<>();
 	static String accessId, accessKey, endpoint;
+	static MountConfig config = new MountConfig();
 
 	public static void main(String[] args) throws UnsatisfiedLinkError, IllegalArgumentException, IOException, FuseException {
 		File defaultCredentialFile = new File(new File(System.getProperty("user.home")), ".aliyuncli/osscredentials");
@@ -43,11 +53,69 @@ public class AliyunOSSFS {
 				accepts("e").requiredIf("i").withRequiredArg().ofType(String.class).describedAs("endpoint");
 				accepts("b").withRequiredArg().ofType(String.class).describedAs("bucketName");
 				accepts("m").withRequiredArg().ofType(File.class).describedAs("mountpoint");
+				accepts("block-size").withRequiredArg().ofType(Integer.class).describedAs("size in KB of cached blocks");
+				accepts("cache-memory").withRequiredArg().ofType(Long.class).describedAs("size in MB of the memory block cache, 0 to disable");
+				accepts("cache-dir").withRequiredArg().ofType(File.class).describedAs("directory of the disk block cache");
+				accepts("cache-disk").withRequiredArg().ofType(Long.class).describedAs("size in MB of the disk block cache");
+				accepts("read-ahead").withRequiredArg().ofType(Long.class).describedAs("maximum size in MB of the read-ahead window, 0 to disable");
+				accepts("prefetch-threads").withRequiredArg().ofType(Integer.class).describedAs("number of threads reading ahead");
+				accepts("fetch-part-size").withRequiredArg().ofType(Long.class).describedAs("size in MB of parts fetched in parallel");
+				accepts("fetch-threads").withRequiredArg().ofType(Integer.class).describedAs("number of parts fetched in parallel, 0 to disable");
+				accepts("metadata-ttl").withRequiredArg().ofType(Long.class).describedAs("seconds attributes of files are cached");
+				accepts("metadata-cache-size").withRequiredArg().ofType(Long.class).describedAs("maximum number of files with cached attributes");
+				accepts("negative-ttl").withRequiredArg().ofType(Long.class).describedAs("seconds a path is remembered to not exist");
+				accepts("dir-index-size").withRequiredArg().ofType(Long.class).describedAs("maximum number of directories and children indexed");
+				accepts("dir-index-idle").withRequiredArg().ofType(Long.class).describedAs("seconds an unused directory stays indexed");
+				accepts("metadata-ops").withRequiredArg().ofType(Integer.class).describedAs("maximum concurrent attribute and listing requests");
+				accepts("data-ops").withRequiredArg().ofType(Integer.class).describedAs("maximum concurrent reads");
+				accepts("max-background").withRequiredArg().ofType(Integer.class).describedAs("maximum pending background requests of the kernel");
+				accepts("max-connections").withRequiredArg().ofType(Integer.class).describedAs("maximum HTTP connections to OSS");
+				accepts("connection-timeout").withRequiredArg().ofType(Integer.class).describedAs("milliseconds to establish a connection");
+				accepts("socket-timeout").withRequiredArg().ofType(Integer.class).describedAs("milliseconds to wait for data");
+				accepts("max-retries").withRequiredArg().ofType(Integer.class).describedAs("retries of requests failing with retriable errors");
+				accepts("connection-ttl").withRequiredArg().ofType(Long.class).describedAs("milliseconds a connection is reused, -1 forever");
+				accepts("idle-reaper").withRequiredArg().ofType(Boolean.class).describedAs("close idle connections in the background");
+				accepts("protocol").withRequiredArg().ofType(String.class).describedAs("http or https");
+				accepts("internal", "use the internal endpoint of the region");
+				accepts("cname").withRequiredArg().ofType(String.class).describedAs("custom domain of the bucket used as endpoint");
+				accepts("writable", "mount with support for creating, writing, renaming and removing files");
+				accepts("read-only", "mount without write support, the default");
+				accepts("write-part-size").withRequiredArg().ofType(Long.class).describedAs("size in MB of uploaded parts of written files");
+				accepts("upload-threads").withRequiredArg().ofType(Integer.class).describedAs("number of threads uploading parts");
+				accepts("upload-buffers").withRequiredArg().ofType(Integer.class).describedAs("maximum parts buffered for upload");
+				accepts("write-back-dir").withRequiredArg().ofType(File.class).describedAs("journal directory of files uploaded in the background");
+				accepts("write-back-threads").withRequiredArg().ofType(Integer.class).describedAs("number of files uploaded at the same time");
+				accepts("write-back-backlog").withRequiredArg().ofType(Integer.class).describedAs("maximum files waiting for their upload");
+				accepts("write-back-retries").withRequiredArg().ofType(Integer.class).describedAs("retries of failed uploads");
+				accepts("copy-part-size").withRequiredArg().ofType(Long.class).describedAs("size in MB of parts copied on the server side");
+				accepts("copy-threads").withRequiredArg().ofType(Integer.class).describedAs("number of objects and parts copied at the same time");
+				accepts("delete-delay").withRequiredArg().ofType(Long.class).describedAs("milliseconds deletes are collected into a batch");
+				accepts("delete-threads").withRequiredArg().ofType(Integer.class).describedAs("number of batches of deletes sent at the same time");
+				accepts("list-threads").withRequiredArg().ofType(Integer.class).describedAs("number of listing pages requested at the same time");
+				accepts("list-ahead").withRequiredArg().ofType(Integer.class).describedAs("number of listing pages of a directory requested ahead");
+				accepts("list-shards").withRequiredArg().ofType(Integer.class).describedAs("number of shards of a large listing requested at the same time");
+				accepts("index-dir").withRequiredArg().ofType(File.class).describedAs("directory the objects of buckets are indexed in across mounts");
+				accepts("index-refresh").withRequiredArg().ofType(Long.class).describedAs("seconds after which the index is refreshed");
+				accepts("ignore").withRequiredArg().ofType(String.class).withValuesSeparatedBy(',').describedAs("globs or regex: patterns of paths answered as missing");
+				accepts("negative-cache-size").withRequiredArg().ofType(Long.class).describedAs("maximum number of paths remembered to not exist");
+				accepts("key-filter", "answer paths missing from a filter of all keys as missing");
+				accepts("key-filter-size").withRequiredArg().ofType(Long.class).describedAs("number of keys the filter is sized for");
+				accepts("key-filter-refresh").withRequiredArg().ofType(Long.class).describedAs("seconds after which the filter is built again");
+				accepts("prewarm").withRequiredArg().ofType(String.class).withValuesSeparatedBy(',').describedAs("paths whose attributes are cached after mounting");
+				accepts("prewarm-data", "download the content of the prewarmed paths into the block cache as well");
+				accepts("pin").withRequiredArg().ofType(String.class).withValuesSeparatedBy(',').describedAs("paths downloaded after mounting and kept in the disk cache");
+				accepts("prewarm-threads").withRequiredArg().ofType(Integer.class).describedAs("number of parts of prewarmed files downloaded at the same time");
+				accepts("jmx", "register the metrics of every mount as MXBeans");
+				accepts("metrics-port").withRequiredArg().ofType(Integer.class).describedAs("local port serving the metrics to Prometheus");
+				accepts("config").withRequiredArg().ofType(File.class).describedAs("properties file with long options as keys");
 				acceptsAll(asList("h", "?"), "show help").forHelp();
 			}
 		};
 
 		OptionSet options = parser.parse(args);
+		if (options.has("config")) {
+			options = parser.parse(withConfigFile(options, (File) options.valueOf("config"), args));
+		}
 
 		if ((options.has("i") && !(options.has("k") && options.has("e"))) || !options.has("b") || !options.has("m")) {
 			parser.printHelpOn(System.out);
@@ -76,6 +144,163 @@ public class AliyunOSSFS {
 				endpoint = options.valueOf("e").toString();
 			}
 
+			if (options.has("block-size")) {
+				config.setBlockSize((Integer) options.valueOf("block-size") * 1024);
+			}
+			if (options.has("cache-memory")) {
+				config.setMemoryCacheSize((Long) options.valueOf("cache-memory") * 1024 * 1024);
+			}
+			if (options.has("cache-dir")) {
+				config.setCacheDir((File) options.valueOf("cache-dir"));
+			}
+			if (options.has("cache-disk")) {
+				config.setDiskCacheSize((Long) options.valueOf("cache-disk") * 1024 * 1024);
+			}
+			if (options.has("read-ahead")) {
+				config.setReadAheadMax((Long) options.valueOf("read-ahead") * 1024 * 1024);
+			}
+			if (options.has("prefetch-threads")) {
+				config.setPrefetchThreads((Integer) options.valueOf("prefetch-threads"));
+			}
+			if (options.has("fetch-part-size")) {
+				config.setFetchPartSize((Long) options.valueOf("fetch-part-size") * 1024 * 1024);
+			}
+			if (options.has("fetch-threads")) {
+				config.setFetchThreads((Integer) options.valueOf("fetch-threads"));
+			}
+			if (options.has("metadata-ttl")) {
+				config.setMetadataTtl((Long) options.valueOf("metadata-ttl"));
+			}
+			if (options.has("metadata-cache-size")) {
+				config.setMetadataCacheSize((Long) options.valueOf("metadata-cache-size"));
+			}
+			if (options.has("negative-ttl")) {
+				config.setNotFoundTtl((Long) options.valueOf("negative-ttl"));
+			}
+			if (options.has("dir-index-size")) {
+				config.setDirectoryIndexSize((Long) options.valueOf("dir-index-size"));
+			}
+			if (options.has("dir-index-idle")) {
+				config.setDirectoryIndexIdle((Long) options.valueOf("dir-index-idle"));
+			}
+			if (options.has("metadata-ops")) {
+				config.setMetadataConcurrency((Integer) options.valueOf("metadata-ops"));
+			}
+			if (options.has("data-ops")) {
+				config.setDataConcurrency((Integer) options.valueOf("data-ops"));
+			}
+			if (options.has("max-background")) {
+				config.setMaxBackground((Integer) options.valueOf("max-background"));
+			}
+			if (options.has("max-connections")) {
+				config.setMaxConnections((Integer) options.valueOf("max-connections"));
+			}
+			if (options.has("connection-timeout")) {
+				config.setConnectionTimeout((Integer) options.valueOf("connection-timeout"));
+			}
+			if (options.has("socket-timeout")) {
+				config.setSocketTimeout((Integer) options.valueOf("socket-timeout"));
+			}
+			if (options.has("max-retries")) {
+				config.setMaxErrorRetry((Integer) options.valueOf("max-retries"));
+			}
+			if (options.has("connection-ttl")) {
+				config.setConnectionTtl((Long) options.valueOf("connection-ttl"));
+			}
+			if (options.has("idle-reaper")) {
+				config.setIdleReaper((Boolean) options.valueOf("idle-reaper"));
+			}
+			if (options.has("protocol")) {
+				config.setProtocol(Protocol.valueOf(options.valueOf("protocol").toString().toUpperCase()));
+			}
+			config.setInternalEndpoint(options.has("internal"));
+			if (options.has("cname")) {
+				config.setCname(options.valueOf("cname").toString());
+			}
+			config.setReadOnly(!options.has("writable") || options.has("read-only"));
+			if (options.has("write-part-size")) {
+				config.setWritePartSize((Long) options.valueOf("write-part-size") * 1024 * 1024);
+			}
+			if (options.has("upload-threads")) {
+				config.setUploadThreads((Integer) options.valueOf("upload-threads"));
+			}
+			if (options.has("upload-buffers")) {
+				config.setUploadBuffers((Integer) options.valueOf("upload-buffers"));
+			}
+			if (options.has("write-back-dir")) {
+				config.setWriteBackDir((File) options.valueOf("write-back-dir"));
+			}
+			if (options.has("write-back-threads")) {
+				config.setWriteBackThreads((Integer) options.valueOf("write-back-threads"));
+			}
+			if (options.has("write-back-backlog")) {
+				config.setWriteBackBacklog((Integer) options.valueOf("write-back-backlog"));
+			}
+			if (options.has("write-back-retries")) {
+				config.setWriteBackRetries((Integer) options.valueOf("write-back-retries"));
+			}
+			if (options.has("copy-part-size")) {
+				config.setCopyPartSize((Long) options.valueOf("copy-part-size") * 1024 * 1024);
+			}
+			if (options.has("copy-threads")) {
+				config.setCopyThreads((Integer) options.valueOf("copy-threads"));
+			}
+			if (options.has("delete-delay")) {
+				config.setDeleteDelay((Long) options.valueOf("delete-delay"));
+			}
+			if (options.has("delete-threads")) {
+				config.setDeleteThreads((Integer) options.valueOf("delete-threads"));
+			}
+			if (options.has("list-threads")) {
+				config.setListThreads((Integer) options.valueOf("list-threads"));
+			}
+			if (options.has("list-ahead")) {
+				config.setListAhead((Integer) options.valueOf("list-ahead"));
+			}
+			if (options.has("list-shards")) {
+				config.setListShards((Integer) options.valueOf("list-shards"));
+			}
+			if (options.has("index-dir")) {
+				config.setIndexDir((File) options.valueOf("index-dir"));
+			}
+			if (options.has("index-refresh")) {
+				config.setIndexRefresh((Long) options.valueOf("index-refresh"));
+			}
+			if (options.has("ignore")) {
+				List<String> ignorePatterns = new ArrayList<String>();
+				for (Object pattern : options.valuesOf("ignore")) {
+					ignorePatterns.add(pattern.toString().trim());
+				}
+				config.setIgnorePatterns(ignorePatterns);
+			}
+			if (options.has("negative-cache-size")) {
+				config.setNotFoundCacheSize((Long) options.valueOf("negative-cache-size"));
+			}
+			config.setKeyFilter(options.has("key-filter"));
+			if (options.has("key-filter-size")) {
+				config.setKeyFilterSize((Long) options.valueOf("key-filter-size"));
+			}
+			if (options.has("key-filter-refresh")) {
+				config.setKeyFilterRefresh((Long) options.valueOf("key-filter-refresh"));
+			}
+
+			if (options.has("prewarm")) {
+				config.setPrewarmPaths(paths(options.valuesOf("prewarm")));
+			}
+			config.setPrewarmData(options.has("prewarm-data"));
+			if (options.has("pin")) {
+				config.setPinPaths(paths(options.valuesOf("pin")));
+			}
+			if (options.has("prewarm-threads")) {
+				config.setPrewarmThreads((Integer) options.valueOf("prewarm-threads"));
+			}
+
+			config.setJmx(options.has("jmx"));
+			if (options.has("metrics-port")) {
+				config.setMetricsPort((Integer) options.valueOf("metrics-port"));
+			}
+
+			final MetricsServer metricsServer = config.getMetricsPort() > 0 ? startMetricsServer(config.getMetricsPort()) : null;
 			try {
 				mount(options.valueOf("b").toString(), new File(options.valueOf("m").toString()));
 
@@ -86,8 +311,74 @@ public class AliyunOSSFS {
 				for (Pair<File, AliyunOSSFilesystem> ossFS : mounts.values()) {
 					ossFS.getRight().close();
 				}
+				if (metricsServer != null) {
+					metricsServer.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prepend the options of the properties file which are not given on the
+	 * command line, e.g. <code>max-connections=512</code>. Options without an
+	 * argument are enabled by <code>true</code>.
+	 */
+	private static String[] withConfigFile(OptionSet options, File configFile, String[] args) throws IOException {
+		Properties prop = new Properties();
+		InputStream input = new FileInputStream(configFile);
+		try {
+			prop.load(input);
+		} finally {
+			input.close();
+		}
+		List<String> merged = new ArrayList<String>();
+		for (String name : prop.stringPropertyNames()) {
+			if (options.has(name) || "config".equals(name)) {
+				continue;
+			}
+			final String value = prop.getProperty(name).trim();
+			if ("false".equals(value) && isFlag(name)) {
+				continue;
+			}
+			merged.add("--" + name);
+			if (!isFlag(name)) {
+				merged.add(value);
 			}
 		}
+		merged.addAll(asList(args));
+		return merged.toArray(new String[merged.size()]);
+	}
+
+	private static List<String> paths(List<?> values) {
+		List<String> paths = new ArrayList<String>();
+		for (Object path : values) {
+			paths.add(path.toString().trim());
+		}
+		return paths;
+	}
+
+	private static boolean isFlag(String name) {
+		return "internal".equals(name) || "read-only".equals(name) || "writable".equals(name) || "key-filter".equals(name)
+				|| "prewarm-data".equals(name) || "jmx".equals(name);
+	}
+
+	/**
+	 * Serve the metrics of the buckets mounted at the time of every scrape at
+	 * the loopback interface.
+	 */
+	private static MetricsServer startMetricsServer(int port) throws IOException {
+		final MetricsServer server = new MetricsServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), new Supplier<List<Metrics>>() {
+			@Override
+			public List<Metrics> get() {
+				List<Metrics> metrics = new ArrayList<Metrics>();
+				for (Pair<File, AliyunOSSFilesystem> ossFS : mounts.values()) {
+					metrics.add(ossFS.getRight().getMetrics());
+				}
+				return metrics;
+			}
+		});
+		logger.info("Serving metrics at http://{}:{}/metrics.", server.getAddress().getHostString(), server.getAddress().getPort());
+		return server;
 	}
 
 	/**
@@ -134,7 +425,10 @@ public class AliyunOSSFS {
 		}
 
 		// now create the Aliyun OSS filesystem
-		AliyunOSSFilesystem ossFS = new AliyunOSSFilesystem(new OSSClient(endpoint, accessId, accessKey), bucketName, false);
+		final String mountEndpoint = config.resolveEndpoint(endpoint);
+		logger.info("Connecting to {} with up to {} connections.", mountEndpoint, config.getMaxConnections());
+		final AliyunOSSFilesystem ossFS = new AliyunOSSFilesystem(new OSSClient(mountEndpoint, accessId, accessKey, config.toClientConfiguration()), bucketName,
+				config, false);
 
 		// ensure that we do not have a previous mount lingering on the
 		// mountpoint
@@ -146,6 +440,37 @@ public class AliyunOSSFS {
 		ossFS.mount(mountPoint, false);
 
 		mounts.put(mountIdentify, Pair.of(mountPoint, ossFS));
+
+		if (!config.getPrewarmPaths().isEmpty() || !config.getPinPaths().isEmpty()) {
+			// the mount serves requests while its paths are prewarmed
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-mount-prewarm-" + bucketName).build().newThread(new Runnable() {
+				@Override
+				public void run() {
+					prewarm(ossFS);
+				}
+			}).start();
+		}
+	}
+
+	/**
+	 * Prewarm and pin the configured paths of a new mount. Failures are
+	 * logged, the mount serves the paths from OSS instead.
+	 */
+	private static void prewarm(AliyunOSSFilesystem ossFS) {
+		for (String path : config.getPrewarmPaths()) {
+			try {
+				ossFS.prewarm(path, config.isPrewarmData());
+			} catch (IOException | RuntimeException e) {
+				logger.error("Could not prewarm path '{}'.", path, e);
+			}
+		}
+		for (String path : config.getPinPaths()) {
+			try {
+				ossFS.pin(path);
+			} catch (IOException | RuntimeException e) {
+				logger.error("Could not pin path '{}'.", path, e);
+			}
+		}
 	}
 
 	/**
@@ -157,6 +482,21 @@ public class AliyunOSSFS {
 		}
 	}
 
+	/**
+	 * @param bucketOrMountPoint
+	 *            Either the name of a mounted bucket or its mount point.
+	 * @return the filesystem of the mount or <code>null</code> if there is no
+	 *         such mount.
+	 */
+	public static AliyunOSSFilesystem getFilesystem(String bucketOrMountPoint) {
+		for (Map.Entry<Pair<String, String>, Pair<File, AliyunOSSFilesystem>> entry : mounts.entrySet()) {
+			if (entry.getKey().getRight().equals(bucketOrMountPoint) || entry.getValue().getLeft().getPath().equals(bucketOrMountPoint)) {
+				return entry.getValue().getRight();
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Unmount the given mounting and free related system resources.
 	 *
@@ -1,12 +1,25 @@
 package com.github.zxkane.aliyunoss;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,21 +27,44 @@ import org.slf4j.LoggerFactory;
 import com.aliyun.oss.OSSClient;
 import com.aliyun.oss.OSSErrorCode;
 import com.aliyun.oss.OSSException;
-import com.aliyun.oss.common.utils.IOUtils;
-import com.aliyun.oss.model.GetObjectRequest;
-import com.aliyun.oss.model.ListObjectsRequest;
-import com.aliyun.oss.model.OSSObject;
 import com.aliyun.oss.model.OSSObjectSummary;
 import com.aliyun.oss.model.ObjectListing;
 import com.aliyun.oss.model.ObjectMetadata;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.github.zxkane.aliyunoss.cache.BlockCache;
+import com.github.zxkane.aliyunoss.cache.DirectoryIndex;
+import com.github.zxkane.aliyunoss.cache.KeyFilter;
+import com.github.zxkane.aliyunoss.cache.MetadataCache;
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+import com.github.zxkane.aliyunoss.cache.PersistentIndex;
+import com.github.zxkane.aliyunoss.io.DeleteBatcher;
+import com.github.zxkane.aliyunoss.io.DirectoryLister;
+import com.github.zxkane.aliyunoss.io.FileHandle;
+import com.github.zxkane.aliyunoss.io.ListingPages;
+import com.github.zxkane.aliyunoss.io.ObjectCopier;
+import com.github.zxkane.aliyunoss.io.ObjectReader;
+import com.github.zxkane.aliyunoss.io.ObjectWriter;
+import com.github.zxkane.aliyunoss.io.PathResolver;
+import com.github.zxkane.aliyunoss.io.ReadAhead;
+import com.github.zxkane.aliyunoss.io.WriteBackCache;
+import com.github.zxkane.aliyunoss.metrics.Metrics;
+import com.github.zxkane.aliyunoss.metrics.OperationMetrics;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+import com.github.zxkane.aliyunoss.store.InstrumentedObjectStore;
+import com.github.zxkane.aliyunoss.store.ObjectStore;
+import com.github.zxkane.aliyunoss.util.FuseUtils;
+import com.github.zxkane.aliyunoss.util.IgnorePolicy;
+import com.github.zxkane.aliyunoss.util.OperationLimiter;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import net.fusejna.DirectoryFiller;
 import net.fusejna.ErrorCodes;
 import net.fusejna.FuseFilesystem;
 import net.fusejna.StructFuseFileInfo.FileInfoWrapper;
 import net.fusejna.StructStat.StatWrapper;
+import net.fusejna.types.TypeMode.ModeWrapper;
 import net.fusejna.types.TypeMode.NodeType;
 import net.fusejna.util.FuseFilesystemAdapterFull;
 
@@ -41,168 +77,1311 @@ public class AliyunOSSFilesystem extends FuseFilesystemAdapterFull implements Cl
 
 	private static final Logger logger = LoggerFactory.getLogger(AliyunOSSFilesystem.class);
 
-	private OSSClient ossClient;
-
-	private String bucketName;
+	private ObjectStore store;
 
 	private int readMaxKeys = 1000;
 
-	private static Set<String> IGNORED_DIRS = new HashSet<String>();
-
-	private static final Object NULL = new Object();
-	Cache<String, Object> notFoundObject = CacheBuilder.newBuilder().concurrencyLevel(1).maximumSize(1000).expireAfterWrite(3, TimeUnit.HOURS).build();
+	// attributes of known paths and paths known to not exist
+	private final MetadataCache metadataCache;
 
 	// OSS using path with '/' to treat it as folder, actually it might don't
 	// have the empty object representing a folder
-	private Set<String> knownDirs = new HashSet<String>(1000);
+	private final DirectoryIndex directoryIndex;
 
-	private static final String IGNORE_PREFIX;
+	private final DirectoryLister directoryLister;
 
-	/**
-	 * Those dirs or files might be retrieved in callback 'getattr' by shells or
-	 * file explorers, ignore them to avoid unnecessary requests to Aliyun OSS.
-	 */
-	static {
-		IGNORE_PREFIX = "._";
+	private final PathResolver pathResolver;
 
-		IGNORED_DIRS.add("/._.");
-		IGNORED_DIRS.add("/.git");
-		IGNORED_DIRS.add("/HEAD");
-		IGNORED_DIRS.add("/.DS_Store");
-		IGNORED_DIRS.add("/.hidden");
-		IGNORED_DIRS.add("/.Trash");
-		IGNORED_DIRS.add("/.Trash-1000");
-	}
+	// null unless the objects of the bucket are indexed on disk
+	private final PersistentIndex persistentIndex;
+
+	// paths shells or file explorers look for, answered without asking OSS
+	private final IgnorePolicy ignorePolicy;
+
+	// null unless paths missing from a filter of all keys are not looked up
+	private final KeyFilter keyFilter;
+
+	// children of larger folders are not kept in the directory index
+	private static final int MAX_INDEXED_CHILDREN = 10000;
+
+	private final long metadataTtlMillis;
+
+	private final BlockCache blockCache;
+
+	private final ObjectReader objectReader;
+
+	// open files by their handle
+	private final ConcurrentMap<Long, FileHandle> handles = new ConcurrentHashMap<Long, FileHandle>();
+
+	private final AtomicLong nextHandle = new AtomicLong();
+
+	// files streamed to OSS by their key, until their upload is completed
+	private final ConcurrentMap<String, FileHandle> uploads = new ConcurrentHashMap<String, FileHandle>();
+
+	private final long readAheadMin;
+
+	// files opened after a change take the new maximum
+	private volatile long readAheadMax;
+
+	private final int listShards;
+
+	// content of prewarmed objects is downloaded in parts of this size
+	private final long prewarmPartSize;
+
+	private final int prewarmThreads;
+
+	// operations against OSS running at the same time
+	private final OperationLimiter metadataLimiter;
+
+	private final OperationLimiter dataLimiter;
+
+	private final int maxBackground;
+
+	private final boolean readOnly;
+
+	// null if the mount is read-only
+	private final ObjectWriter objectWriter;
+
+	// null unless written files are uploaded in the background
+	private final WriteBackCache writeBack;
+
+	// null if the mount is read-only
+	private final ObjectCopier objectCopier;
+
+	// null if the mount is read-only
+	private final DeleteBatcher deleteBatcher;
+
+	private final Metrics metrics;
+
+	private final OperationMetrics getattrMetrics;
+
+	private final OperationMetrics readdirMetrics;
+
+	private final OperationMetrics openMetrics;
+
+	private final OperationMetrics readMetrics;
+
+	private final OperationMetrics writeMetrics;
+
+	private final OperationMetrics releaseMetrics;
+
+	// access mode of the flags of open(2)
+	private static final int O_ACCMODE = 03;
+
+	private static final int O_RDONLY = 0;
 
 	public AliyunOSSFilesystem(OSSClient ossClient, String bucketName, boolean enableLogging) throws IOException {
+		this(ossClient, bucketName, new MountConfig(), enableLogging);
+	}
+
+	public AliyunOSSFilesystem(OSSClient ossClient, String bucketName, MountConfig config, boolean enableLogging) throws IOException {
+		this(new AliyunObjectStore(ossClient, bucketName), config, enableLogging);
+	}
+
+	/**
+	 * Mount the bucket behind any object store, e.g. a simulated one.
+	 */
+	public AliyunOSSFilesystem(ObjectStore store, MountConfig config, boolean enableLogging) throws IOException {
 		super();
 
 		// disable verbose logging
 		log(enableLogging);
 
-		this.ossClient = ossClient;
-		this.bucketName = bucketName;
+		final String bucketName = store.getBucketName();
+		this.metrics = new Metrics(bucketName);
+		this.getattrMetrics = metrics.operation("getattr");
+		this.readdirMetrics = metrics.operation("readdir");
+		this.openMetrics = metrics.operation("open");
+		this.readMetrics = metrics.operation("read");
+		this.writeMetrics = metrics.operation("write");
+		this.releaseMetrics = metrics.operation("release");
+		// every request of the components below is measured
+		store = new InstrumentedObjectStore(store, metrics);
+		this.store = store;
+		this.metadataCache = new MetadataCache(config.getMetadataTtl(), config.getMetadataCacheSize(), config.getNotFoundTtl(),
+				config.getNotFoundCacheSize());
+		this.directoryIndex = new DirectoryIndex(config.getDirectoryIndexSize(), config.getDirectoryIndexIdle());
+		this.metadataTtlMillis = TimeUnit.SECONDS.toMillis(config.getMetadataTtl());
+		this.pathResolver = new PathResolver(store);
+		this.directoryLister = new DirectoryLister(store, config.getListThreads(), config.getListAhead(),
+				config.getListShards());
+		if (config.getIndexDir() != null) {
+			this.persistentIndex = new PersistentIndex(new File(config.getIndexDir(), bucketName), directoryLister, config.getListShards(),
+					config.getIndexRefresh());
+			this.persistentIndex.start();
+		} else {
+			this.persistentIndex = null;
+		}
+		this.ignorePolicy = new IgnorePolicy(config.getIgnorePatterns());
+		if (config.isKeyFilter()) {
+			this.keyFilter = new KeyFilter(directoryLister, config.getListShards(), config.getKeyFilterSize(), config.getKeyFilterRefresh());
+			this.keyFilter.start();
+		} else {
+			this.keyFilter = null;
+		}
+
+		if (config.getMemoryCacheSize() > 0 || config.getCacheDir() != null) {
+			// every bucket owns a sub directory of the cache directory
+			final File diskDir = config.getCacheDir() == null ? null : new File(config.getCacheDir(), bucketName);
+			this.blockCache = new BlockCache(config.getBlockSize(), config.getMemoryCacheSize(), diskDir, config.getDiskCacheSize());
+		} else {
+			this.blockCache = null;
+		}
+		this.objectReader = new ObjectReader(store, blockCache, config.getReadAheadMax() > 0 ? config.getPrefetchThreads() : 0,
+				config.getFetchPartSize(), config.getFetchThreads());
+		this.readAheadMin = Math.max(config.getReadAheadMin(), config.getBlockSize());
+		this.readAheadMax = config.getReadAheadMax();
+		this.listShards = config.getListShards();
+		this.prewarmPartSize = config.getFetchPartSize();
+		this.prewarmThreads = config.getPrewarmThreads();
+		this.metadataLimiter = new OperationLimiter("metadata", config.getMetadataConcurrency());
+		this.dataLimiter = new OperationLimiter("data", config.getDataConcurrency());
+		this.maxBackground = config.getMaxBackground();
+		this.readOnly = config.isReadOnly();
+		this.objectWriter = readOnly ? null
+				: new ObjectWriter(store, config.getWritePartSize(), config.getUploadThreads(), config.getUploadBuffers());
+		this.objectCopier = readOnly ? null : new ObjectCopier(store, config.getCopyPartSize(), config.getCopyThreads());
+		if (readOnly) {
+			this.deleteBatcher = null;
+		} else {
+			this.deleteBatcher = new DeleteBatcher(store, config.getDeleteDelay(), config.getDeleteThreads());
+			this.deleteBatcher.setListener(new DeleteBatcher.Listener() {
+				@Override
+				public void deleted(List<String> keys) {
+					for (String key : keys) {
+						removed(key);
+					}
+				}
+
+				@Override
+				public void failed(List<String> keys, Exception e) {
+					// the objects may still exist, so look them up again
+					for (String key : keys) {
+						metadataCache.invalidate(key);
+						directoryIndex.invalidate(parentOf(key));
+					}
+				}
+			});
+		}
+		metrics.registerCache("metadata", new Supplier<CacheStats>() {
+			@Override
+			public CacheStats get() {
+				return metadataCache.stats();
+			}
+		});
+		metrics.registerCache("not_found", new Supplier<CacheStats>() {
+			@Override
+			public CacheStats get() {
+				return metadataCache.notFoundStats();
+			}
+		});
+		if (blockCache != null) {
+			metrics.registerCache("block", new Supplier<CacheStats>() {
+				@Override
+				public CacheStats get() {
+					return blockCache.stats();
+				}
+			});
+		}
+		if (!readOnly && config.getWriteBackDir() != null) {
+			this.writeBack = new WriteBackCache(new File(config.getWriteBackDir(), bucketName), objectWriter, config.getWriteBackThreads(),
+					config.getWriteBackBacklog(), config.getWriteBackRetries());
+			this.writeBack.setListener(new WriteBackCache.Listener() {
+				@Override
+				public void uploaded(String key, ObjectAttributes attributes) {
+					replaced(key, attributes);
+				}
+			});
+			this.writeBack.recover();
+		} else {
+			this.writeBack = null;
+		}
+		if (config.isJmx()) {
+			metrics.registerMBeans();
+		}
+	}
+
+	/**
+	 * libfuse dispatches requests from multiple threads, the kernel limits the
+	 * number of asynchronous requests, e.g. read-ahead, it keeps pending.
+	 */
+	@Override
+	protected String[] getOptions() {
+		if (maxBackground <= 0) {
+			return null;
+		}
+		return new String[] { "-o", "max_background=" + maxBackground, "-o", "congestion_threshold=" + maxBackground * 3 / 4 };
 	}
 
 	public void setReadMaxKeys(int keys) {
 		this.readMaxKeys = keys;
 	}
 
+	/**
+	 * @return the metrics of the FUSE operations, the OSS requests and the
+	 *         caches of the mount.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	/**
+	 * @return the block cache or <code>null</code> if blocks are not cached.
+	 */
+	public BlockCache getBlockCache() {
+		return blockCache;
+	}
+
+	/**
+	 * @return the limiter of attribute and listing requests.
+	 */
+	public OperationLimiter getMetadataLimiter() {
+		return metadataLimiter;
+	}
+
+	/**
+	 * @return the limiter of reads and writes.
+	 */
+	public OperationLimiter getDataLimiter() {
+		return dataLimiter;
+	}
+
+	public long getReadAheadMax() {
+		return readAheadMax;
+	}
+
+	/**
+	 * Change the maximum read-ahead window of the files opened from now on.
+	 *
+	 * @param readAheadMax
+	 *            bytes, 0 disables read-ahead of new files
+	 * @throws IllegalStateException
+	 *             If the bucket was mounted without read-ahead.
+	 */
+	public void setReadAheadMax(long readAheadMax) {
+		Preconditions.checkArgument(readAheadMax >= 0, "Read-ahead must not be negative but was %s.", readAheadMax);
+		if (readAheadMax > 0 && !objectReader.isPrefetching()) {
+			throw new IllegalStateException("Bucket " + store.getBucketName() + " was mounted without read-ahead.");
+		}
+		this.readAheadMax = readAheadMax;
+	}
+
+	public int getPrefetchThreads() {
+		return objectReader.getPrefetchThreads();
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             If the bucket was mounted without read-ahead.
+	 */
+	public void setPrefetchThreads(int prefetchThreads) {
+		objectReader.setPrefetchThreads(prefetchThreads);
+	}
+
+	/**
+	 * Forget all cached attributes, listings and paths known to not exist,
+	 * e.g. after other clients changed the bucket.
+	 */
+	public void flushMetadata() {
+		metadataCache.invalidateAll();
+		directoryIndex.invalidateAll();
+		directoryLister.invalidateAll();
+	}
+
+	/**
+	 * Drop all cached blocks from memory and disk.
+	 */
+	public void flushBlocks() {
+		if (blockCache != null) {
+			blockCache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Cache the attributes of all files and directories below the path with a
+	 * sharded listing, so that browsing it needs no requests until the
+	 * attributes expire.
+	 *
+	 * @return number of objects listed
+	 * @throws IOException
+	 *             If the listing fails.
+	 */
+	public int prewarm(String path) throws IOException {
+		return prewarm(path, false);
+	}
+
+	/**
+	 * Cache the attributes of all files and directories below the path with a
+	 * sharded listing, and optionally download the content of the files into
+	 * the block cache. The content is fetched by ranged GETs of a part each,
+	 * up to the configured number of prewarm threads at the same time, while
+	 * the listing goes on.
+	 *
+	 * @param data
+	 *            whether to download the content of the files as well
+	 * @return number of objects listed
+	 * @throws IOException
+	 *             If the listing or a download fails.
+	 * @throws IllegalStateException
+	 *             If content is to be downloaded but blocks are not cached.
+	 */
+	public int prewarm(String path, boolean data) throws IOException {
+		final String folderName = folderOf(path);
+		final String prefix = folderName.isEmpty() ? "" : folderName + "/";
+		if (data && blockCache == null) {
+			throw new IllegalStateException("Content can not be prewarmed for bucket " + store.getBucketName() + " without a block cache.");
+		}
+		final Downloads downloads = data ? new Downloads() : null;
+		final Map<String, List<String>> children = new HashMap<String, List<String>>();
+		children.put(folderName, new ArrayList<String>());
+		int objects = 0;
+		try (ListingPages pages = directoryLister.scan(prefix, null, readMaxKeys, listShards)) {
+			ObjectListing listing;
+			// downloads run while the next pages are listed
+			while ((listing = pages.next()) != null) {
+				for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+					final String key = objectSummary.getKey();
+					if (isDeleting(key)) {
+						continue;
+					}
+					objects++;
+					if (key.endsWith("/")) {
+						final String dir = key.substring(0, key.length() - 1);
+						metadataCache.put(dir, ObjectAttributes.directory(objectSummary.getLastModified().getTime()));
+						prewarmDirectory(dir, children);
+					} else {
+						final ObjectAttributes attributes = ObjectAttributes.file(objectSummary.getSize(),
+								objectSummary.getLastModified().getTime(), objectSummary.getETag());
+						metadataCache.put(key, attributes);
+						if (downloads != null) {
+							downloads.download(key, attributes);
+						}
+						final String parent = parentOf(key);
+						prewarmDirectory(parent, children);
+						children.put(parent, addChild(children.get(parent), key));
+					}
+				}
+			}
+		} finally {
+			if (downloads != null) {
+				downloads.close();
+			}
+		}
+		for (Map.Entry<String, List<String>> entry : children.entrySet()) {
+			if (entry.getValue() != null) {
+				directoryIndex.setChildren(entry.getKey(), entry.getValue());
+			}
+		}
+		if (downloads != null) {
+			downloads.check(path);
+			logger.info("Prewarmed {} objects with {} bytes of content in {} directories below path '{}'.", objects, downloads.bytes.get(),
+					children.size(), path);
+		} else {
+			logger.info("Prewarmed attributes of {} objects in {} directories below path '{}'.", objects, children.size(), path);
+		}
+		return objects;
+	}
+
+	/**
+	 * Keep the attributes and the content of all files below the path in the
+	 * caches and download them. Pinned attributes are not evicted for others
+	 * but expire with their age; pinned blocks stay in the disk cache until
+	 * the path is unpinned or the file changes.
+	 *
+	 * @return number of objects listed
+	 * @throws IOException
+	 *             If the listing or a download fails.
+	 * @throws IllegalStateException
+	 *             If blocks are not cached on disk.
+	 */
+	public int pin(String path) throws IOException {
+		final String folderName = folderOf(path);
+		final String prefix = folderName.isEmpty() ? "" : folderName + "/";
+		if (blockCache == null) {
+			throw new IllegalStateException("Bucket " + store.getBucketName() + " was mounted without a block cache.");
+		}
+		blockCache.pin(prefix);
+		metadataCache.pin(prefix);
+		return prewarm(path, true);
+	}
+
+	/**
+	 * Let the attributes and the content of the files below a pinned path be
+	 * evicted again.
+	 *
+	 * @return <code>false</code> if the path was not pinned.
+	 */
+	public boolean unpin(String path) {
+		final String folderName = folderOf(path);
+		final String prefix = folderName.isEmpty() ? "" : folderName + "/";
+		final boolean unpinned = metadataCache.unpin(prefix);
+		return (blockCache != null && blockCache.unpin(prefix)) || unpinned;
+	}
+
+	/**
+	 * @return the key of the folder at the path, empty for the root.
+	 */
+	private static String folderOf(final String path) {
+		Preconditions.checkArgument(path.startsWith("/"), "Path '%s' must start with '/'.", path);
+		final String folderName = path.substring(1);
+		return folderName.endsWith("/") ? folderName.substring(0, folderName.length() - 1) : folderName;
+	}
+
+	/**
+	 * Content of prewarmed files which is being downloaded into the block
+	 * cache. Parts are handed to the threads through a bounded number of
+	 * slots, so the listing waits for slow downloads instead of queueing the
+	 * parts of a whole bucket.
+	 */
+	private final class Downloads implements Closeable {
+		private final ExecutorService executor = Executors.newFixedThreadPool(prewarmThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-prewarm-" + store.getBucketName() + "-%d").build());
+		private final Semaphore slots = new Semaphore(2 * prewarmThreads);
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+		void download(final String key, final ObjectAttributes attributes) throws InterruptedIOException {
+			for (long start = 0; start < attributes.getSize(); start += prewarmPartSize) {
+				final long partStart = start;
+				final long partEnd = Math.min(start + prewarmPartSize, attributes.getSize());
+				try {
+					slots.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while prewarming object " + key);
+				}
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							objectReader.load(key, attributes.getEtag(), attributes.getSize(), partStart, partEnd);
+							bytes.addAndGet(partEnd - partStart);
+						} catch (IOException | RuntimeException e) {
+							logger.warn("Could not prewarm object '{}' from offset {}.", key, partStart, e);
+							failed.incrementAndGet();
+							failure.compareAndSet(null, e);
+						} finally {
+							slots.release();
+						}
+					}
+				});
+			}
+		}
+
+		/**
+		 * @throws IOException
+		 *             If a part could not be downloaded.
+		 */
+		void check(String path) throws IOException {
+			if (failure.get() != null) {
+				throw new IOException("Could not prewarm " + failed.get() + " parts of the objects below path " + path, failure.get());
+			}
+		}
+
+		/**
+		 * Wait for the downloads which are running.
+		 */
+		@Override
+		public void close() throws InterruptedIOException {
+			executor.shutdown();
+			try {
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					logger.info("Waiting for the content of prewarmed objects, {} bytes downloaded so far.", bytes.get());
+				}
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for prewarmed objects");
+			}
+		}
+	}
+
+	/**
+	 * Index the directory and its parents up to the prewarmed one, they exist
+	 * whether or not they have marker objects.
+	 */
+	private void prewarmDirectory(final String dir, final Map<String, List<String>> children) {
+		if (children.containsKey(dir)) {
+			return;
+		}
+		children.put(dir, new ArrayList<String>());
+		directoryIndex.addDirectory(dir);
+		if (metadataCache.get(dir) == null) {
+			metadataCache.put(dir, ObjectAttributes.directory(0));
+		}
+		final String parent = parentOf(dir);
+		prewarmDirectory(parent, children);
+		children.put(parent, addChild(children.get(parent), dir));
+	}
+
+	/**
+	 * Record the result of a FUSE operation, positive results of reads and
+	 * writes are the transferred bytes.
+	 */
+	private static int finished(final OperationMetrics operation, final long start, final int result) {
+		if (result < 0) {
+			operation.failed(start, FuseUtils.errorName(-result));
+		} else {
+			operation.succeeded(start, result);
+		}
+		return result;
+	}
+
 	@Override
 	public int getattr(final String path, final StatWrapper stat) {
+		final long start = getattrMetrics.start();
+		try {
+			return finished(getattrMetrics, start, doGetattr(path, stat));
+		} catch (RuntimeException e) {
+			getattrMetrics.failed(start, e.getClass().getSimpleName());
+			throw e;
+		}
+	}
+
+	private int doGetattr(final String path, final StatWrapper stat) {
 		logger.debug("Getting attribute of path '{}'", path);
 		if ("/".equals(path)) {
-			stat.setMode(NodeType.DIRECTORY, true, false, true, true, false, true, true, false, true);
-		} else if (IGNORED_DIRS.contains(path)) {
-			logger.debug("Return not found the path '{}' in ignore list.", path);
-			return -ErrorCodes.ENOENT();
-		} else if (path.substring(path.lastIndexOf('/')).startsWith(IGNORE_PREFIX)) {
-			logger.debug("Return not found the path '{}' with ingore prefix '{}'.", path, IGNORE_PREFIX);
-			return -ErrorCodes.ENOENT();
-		} else if (NULL.equals(notFoundObject.getIfPresent(path))) {
-			logger.debug("Return not found the path '{}' in known not-found list.", path);
+			stat.setMode(NodeType.DIRECTORY, true, !readOnly, true, true, false, true, true, false, true);
+		} else if (ignorePolicy.isIgnored(path)) {
+			logger.debug("Return not found the path '{}' matching the ignore patterns.", path);
 			return -ErrorCodes.ENOENT();
 		} else {
+			final String key = path.substring(1);
+			// files which are written are not in OSS yet
+			ObjectAttributes attributes = writtenAttributes(key);
+			if (attributes == null && metadataCache.isNotFound(key)) {
+				logger.debug("Return not found the path '{}' in known not-found list.", path);
+				return -ErrorCodes.ENOENT();
+			}
+			if (attributes == null) {
+				attributes = metadataCache.get(key);
+			}
+			if (attributes == null && isAbsentFromListing(key)) {
+				logger.debug("Return not found the path '{}' absent from the listing of its folder.", path);
+				return -ErrorCodes.ENOENT();
+			}
+			if (attributes == null && persistentIndex != null) {
+				attributes = persistentIndex.get(key);
+				if (attributes != null) {
+					metadataCache.put(key, attributes);
+				}
+			}
+			if (attributes == null && keyFilter != null && !keyFilter.mightExist(key)) {
+				// not cached as not found, asking the filter is as cheap and a
+				// rebuilt filter sees objects created by other clients
+				logger.debug("Return not found the path '{}' absent from the filter of keys.", path);
+				return -ErrorCodes.ENOENT();
+			}
+			if (attributes == null) {
+				if (!metadataLimiter.acquire()) {
+					logger.warn("Interrupted while waiting to get the attributes of path '{}'.", path);
+					return -ErrorCodes.EINTR();
+				}
+				try {
+					attributes = pathResolver.resolve(key, directoryIndex.contains(key));
+				} catch (OSSException e) {
+					logger.error("Error on reading attr of path '{}'.", path);
+					throw new IllegalStateException("Error reading path " + path, e);
+				} catch (IOException e) {
+					logger.error("Error on reading attr of path '{}'.", path, e);
+					return -ErrorCodes.EIO();
+				} finally {
+					metadataLimiter.release();
+				}
+				if (attributes == null) {
+					metadataCache.putNotFound(key);
+					logger.error("Can not find path '{}'.", path);
+					return -ErrorCodes.ENOENT();
+				}
+				if (attributes.isDirectory()) {
+					directoryIndex.addDirectory(key);
+				}
+				metadataCache.put(key, attributes);
+			}
+			fillStat(stat, attributes);
+		}
+		logger.debug("Got attribute {} for path '{}'.", stat, path);
+		return 0;
+	}
+
+	/**
+	 * @return attributes of the file if it is open for writing or waiting in
+	 *         the write-back journal, otherwise <code>null</code>. A file
+	 *         streamed to OSS has the size written so far.
+	 */
+	private ObjectAttributes writtenAttributes(final String key) {
+		if (writeBack != null) {
+			return writeBack.getAttributes(key);
+		}
+		final FileHandle handle = uploads.get(key);
+		return handle == null ? null
+				: ObjectAttributes.file(handle.getUpload().getPosition(), handle.getAttributes().getLastModified(), null);
+	}
+
+	/**
+	 * @return whether a recent complete listing of the folder of the key does
+	 *         not contain it.
+	 */
+	private boolean isAbsentFromListing(final String key) {
+		final int slash = key.lastIndexOf('/');
+		final Set<String> children = directoryIndex.getChildren(slash < 0 ? "" : key.substring(0, slash), metadataTtlMillis);
+		return children != null && !children.contains(key.substring(slash + 1));
+	}
+
+	private void fillStat(final StatWrapper stat, final ObjectAttributes attributes) {
+		if (attributes.isDirectory()) {
+			stat.setMode(NodeType.DIRECTORY, true, !readOnly, true, true, false, true, true, false, true);
+		} else {
+			stat.setMode(NodeType.FILE, true, !readOnly, false, true, false, false, true, false, false);
+			stat.size(attributes.getSize());
+		}
+		if (attributes.getLastModified() > 0) {
+			stat.setAllTimesMillis(attributes.getLastModified());
+		}
+	}
+
+	@Override
+	public int open(final String path, final FileInfoWrapper info) {
+		final long start = openMetrics.start();
+		try {
+			return finished(openMetrics, start, doOpen(path, info));
+		} catch (RuntimeException e) {
+			openMetrics.failed(start, e.getClass().getSimpleName());
+			throw e;
+		}
+	}
+
+	private int doOpen(final String path, final FileInfoWrapper info) {
+		logger.debug("Opening path '{}'.", path);
+		final String key = path.substring(1);
+		final boolean writing = (info.flags() & O_ACCMODE) != O_RDONLY;
+		if (writing && readOnly) {
+			return -ErrorCodes.EROFS();
+		}
+		if (deleteBatcher != null && deleteBatcher.isPending(key)) {
+			return -ErrorCodes.ENOENT();
+		}
+		if (!metadataLimiter.acquire()) {
+			logger.warn("Interrupted while waiting to open path '{}'.", path);
+			return -ErrorCodes.EINTR();
+		}
+		try {
+			final ObjectAttributes attributes = fileAttributes(key);
+			final FileHandle handle;
+			if (writing) {
+				// objects can only be replaced, the kernel truncates files
+				// opened with O_TRUNC before
+				if (attributes.getSize() > 0) {
+					logger.error("Can not modify non-empty path '{}'.", path);
+					return -ErrorCodes.ENOTSUP();
+				}
+				handle = newWriteHandle(key);
+			} else {
+				final long maxWindow = readAheadMax;
+				handle = new FileHandle(key, attributes,
+						objectReader.isPrefetching() && maxWindow > 0 ? new ReadAhead(readAheadMin, maxWindow) : null);
+			}
+			registerHandle(handle, info);
+			logger.debug("Opened path '{}' as handle {}.", path, info.fh());
+			return 0;
+		} catch (OSSException e) {
+			if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
+				metadataCache.putNotFound(key);
+				logger.error("Can not find path '{}'.", path);
+				return -ErrorCodes.ENOENT();
+			}
+			logger.error("Error on opening path '{}'.", path);
+			throw new IllegalStateException("Error opening path " + path, e);
+		} catch (IOException e) {
+			logger.error("Error on opening path '{}'.", path, e);
+			return -ErrorCodes.EIO();
+		} finally {
+			metadataLimiter.release();
+		}
+	}
+
+	@Override
+	public int create(final String path, final ModeWrapper mode, final FileInfoWrapper info) {
+		logger.debug("Creating path '{}'.", path);
+		if (readOnly) {
+			return -ErrorCodes.EROFS();
+		}
+		final String key = path.substring(1);
+		final FileHandle handle;
+		try {
+			handle = newWriteHandle(key);
+		} catch (IOException e) {
+			logger.error("Error on creating path '{}'.", path, e);
+			return -ErrorCodes.EIO();
+		}
+		registerHandle(handle, info);
+		// the object appears once its upload is completed, until then the
+		// new file is known locally only
+		metadataCache.put(key, handle.getAttributes());
+		addToParent(key);
+		if (keyFilter != null) {
+			keyFilter.add(key);
+		}
+		return 0;
+	}
+
+	/**
+	 * @return a handle writing the file into the write-back journal if it is
+	 *         enabled, otherwise streaming it to OSS.
+	 */
+	private FileHandle newWriteHandle(final String key) throws IOException {
+		// a delete of the previous object must not hit the new one
+		deleteBatcher.cancel(key);
+		return writeBack != null ? new FileHandle(writeBack.create(key)) : new FileHandle(objectWriter.open(key));
+	}
+
+	private void registerHandle(final FileHandle handle, final FileInfoWrapper info) {
+		final long fh = nextHandle.incrementAndGet();
+		handles.put(fh, handle);
+		if (handle.getUpload() != null) {
+			uploads.put(handle.getKey(), handle);
+		}
+		info.fh(fh);
+	}
+
+	@Override
+	public int write(final String path, final ByteBuffer buf, final long bufSize, final long writeOffset, final FileInfoWrapper info) {
+		final long start = writeMetrics.start();
+		try {
+			return finished(writeMetrics, start, doWrite(path, buf, bufSize, writeOffset, info));
+		} catch (RuntimeException e) {
+			writeMetrics.failed(start, e.getClass().getSimpleName());
+			throw e;
+		}
+	}
+
+	private int doWrite(final String path, final ByteBuffer buf, final long bufSize, final long writeOffset, final FileInfoWrapper info) {
+		final FileHandle handle = handles.get(info.fh());
+		if (handle == null || !handle.isWriting()) {
+			logger.error("Write to path '{}' which is not open for writing.", path);
+			return -ErrorCodes.EBADF();
+		}
+		if (!dataLimiter.acquire()) {
+			logger.warn("Interrupted while waiting to write path '{}'.", path);
+			return -ErrorCodes.EINTR();
+		}
+		try {
+			if (handle.getEntry() != null) {
+				handle.getEntry().write(buf, writeOffset, (int) bufSize);
+			} else if (!handle.getUpload().write(buf, writeOffset, (int) bufSize)) {
+				logger.error("Write to path '{}' at offset {} which is not its end.", path, writeOffset);
+				return -ErrorCodes.ENOTSUP();
+			}
+			return (int) bufSize;
+		} catch (OSSException | IOException e) {
+			logger.error("Error on writing path '{}'.", path, e);
+			return -ErrorCodes.EIO();
+		} finally {
+			dataLimiter.release();
+		}
+	}
+
+	@Override
+	public int flush(final String path, final FileInfoWrapper info) {
+		final FileHandle handle = handles.get(info.fh());
+		if (handle == null || handle.getUpload() == null) {
+			return 0;
+		}
+		try {
+			// the upload is completed on release, report failed parts early
+			handle.getUpload().checkFailure();
+			return 0;
+		} catch (OSSException | IOException e) {
+			logger.error("Error on uploading path '{}'.", path, e);
+			return -ErrorCodes.EIO();
+		}
+	}
+
+	@Override
+	public int release(final String path, final FileInfoWrapper info) {
+		final long start = releaseMetrics.start();
+		try {
+			return finished(releaseMetrics, start, doRelease(path, info));
+		} catch (RuntimeException e) {
+			releaseMetrics.failed(start, e.getClass().getSimpleName());
+			throw e;
+		}
+	}
+
+	private int doRelease(final String path, final FileInfoWrapper info) {
+		final FileHandle handle = handles.remove(info.fh());
+		if (handle == null) {
+			return 0;
+		}
+		try {
+			if (handle.getEntry() != null) {
+				// durable in the journal, uploaded in the background
+				handle.getEntry().commit();
+				logger.debug("Committed path '{}' with {} bytes to the write-back journal.", path, handle.getEntry().getSize());
+			} else if (handle.getUpload() != null) {
+				final ObjectAttributes attributes = handle.getUpload().complete();
+				replaced(handle.getKey(), attributes);
+				logger.debug("Uploaded path '{}' with {} bytes.", path, attributes.getSize());
+			}
+			return 0;
+		} catch (OSSException | IOException e) {
+			logger.error("Error on uploading path '{}'.", path, e);
+			metadataCache.invalidate(handle.getKey());
+			return -ErrorCodes.EIO();
+		} finally {
+			uploads.remove(handle.getKey(), handle);
 			try {
-				ObjectMetadata objectMetadata = ossClient.getObjectMetadata(bucketName, path.substring(1));
-				stat.setMode(NodeType.FILE, true, false, false, true, false, false, true, false, false);
-				stat.setAllTimesMillis(objectMetadata.getLastModified().getTime());
-				stat.size(objectMetadata.getContentLength());
-			} catch (OSSException e) {
-				if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
-					final String folderKey = path.substring(1) + "/";
-					try {
-						ObjectMetadata objectMetadata = ossClient.getObjectMetadata(bucketName, folderKey);
-						stat.setMode(NodeType.DIRECTORY, true, false, true, true, false, true, true, false, true);
-						stat.setAllTimesMillis(objectMetadata.getLastModified().getTime());
-						stat.size(objectMetadata.getContentLength());
-					} catch (OSSException e2) {
-						if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
-							if (knownDirs.contains(path.substring(1))) {
-								stat.setMode(NodeType.DIRECTORY, true, false, true, true, false, true, true, false, true);
-							} else {
-								notFoundObject.put(path, NULL);
-								logger.error("Can not find path '{}'.", path);
-								return -ErrorCodes.ENOENT();
-							}
-						} else {
-							logger.error("Error on reading attr of path '{}'.", path);
-							throw new IllegalStateException("Error reading path " + path, e);
-						}
+				handle.close();
+			} catch (IOException e) {
+				logger.warn("Error on releasing path '{}'.", path, e);
+			}
+		}
+	}
+
+	@Override
+	public int truncate(final String path, final long offset) {
+		logger.debug("Truncating path '{}' to {} bytes.", path, offset);
+		if (readOnly) {
+			return -ErrorCodes.EROFS();
+		}
+		if (offset != 0) {
+			// objects can not be modified, only replaced
+			return -ErrorCodes.ENOTSUP();
+		}
+		final String key = path.substring(1);
+		try {
+			deleteBatcher.cancel(key);
+			if (writeBack != null) {
+				// an empty version replaces the one waiting in the journal,
+				// an object put directly would be overwritten by its upload
+				truncateInJournal(key);
+				return 0;
+			}
+			replaced(key, objectWriter.putEmpty(key));
+			return 0;
+		} catch (OSSException e) {
+			logger.error("Error on truncating path '{}'.", path);
+			throw new IllegalStateException("Error truncating path " + path, e);
+		} catch (IOException e) {
+			logger.error("Error on truncating path '{}'.", path, e);
+			return -ErrorCodes.EIO();
+		}
+	}
+
+	private void truncateInJournal(final String key) throws IOException {
+		final WriteBackCache.Entry entry = writeBack.create(key);
+		try {
+			entry.commit();
+		} catch (IOException | RuntimeException e) {
+			entry.discard();
+			throw e;
+		}
+	}
+
+	@Override
+	public int ftruncate(final String path, final long offset, final FileInfoWrapper info) {
+		final FileHandle handle = handles.get(info.fh());
+		if (handle != null && handle.getEntry() != null) {
+			try {
+				handle.getEntry().truncate(offset);
+				return 0;
+			} catch (IOException e) {
+				logger.error("Error on truncating path '{}'.", path, e);
+				return -ErrorCodes.EIO();
+			}
+		}
+		if (handle != null && handle.getUpload() != null) {
+			return handle.getUpload().getPosition() == offset ? 0 : -ErrorCodes.ENOTSUP();
+		}
+		return truncate(path, offset);
+	}
+
+	@Override
+	public int mkdir(final String path, final ModeWrapper mode) {
+		logger.debug("Making dir of path '{}'.", path);
+		if (readOnly) {
+			return -ErrorCodes.EROFS();
+		}
+		final String key = path.substring(1);
+		try {
+			deleteBatcher.cancel(key + "/");
+			store.putObject(key + "/", new byte[0], 0, 0);
+		} catch (OSSException e) {
+			logger.error("Error on making dir of path '{}'.", path);
+			throw new IllegalStateException("Error making directory of path " + path, e);
+		} catch (IOException e) {
+			logger.error("Error on making dir of path '{}'.", path, e);
+			return -ErrorCodes.EIO();
+		}
+		metadataCache.put(key, ObjectAttributes.directory(System.currentTimeMillis()));
+		directoryIndex.addDirectory(key);
+		addToParent(key);
+		if (persistentIndex != null) {
+			persistentIndex.put(key, ObjectAttributes.directory(System.currentTimeMillis()));
+		}
+		if (keyFilter != null) {
+			keyFilter.add(key + "/");
+		}
+		return 0;
+	}
+
+	@Override
+	public int rename(final String path, final String newName) {
+		logger.debug("Renaming path '{}' to '{}'.", path, newName);
+		if (readOnly) {
+			return -ErrorCodes.EROFS();
+		}
+		final String key = path.substring(1);
+		final String newKey = newName.substring(1);
+		if (writeBack != null && writeBack.getAttributes(key) != null) {
+			logger.error("Can not rename path '{}' which is not uploaded yet.", path);
+			return -ErrorCodes.EBUSY();
+		}
+		if (deleteBatcher.isPending(key)) {
+			return -ErrorCodes.ENOENT();
+		}
+		if (!metadataLimiter.acquire()) {
+			logger.warn("Interrupted while waiting to rename path '{}'.", path);
+			return -ErrorCodes.EINTR();
+		}
+		try {
+			ObjectAttributes attributes = metadataCache.get(key);
+			if (attributes == null || !attributes.isDirectory()) {
+				try {
+					attributes = fileAttributes(key);
+				} catch (OSSException e) {
+					if (!OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
+						throw e;
 					}
-					logger.debug("Got attribute {} for path '{}'.", stat, path);
-					return 0;
+					attributes = null;
 				}
-				logger.error("Error on reading attr of path '{}'.", path);
-				throw new IllegalStateException("Error reading path " + path, e);
 			}
+
+			if (attributes != null && !attributes.isDirectory()) {
+				// the content is copied by OSS, not through the mount
+				deleteBatcher.cancel(newKey);
+				final String etag = objectCopier.copy(key, newKey, attributes.getSize());
+				store.deleteObject(key);
+				removed(key);
+				replaced(newKey, ObjectAttributes.file(attributes.getSize(), System.currentTimeMillis(), etag));
+				logger.debug("Renamed file '{}' to '{}'.", path, newName);
+				return 0;
+			}
+
+			// objects removed just before must not be moved
+			deleteBatcher.flush(key + "/");
+			deleteBatcher.flush(newKey + "/");
+			final int moved = moveDirectory(key + "/", newKey + "/");
+			if (moved == 0) {
+				logger.error("Can not find path '{}' to rename.", path);
+				return -ErrorCodes.ENOENT();
+			}
+			// the cached paths below both directories are stale now
+			invalidateTree(key);
+			invalidateTree(newKey);
+			directoryIndex.removeChild(parentOf(key), key.substring(key.lastIndexOf('/') + 1));
+			directoryIndex.addDirectory(newKey);
+			addToParent(newKey);
+			if (persistentIndex != null) {
+				persistentIndex.removePrefix(key + "/");
+				persistentIndex.remove(key);
+				persistentIndex.put(newKey, ObjectAttributes.directory(System.currentTimeMillis()));
+			}
+			logger.debug("Renamed directory '{}' to '{}' with {} objects.", path, newName, moved);
+			return 0;
+		} catch (OSSException e) {
+			logger.error("Error on renaming path '{}'.", path);
+			throw new IllegalStateException("Error renaming path " + path, e);
+		} catch (IOException e) {
+			logger.error("Error on renaming path '{}'.", path, e);
+			// some objects may have been moved, the listings of both
+			// parents are unknown as well
+			invalidateTree(key);
+			invalidateTree(newKey);
+			directoryIndex.invalidate(parentOf(key));
+			directoryIndex.invalidate(parentOf(newKey));
+			return -ErrorCodes.EIO();
+		} finally {
+			metadataLimiter.release();
 		}
-		logger.debug("Got attribute {} for path '{}'.", stat, path);
+	}
+
+	@Override
+	public int unlink(final String path) {
+		logger.debug("Unlinking path '{}'.", path);
+		if (readOnly) {
+			return -ErrorCodes.EROFS();
+		}
+		final String key = path.substring(1);
+		if (writeBack != null && writeBack.getAttributes(key) != null) {
+			logger.error("Can not unlink path '{}' which is not uploaded yet.", path);
+			return -ErrorCodes.EBUSY();
+		}
+		final ObjectAttributes attributes = metadataCache.get(key);
+		if (attributes != null && attributes.isDirectory()) {
+			return -ErrorCodes.EISDIR();
+		}
+		// the file disappears right away, its object is deleted with the
+		// next batch
+		metadataCache.putNotFound(key);
+		deleteBatcher.delete(key);
 		return 0;
 	}
 
+	@Override
+	public int rmdir(final String path) {
+		logger.debug("Removing dir of path '{}'.", path);
+		if (readOnly) {
+			return -ErrorCodes.EROFS();
+		}
+		final String key = path.substring(1);
+		if (writeBack != null && !writeBack.getPendingChildren(key).isEmpty()) {
+			return -ErrorCodes.ENOTEMPTY();
+		}
+		if (!metadataLimiter.acquire()) {
+			logger.warn("Interrupted while waiting to remove the dir of path '{}'.", path);
+			return -ErrorCodes.EINTR();
+		}
+		try {
+			// the children unlinked just before must be gone from the listing
+			final String prefix = key + "/";
+			deleteBatcher.flush(prefix);
+			boolean hasMarker = false;
+			for (OSSObjectSummary objectSummary : store.listObjects(prefix, null, null, 2).getObjectSummaries()) {
+				if (!prefix.equals(objectSummary.getKey())) {
+					return -ErrorCodes.ENOTEMPTY();
+				}
+				hasMarker = true;
+			}
+
+			if (hasMarker) {
+				deleteBatcher.delete(prefix);
+			} else if (!directoryIndex.contains(key) && metadataCache.get(key) == null) {
+				logger.error("Can not find dir of path '{}' to remove.", path);
+				return -ErrorCodes.ENOENT();
+			}
+			// a directory without marker is gone with its last child
+			metadataCache.putNotFound(key);
+			directoryIndex.invalidate(key);
+			directoryIndex.removeChild(parentOf(key), key.substring(key.lastIndexOf('/') + 1));
+			if (persistentIndex != null) {
+				persistentIndex.removePrefix(prefix);
+				persistentIndex.remove(key);
+			}
+			return 0;
+		} catch (OSSException e) {
+			logger.error("Error on removing dir of path '{}'.", path);
+			throw new IllegalStateException("Error removing directory of path " + path, e);
+		} catch (IOException e) {
+			logger.error("Error on removing dir of path '{}'.", path, e);
+			return -ErrorCodes.EIO();
+		} finally {
+			metadataLimiter.release();
+		}
+	}
+
+	/**
+	 * Move all objects below the prefix, a page of the listing at a time.
+	 *
+	 * @return the number of moved objects
+	 */
+	private int moveDirectory(final String prefix, final String newPrefix) throws IOException {
+		int moved = 0;
+		String marker = null;
+		ObjectListing listing;
+		do {
+			listing = store.listObjects(prefix, null, marker, this.readMaxKeys);
+			if (keyFilter != null) {
+				for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+					keyFilter.add(newPrefix + objectSummary.getKey().substring(prefix.length()));
+				}
+			}
+			moved += objectCopier.move(listing.getObjectSummaries(), prefix, newPrefix);
+			marker = listing.getNextMarker();
+		} while (listing.isTruncated());
+		return moved;
+	}
+
+	/**
+	 * Forget the object after it was deleted.
+	 */
+	private void removed(final String key) {
+		metadataCache.putNotFound(key);
+		if (blockCache != null) {
+			blockCache.invalidate(key);
+		}
+		directoryIndex.removeChild(parentOf(key), key.substring(key.lastIndexOf('/') + 1));
+		if (persistentIndex != null) {
+			persistentIndex.remove(key);
+		}
+	}
+
+	/**
+	 * Forget cached content of the object after it was replaced.
+	 */
+	private void replaced(final String key, final ObjectAttributes attributes) {
+		metadataCache.put(key, attributes);
+		if (blockCache != null) {
+			blockCache.invalidate(key);
+		}
+		addToParent(key);
+		if (persistentIndex != null) {
+			persistentIndex.put(key, attributes);
+		}
+		if (keyFilter != null) {
+			keyFilter.add(key);
+		}
+	}
+
+	/**
+	 * Forget the cached attributes and listings of the path and of all paths
+	 * below it.
+	 */
+	private void invalidateTree(final String key) {
+		metadataCache.invalidate(key);
+		metadataCache.invalidatePrefix(key + "/");
+		directoryIndex.invalidateTree(key);
+	}
+
+	private void addToParent(final String key) {
+		directoryIndex.addChild(parentOf(key), key.substring(key.lastIndexOf('/') + 1));
+	}
+
+	private static String parentOf(final String key) {
+		final int slash = key.lastIndexOf('/');
+		return slash < 0 ? "" : key.substring(0, slash);
+	}
+
+	/**
+	 * @return attributes of the file with the key, from the metadata cache if
+	 *         it is known to be a file.
+	 */
+	private ObjectAttributes fileAttributes(final String key) {
+		ObjectAttributes attributes = writeBack == null ? null : writeBack.getAttributes(key);
+		if (attributes != null) {
+			return attributes;
+		}
+		attributes = metadataCache.get(key);
+		if (attributes == null && persistentIndex != null) {
+			attributes = persistentIndex.get(key);
+		}
+		if (attributes == null || attributes.isDirectory()) {
+			ObjectMetadata metadata = store.headObject(key);
+			attributes = ObjectAttributes.file(metadata.getContentLength(), metadata.getLastModified().getTime(), metadata.getETag());
+			metadataCache.put(key, attributes);
+		}
+		return attributes;
+	}
+
 	@Override
 	public int read(final String path, final ByteBuffer buffer, final long size, final long offset, final FileInfoWrapper info) {
+		final long start = readMetrics.start();
+		try {
+			return finished(readMetrics, start, doRead(path, buffer, size, offset, info));
+		} catch (RuntimeException e) {
+			readMetrics.failed(start, e.getClass().getSimpleName());
+			throw e;
+		}
+	}
+
+	private int doRead(final String path, final ByteBuffer buffer, final long size, final long offset, final FileInfoWrapper info) {
 		logger.debug("Reading path '{}' with size {} from offset {}.", path, size, offset);
+		final String key = path.substring(1);
+		if (!dataLimiter.acquire()) {
+			logger.warn("Interrupted while waiting to read path '{}'.", path);
+			return -ErrorCodes.EINTR();
+		}
 		try {
-			GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, path.substring(1));
-			getObjectRequest.setRange(offset, offset + size - 1);
+			if (writeBack != null) {
+				final int read = writeBack.read(key, buffer, offset, size);
+				if (read >= 0) {
+					return read;
+				}
+			}
 
-			OSSObject object = ossClient.getObject(getObjectRequest);
+			// reads without an open handle take the attributes every time
+			FileHandle handle = info == null ? null : handles.get(info.fh());
+			if (handle == null) {
+				handle = new FileHandle(key, fileAttributes(key), null);
+			}
 
-			final InputStream objInput = object.getObjectContent();
-			final int length = (int) object.getObjectMetadata().getContentLength();
-			int read = 0;
-			final int bufSize = 1024;
-			try {
-				if (length > size) {
-					// anyway OSS API does not honor the range specified in
-					// GetObjectRequest
-					objInput.skip(offset);
-				}
-				byte[] readBuffer = new byte[bufSize];
-				int bytesRead;
-				while ((bytesRead = objInput.read(readBuffer)) > -1) {
-					read += bytesRead;
-					buffer.put(readBuffer, 0, bytesRead);
+			final ObjectAttributes attributes = handle.getAttributes();
+			if (handle.getReadAhead() != null) {
+				final long[] range = handle.getReadAhead().onRead(offset, offset + size, attributes.getSize());
+				if (range != null) {
+					objectReader.prefetch(key, attributes.getEtag(), attributes.getSize(), range[0], range[1]);
 				}
-			} finally {
-				IOUtils.safeClose(objInput);
 			}
+
+			final int read = objectReader.read(handle, buffer, offset, size);
 			logger.debug("Read path '{}' with length {} from offset {}.", path, read, offset);
 			return read;
 		} catch (OSSException e) {
 			if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
+				metadataCache.putNotFound(key);
 				logger.error("Can not find path '{}'.", path);
 				return -ErrorCodes.ENOENT();
 			}
+			if (OSSErrorCode.INVALID_RANGE.equals(e.getErrorCode())) {
+				// the object shrank since its metadata was cached
+				metadataCache.invalidate(key);
+				logger.debug("Read path '{}' beyond its end at offset {}.", path, offset);
+				return 0;
+			}
 			logger.error("Error on reading path '{}'.", path);
 			throw new IllegalStateException("Error reading contents of path " + path, e);
 		} catch (IOException e) {
 			logger.error("Error on reading path '{}'.", path);
 			throw new IllegalStateException("Error reading contents of path " + path, e);
+		} finally {
+			dataLimiter.release();
 		}
 	}
 
 	@Override
 	public int readdir(final String path, final DirectoryFiller filler) {
+		final long start = readdirMetrics.start();
+		try {
+			return finished(readdirMetrics, start, doReaddir(path, filler));
+		} catch (RuntimeException e) {
+			readdirMetrics.failed(start, e.getClass().getSimpleName());
+			throw e;
+		}
+	}
+
+	private int doReaddir(final String path, final DirectoryFiller filler) {
 		logger.debug("Read dir from path '{}'.", path);
 		if (path == null || !path.startsWith("/")) {
 			logger.error("Read dir from illegal path '{}'.", path);
 			throw new IllegalStateException("Error reading directories in illegal path " + path);
 		}
-		// 构造ListObjectsRequest请求
-		ListObjectsRequest listObjectsRequest = new ListObjectsRequest(bucketName);
-		// "/" 为文件夹的分隔符
-		listObjectsRequest.setDelimiter("/");
-		listObjectsRequest.setMaxKeys(this.readMaxKeys);
+		if (!metadataLimiter.acquire()) {
+			logger.warn("Interrupted while waiting to read the dir of path '{}'.", path);
+			return -ErrorCodes.EINTR();
+		}
+		try {
+			return listDirectory(path, filler);
+		} catch (IOException e) {
+			logger.error("Error on reading dir from path '{}'.", path, e);
+			return -ErrorCodes.EIO();
+		} finally {
+			metadataLimiter.release();
+		}
+	}
 
+	private int listDirectory(final String path, final DirectoryFiller filler) throws IOException {
 		final String folderName = path.substring(1);
 		final String prefix = folderName + "/";
 		if (!"/".equals(path)) {
-			if (!knownDirs.contains(folderName)) {
+			final ObjectAttributes attributes = metadataCache.get(folderName);
+			if (!directoryIndex.contains(folderName) && (attributes == null || !attributes.isDirectory())) {
 				try {
-					ossClient.getObjectMetadata(bucketName, prefix);
+					store.headObject(prefix);
 				} catch (OSSException e) {
 					if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
 						logger.error("Read dir from nonexisting path '{}'.", path);
@@ -212,37 +1391,99 @@ public class AliyunOSSFilesystem extends FuseFilesystemAdapterFull implements Cl
 					throw new IllegalStateException("Error reading directory in path " + path, e);
 				}
 			}
-			// 列出目录下的所有文件和文件夹
-			listObjectsRequest.setPrefix(prefix);
 		}
 
-		ObjectListing listing;
-		do {
-			listing = ossClient.listObjects(listObjectsRequest);
-			// 遍历所有CommonPrefix
-			for (String commonPrefix : listing.getCommonPrefixes()) {
-				final String folderNameWithoutTrailer = commonPrefix.substring(0, commonPrefix.length() - 1);
-				final String folderPath = "/" + folderNameWithoutTrailer;
-				filler.add(folderPath);
-				knownDirs.add(folderNameWithoutTrailer);
-				if (notFoundObject.getIfPresent(folderPath) != null)
-					notFoundObject.invalidate(folderPath);
-			}
+		List<String> children = new ArrayList<String>();
+		// files in the write-back journal are not listed by OSS yet
+		final List<String> pending = writeBack == null ? Collections.<String> emptyList() : writeBack.getPendingChildren(folderName);
+		for (String name : pending) {
+			filler.add(folderName.isEmpty() ? name : prefix + name);
+		}
+		// 列出目录下的所有文件和文件夹, "/" 为文件夹的分隔符
+		try (ListingPages pages = directoryLister.list("/".equals(path) ? "" : prefix, "/", this.readMaxKeys)) {
+			ObjectListing listing;
+			while ((listing = pages.next()) != null) {
+				// 遍历所有CommonPrefix
+				for (String commonPrefix : listing.getCommonPrefixes()) {
+					if (isDeleting(commonPrefix)) {
+						continue;
+					}
+					final String folderNameWithoutTrailer = commonPrefix.substring(0, commonPrefix.length() - 1);
+					final String folderPath = "/" + folderNameWithoutTrailer;
+					if (!filler.add(folderPath)) {
+						return stopListing(path);
+					}
+					directoryIndex.addDirectory(folderNameWithoutTrailer);
+					children = addChild(children, folderNameWithoutTrailer);
+					// keep the attributes from the marker object of the folder
+					if (metadataCache.get(folderNameWithoutTrailer) == null) {
+						metadataCache.put(folderNameWithoutTrailer, ObjectAttributes.directory(0));
+					}
+				}
 
-			// 遍历所有Object
-			for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
-				if (prefix.equals(objectSummary.getKey()))
-					continue;
-				filler.add(objectSummary.getKey());
+				// 遍历所有Object
+				for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+					if (prefix.equals(objectSummary.getKey())) {
+						// the marker object of the listed folder itself
+						metadataCache.put(folderName, ObjectAttributes.directory(objectSummary.getLastModified().getTime()));
+						continue;
+					}
+					final String key = objectSummary.getKey();
+					if (isDeleting(key)) {
+						continue;
+					}
+					if (!pending.isEmpty() && pending.contains(key.substring(key.lastIndexOf('/') + 1))) {
+						continue;
+					}
+					if (!filler.add(objectSummary.getKey())) {
+						return stopListing(path);
+					}
+					children = addChild(children, objectSummary.getKey());
+					// fuse-jna's filler takes names only, so the attributes of
+					// every entry are kept to answer the stats which follow
+					metadataCache.put(objectSummary.getKey(), ObjectAttributes.file(objectSummary.getSize(),
+							objectSummary.getLastModified().getTime(), objectSummary.getETag()));
+				}
 			}
+		}
 
-			listObjectsRequest.setMarker(listing.getNextMarker());
-		} while (listing.isTruncated());
-
+		if (children != null) {
+			directoryIndex.setChildren(folderName, children);
+		}
 		logger.debug("Read dir from path '{}' with result {}.", path, filler);
 		return 0;
 	}
 
+	/**
+	 * The filler takes no more entries, so the remaining pages are not
+	 * requested and the incomplete listing is not indexed.
+	 */
+	private int stopListing(final String path) {
+		logger.debug("Stopped reading dir from path '{}', the filler is full.", path);
+		return 0;
+	}
+
+	/**
+	 * @return whether the object is still listed but queued for deletion.
+	 */
+	private boolean isDeleting(final String key) {
+		return deleteBatcher != null && deleteBatcher.isPending(key);
+	}
+
+	/**
+	 * Add the name of the key to the children of a listing unless the folder
+	 * is too large to be indexed.
+	 *
+	 * @return the children or <code>null</code> if there are too many
+	 */
+	private static List<String> addChild(final List<String> children, final String key) {
+		if (children == null || children.size() >= MAX_INDEXED_CHILDREN) {
+			return null;
+		}
+		children.add(key.substring(key.lastIndexOf('/') + 1));
+		return children;
+	}
+
 	/**
 	 * Free up resources held for the OSS client and unmount the
 	 * FUSE-filesystem.
@@ -253,6 +1494,41 @@ public class AliyunOSSFilesystem extends FuseFilesystemAdapterFull implements Cl
 	 */
 	@Override
 	public void close() throws IOException {
-		ossClient = null;
+		for (FileHandle handle : handles.values()) {
+			handle.close();
+		}
+		handles.clear();
+		uploads.clear();
+		objectReader.close();
+		pathResolver.close();
+		if (persistentIndex != null) {
+			persistentIndex.close();
+		}
+		if (keyFilter != null) {
+			keyFilter.close();
+		}
+		directoryLister.close();
+		if (writeBack != null) {
+			writeBack.close();
+		}
+		if (deleteBatcher != null) {
+			deleteBatcher.close();
+		}
+		if (objectCopier != null) {
+			objectCopier.close();
+		}
+		if (objectWriter != null) {
+			objectWriter.close();
+		}
+		metadataCache.invalidateAll();
+		directoryIndex.invalidateAll();
+		if (blockCache != null) {
+			blockCache.close();
+		}
+		metrics.close();
+		if (store != null) {
+			store.close();
+			store = null;
+		}
 	}
 }
@@ -0,0 +1,787 @@
+package com.github.zxkane.aliyunoss;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import com.aliyun.oss.ClientConfiguration;
+import com.aliyun.oss.common.comm.Protocol;
+import com.github.zxkane.aliyunoss.util.IgnorePolicy;
+
+/**
+ * Tunables of a mount of an Aliyun OSS bucket. The defaults are used unless
+ * they are overridden on the command line.
+ */
+public class MountConfig {
+
+	private int blockSize = 1024 * 1024;
+
+	private long memoryCacheSize = 64L * 1024 * 1024;
+
+	private File cacheDir;
+
+	private long diskCacheSize = 1024L * 1024 * 1024;
+
+	private long readAheadMin = 1024L * 1024;
+
+	private long readAheadMax = 64L * 1024 * 1024;
+
+	private int prefetchThreads = 4;
+
+	private long fetchPartSize = 8L * 1024 * 1024;
+
+	private int fetchThreads = 4;
+
+	private long metadataTtl = 60;
+
+	private long metadataCacheSize = 100000;
+
+	private long notFoundTtl = 3 * 60 * 60;
+
+	private long notFoundCacheSize = 100000;
+
+	private long directoryIndexSize = 1000000;
+
+	private long directoryIndexIdle = 30 * 60;
+
+	private int metadataConcurrency = 32;
+
+	private int dataConcurrency = 16;
+
+	private int maxBackground;
+
+	private int maxConnections = 128;
+
+	private int connectionTimeout = 10 * 1000;
+
+	private int socketTimeout = 60 * 1000;
+
+	private int maxErrorRetry = 3;
+
+	private long connectionTtl = -1;
+
+	private boolean idleReaper = true;
+
+	private Protocol protocol = Protocol.HTTP;
+
+	private boolean internalEndpoint;
+
+	private String cname;
+
+	// writing is opt-in, a mount must not change the bucket unasked
+	private boolean readOnly = true;
+
+	private long writePartSize = 8L * 1024 * 1024;
+
+	private int uploadThreads = 4;
+
+	private int uploadBuffers = 16;
+
+	private File writeBackDir;
+
+	private int writeBackThreads = 8;
+
+	private int writeBackBacklog = 10000;
+
+	private int writeBackRetries = 10;
+
+	private long copyPartSize = 64L * 1024 * 1024;
+
+	private int copyThreads = 8;
+
+	private long deleteDelay = 50;
+
+	private int deleteThreads = 4;
+
+	private int listThreads = 8;
+
+	private int listAhead = 2;
+
+	private int listShards = 8;
+
+	private File indexDir;
+
+	private long indexRefresh = 3600;
+
+	private List<String> ignorePatterns = IgnorePolicy.DEFAULT_PATTERNS;
+
+	private boolean keyFilter;
+
+	private long keyFilterSize = 10000000;
+
+	private long keyFilterRefresh = 3600;
+
+	private List<String> prewarmPaths = Collections.emptyList();
+
+	private boolean prewarmData;
+
+	private List<String> pinPaths = Collections.emptyList();
+
+	private int prewarmThreads = 8;
+
+	private boolean jmx;
+
+	private int metricsPort;
+
+	/**
+	 * @return size in bytes of the blocks which are fetched from OSS and kept
+	 *         in the block cache.
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public void setBlockSize(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return maximum bytes of blocks kept in memory, 0 disables the memory
+	 *         tier of the block cache.
+	 */
+	public long getMemoryCacheSize() {
+		return memoryCacheSize;
+	}
+
+	public void setMemoryCacheSize(long memoryCacheSize) {
+		this.memoryCacheSize = memoryCacheSize;
+	}
+
+	/**
+	 * @return local directory of the disk tier of the block cache or
+	 *         <code>null</code> if the disk tier is disabled.
+	 */
+	public File getCacheDir() {
+		return cacheDir;
+	}
+
+	public void setCacheDir(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * @return maximum bytes of blocks kept in the disk tier.
+	 */
+	public long getDiskCacheSize() {
+		return diskCacheSize;
+	}
+
+	public void setDiskCacheSize(long diskCacheSize) {
+		this.diskCacheSize = diskCacheSize;
+	}
+
+	/**
+	 * @return initial size in bytes of the read-ahead window of a file which
+	 *         is read sequentially.
+	 */
+	public long getReadAheadMin() {
+		return readAheadMin;
+	}
+
+	public void setReadAheadMin(long readAheadMin) {
+		this.readAheadMin = readAheadMin;
+	}
+
+	/**
+	 * @return size in bytes up to which the read-ahead window grows, 0
+	 *         disables read-ahead.
+	 */
+	public long getReadAheadMax() {
+		return readAheadMax;
+	}
+
+	public void setReadAheadMax(long readAheadMax) {
+		this.readAheadMax = readAheadMax;
+	}
+
+	/**
+	 * @return number of threads fetching read-ahead blocks in the background.
+	 */
+	public int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+
+	public void setPrefetchThreads(int prefetchThreads) {
+		this.prefetchThreads = prefetchThreads;
+	}
+
+	/**
+	 * @return size in bytes of the parts which are fetched in parallel when a
+	 *         read or a read-ahead misses many blocks.
+	 */
+	public long getFetchPartSize() {
+		return fetchPartSize;
+	}
+
+	public void setFetchPartSize(long fetchPartSize) {
+		this.fetchPartSize = fetchPartSize;
+	}
+
+	/**
+	 * @return number of threads fetching parts in parallel, 0 fetches every
+	 *         range with a single request.
+	 */
+	public int getFetchThreads() {
+		return fetchThreads;
+	}
+
+	public void setFetchThreads(int fetchThreads) {
+		this.fetchThreads = fetchThreads;
+	}
+
+	/**
+	 * @return seconds the cached attributes of files and directories are
+	 *         trusted.
+	 */
+	public long getMetadataTtl() {
+		return metadataTtl;
+	}
+
+	public void setMetadataTtl(long metadataTtl) {
+		this.metadataTtl = metadataTtl;
+	}
+
+	/**
+	 * @return maximum number of files and directories with cached attributes.
+	 */
+	public long getMetadataCacheSize() {
+		return metadataCacheSize;
+	}
+
+	public void setMetadataCacheSize(long metadataCacheSize) {
+		this.metadataCacheSize = metadataCacheSize;
+	}
+
+	/**
+	 * @return seconds a path is remembered to not exist.
+	 */
+	public long getNotFoundTtl() {
+		return notFoundTtl;
+	}
+
+	public void setNotFoundTtl(long notFoundTtl) {
+		this.notFoundTtl = notFoundTtl;
+	}
+
+	/**
+	 * @return maximum number of paths remembered to not exist.
+	 */
+	public long getNotFoundCacheSize() {
+		return notFoundCacheSize;
+	}
+
+	public void setNotFoundCacheSize(long notFoundCacheSize) {
+		this.notFoundCacheSize = notFoundCacheSize;
+	}
+
+	/**
+	 * @return maximum number of directories and names of their children kept
+	 *         in the directory index.
+	 */
+	public long getDirectoryIndexSize() {
+		return directoryIndexSize;
+	}
+
+	public void setDirectoryIndexSize(long directoryIndexSize) {
+		this.directoryIndexSize = directoryIndexSize;
+	}
+
+	/**
+	 * @return seconds after which a directory which was not accessed is
+	 *         evicted from the directory index.
+	 */
+	public long getDirectoryIndexIdle() {
+		return directoryIndexIdle;
+	}
+
+	public void setDirectoryIndexIdle(long directoryIndexIdle) {
+		this.directoryIndexIdle = directoryIndexIdle;
+	}
+
+	/**
+	 * @return maximum number of attribute and listing requests running against
+	 *         OSS at the same time, 0 removes the limit.
+	 */
+	public int getMetadataConcurrency() {
+		return metadataConcurrency;
+	}
+
+	public void setMetadataConcurrency(int metadataConcurrency) {
+		this.metadataConcurrency = metadataConcurrency;
+	}
+
+	/**
+	 * @return maximum number of reads running at the same time, 0 removes the
+	 *         limit.
+	 */
+	public int getDataConcurrency() {
+		return dataConcurrency;
+	}
+
+	public void setDataConcurrency(int dataConcurrency) {
+		this.dataConcurrency = dataConcurrency;
+	}
+
+	/**
+	 * @return maximum number of background requests the kernel keeps pending,
+	 *         0 keeps the default of the kernel.
+	 */
+	public int getMaxBackground() {
+		return maxBackground;
+	}
+
+	public void setMaxBackground(int maxBackground) {
+		this.maxBackground = maxBackground;
+	}
+
+	/**
+	 * @return maximum number of HTTP connections to OSS.
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * @return milliseconds to wait for a connection to be established.
+	 */
+	public int getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout(int connectionTimeout) {
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	/**
+	 * @return milliseconds to wait for data on an established connection.
+	 */
+	public int getSocketTimeout() {
+		return socketTimeout;
+	}
+
+	public void setSocketTimeout(int socketTimeout) {
+		this.socketTimeout = socketTimeout;
+	}
+
+	/**
+	 * @return number of times a request failing with a retriable error is
+	 *         retried, the SDK pauses exponentially longer between attempts.
+	 */
+	public int getMaxErrorRetry() {
+		return maxErrorRetry;
+	}
+
+	public void setMaxErrorRetry(int maxErrorRetry) {
+		this.maxErrorRetry = maxErrorRetry;
+	}
+
+	/**
+	 * @return milliseconds a pooled connection is reused, -1 reuses it
+	 *         forever.
+	 */
+	public long getConnectionTtl() {
+		return connectionTtl;
+	}
+
+	public void setConnectionTtl(long connectionTtl) {
+		this.connectionTtl = connectionTtl;
+	}
+
+	/**
+	 * @return whether idle and expired connections are closed in the
+	 *         background.
+	 */
+	public boolean isIdleReaper() {
+		return idleReaper;
+	}
+
+	public void setIdleReaper(boolean idleReaper) {
+		this.idleReaper = idleReaper;
+	}
+
+	public Protocol getProtocol() {
+		return protocol;
+	}
+
+	public void setProtocol(Protocol protocol) {
+		this.protocol = protocol;
+	}
+
+	/**
+	 * @return whether the internal endpoint of the region is used, which is
+	 *         reachable from ECS instances only.
+	 */
+	public boolean isInternalEndpoint() {
+		return internalEndpoint;
+	}
+
+	public void setInternalEndpoint(boolean internalEndpoint) {
+		this.internalEndpoint = internalEndpoint;
+	}
+
+	/**
+	 * @return custom domain bound to the bucket which is used instead of the
+	 *         endpoint or <code>null</code>.
+	 */
+	public String getCname() {
+		return cname;
+	}
+
+	public void setCname(String cname) {
+		this.cname = cname;
+	}
+
+	/**
+	 * @return configuration of the OSS client of a mount.
+	 */
+	public ClientConfiguration toClientConfiguration() {
+		final ClientConfiguration clientConfig = new ClientConfiguration();
+		clientConfig.setMaxConnections(maxConnections);
+		clientConfig.setConnectionTimeout(connectionTimeout);
+		clientConfig.setSocketTimeout(socketTimeout);
+		clientConfig.setMaxErrorRetry(maxErrorRetry);
+		clientConfig.setConnectionTTL(connectionTtl);
+		clientConfig.setUseReaper(idleReaper);
+		clientConfig.setProtocol(protocol);
+		return clientConfig;
+	}
+
+	/**
+	 * @return the endpoint the OSS client of a mount connects to instead of
+	 *         the given endpoint of the region.
+	 */
+	public String resolveEndpoint(String endpoint) {
+		if (cname != null) {
+			return cname;
+		}
+		if (!internalEndpoint) {
+			return endpoint;
+		}
+		// oss-cn-hangzhou.aliyuncs.com becomes oss-cn-hangzhou-internal.aliyuncs.com
+		final int scheme = endpoint.indexOf("://");
+		final int hostStart = scheme < 0 ? 0 : scheme + 3;
+		final int regionEnd = endpoint.indexOf('.', hostStart);
+		if (regionEnd < 0 || endpoint.substring(hostStart, regionEnd).endsWith("-internal")) {
+			return endpoint;
+		}
+		return endpoint.substring(0, regionEnd) + "-internal" + endpoint.substring(regionEnd);
+	}
+
+	/**
+	 * @return whether files and directories can not be created, changed or
+	 *         removed, <code>true</code> by default.
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * @return size in bytes of the parts written files are uploaded in.
+	 */
+	public long getWritePartSize() {
+		return writePartSize;
+	}
+
+	public void setWritePartSize(long writePartSize) {
+		this.writePartSize = writePartSize;
+	}
+
+	/**
+	 * @return number of threads uploading parts of written files.
+	 */
+	public int getUploadThreads() {
+		return uploadThreads;
+	}
+
+	public void setUploadThreads(int uploadThreads) {
+		this.uploadThreads = uploadThreads;
+	}
+
+	/**
+	 * @return maximum number of parts of all written files buffered for
+	 *         upload, writers wait once it is reached.
+	 */
+	public int getUploadBuffers() {
+		return uploadBuffers;
+	}
+
+	public void setUploadBuffers(int uploadBuffers) {
+		this.uploadBuffers = uploadBuffers;
+	}
+
+	/**
+	 * @return local journal directory of written files which are uploaded in
+	 *         the background or <code>null</code> if files are uploaded while
+	 *         they are written.
+	 */
+	public File getWriteBackDir() {
+		return writeBackDir;
+	}
+
+	public void setWriteBackDir(File writeBackDir) {
+		this.writeBackDir = writeBackDir;
+	}
+
+	/**
+	 * @return number of files uploaded from the journal at the same time.
+	 */
+	public int getWriteBackThreads() {
+		return writeBackThreads;
+	}
+
+	public void setWriteBackThreads(int writeBackThreads) {
+		this.writeBackThreads = writeBackThreads;
+	}
+
+	/**
+	 * @return maximum number of files waiting for their upload, closing files
+	 *         waits once it is reached.
+	 */
+	public int getWriteBackBacklog() {
+		return writeBackBacklog;
+	}
+
+	public void setWriteBackBacklog(int writeBackBacklog) {
+		this.writeBackBacklog = writeBackBacklog;
+	}
+
+	/**
+	 * @return number of times a failed upload from the journal is retried.
+	 */
+	public int getWriteBackRetries() {
+		return writeBackRetries;
+	}
+
+	public void setWriteBackRetries(int writeBackRetries) {
+		this.writeBackRetries = writeBackRetries;
+	}
+
+	/**
+	 * @return size in bytes of the parts objects are copied in on the server
+	 *         side, smaller objects are copied with one request.
+	 */
+	public long getCopyPartSize() {
+		return copyPartSize;
+	}
+
+	public void setCopyPartSize(long copyPartSize) {
+		this.copyPartSize = copyPartSize;
+	}
+
+	/**
+	 * @return number of objects and of parts copied at the same time.
+	 */
+	public int getCopyThreads() {
+		return copyThreads;
+	}
+
+	public void setCopyThreads(int copyThreads) {
+		this.copyThreads = copyThreads;
+	}
+
+	/**
+	 * @return milliseconds a batch of deletes waits for more deletes before it
+	 *         is sent.
+	 */
+	public long getDeleteDelay() {
+		return deleteDelay;
+	}
+
+	public void setDeleteDelay(long deleteDelay) {
+		this.deleteDelay = deleteDelay;
+	}
+
+	/**
+	 * @return number of batches of deletes sent at the same time.
+	 */
+	public int getDeleteThreads() {
+		return deleteThreads;
+	}
+
+	public void setDeleteThreads(int deleteThreads) {
+		this.deleteThreads = deleteThreads;
+	}
+
+	/**
+	 * @return number of listing pages requested at the same time over all
+	 *         directories.
+	 */
+	public int getListThreads() {
+		return listThreads;
+	}
+
+	public void setListThreads(int listThreads) {
+		this.listThreads = listThreads;
+	}
+
+	/**
+	 * @return number of listing pages of a directory requested before they
+	 *         are read.
+	 */
+	public int getListAhead() {
+		return listAhead;
+	}
+
+	public void setListAhead(int listAhead) {
+		this.listAhead = listAhead;
+	}
+
+	/**
+	 * @return number of shards of a large listing requested at the same time,
+	 *         1 lists sequentially.
+	 */
+	public int getListShards() {
+		return listShards;
+	}
+
+	public void setListShards(int listShards) {
+		this.listShards = listShards;
+	}
+
+	/**
+	 * @return the directory the objects of every bucket are indexed in across
+	 *         mounts or <code>null</code> if they are not.
+	 */
+	public File getIndexDir() {
+		return indexDir;
+	}
+
+	public void setIndexDir(File indexDir) {
+		this.indexDir = indexDir;
+	}
+
+	/**
+	 * @return seconds after which the index is refreshed by listing the whole
+	 *         bucket.
+	 */
+	public long getIndexRefresh() {
+		return indexRefresh;
+	}
+
+	public void setIndexRefresh(long indexRefresh) {
+		this.indexRefresh = indexRefresh;
+	}
+
+	/**
+	 * @return patterns of the paths answered as missing without asking OSS.
+	 * @see IgnorePolicy
+	 */
+	public List<String> getIgnorePatterns() {
+		return ignorePatterns;
+	}
+
+	public void setIgnorePatterns(List<String> ignorePatterns) {
+		this.ignorePatterns = ignorePatterns;
+	}
+
+	/**
+	 * @return whether paths missing from a filter of all keys of the bucket
+	 *         are answered as missing without asking OSS.
+	 */
+	public boolean isKeyFilter() {
+		return keyFilter;
+	}
+
+	public void setKeyFilter(boolean keyFilter) {
+		this.keyFilter = keyFilter;
+	}
+
+	/**
+	 * @return number of paths the filter of all keys is sized for.
+	 */
+	public long getKeyFilterSize() {
+		return keyFilterSize;
+	}
+
+	public void setKeyFilterSize(long keyFilterSize) {
+		this.keyFilterSize = keyFilterSize;
+	}
+
+	/**
+	 * @return seconds after which the filter of all keys is built again.
+	 */
+	public long getKeyFilterRefresh() {
+		return keyFilterRefresh;
+	}
+
+	public void setKeyFilterRefresh(long keyFilterRefresh) {
+		this.keyFilterRefresh = keyFilterRefresh;
+	}
+
+	/**
+	 * @return paths whose attributes are cached after mounting.
+	 */
+	public List<String> getPrewarmPaths() {
+		return prewarmPaths;
+	}
+
+	public void setPrewarmPaths(List<String> prewarmPaths) {
+		this.prewarmPaths = prewarmPaths;
+	}
+
+	/**
+	 * @return whether the content of the files below the prewarmed paths is
+	 *         downloaded into the block cache as well.
+	 */
+	public boolean isPrewarmData() {
+		return prewarmData;
+	}
+
+	public void setPrewarmData(boolean prewarmData) {
+		this.prewarmData = prewarmData;
+	}
+
+	/**
+	 * @return paths whose attributes and content are downloaded after
+	 *         mounting and kept in the caches.
+	 */
+	public List<String> getPinPaths() {
+		return pinPaths;
+	}
+
+	public void setPinPaths(List<String> pinPaths) {
+		this.pinPaths = pinPaths;
+	}
+
+	/**
+	 * @return number of parts of prewarmed files downloaded at the same time.
+	 */
+	public int getPrewarmThreads() {
+		return prewarmThreads;
+	}
+
+	public void setPrewarmThreads(int prewarmThreads) {
+		this.prewarmThreads = prewarmThreads;
+	}
+
+	/**
+	 * @return whether the metrics of the mount are registered as MXBeans.
+	 */
+	public boolean isJmx() {
+		return jmx;
+	}
+
+	public void setJmx(boolean jmx) {
+		this.jmx = jmx;
+	}
+
+	/**
+	 * @return local port the metrics of all mounts are served at for
+	 *         Prometheus, 0 to not serve them.
+	 */
+	public int getMetricsPort() {
+		return metricsPort;
+	}
+
+	public void setMetricsPort(int metricsPort) {
+		this.metricsPort = metricsPort;
+	}
+}
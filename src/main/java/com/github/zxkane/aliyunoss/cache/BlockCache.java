@@ -0,0 +1,620 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Cache of fixed-size blocks of OSS objects. Blocks are identified by the key
+ * and ETag of the object together with the block index, so a modified object
+ * never returns stale blocks.
+ *
+ * The cache has a memory tier bounded by total bytes and an optional disk tier
+ * in a local directory which is bounded by total bytes as well. Both tiers
+ * evict the least recently used blocks first and can be resized while in use.
+ *
+ * Blocks of objects below pinned prefixes are never evicted from the disk
+ * tier, they count towards its size and push out other blocks instead. The
+ * memory tier evicts them like any other block.
+ *
+ * The disk tier outlives the cache, a new cache on the same directory serves
+ * the blocks left there by the previous one.
+ */
+public class BlockCache implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(BlockCache.class);
+
+	private final int blockSize;
+
+	// replaced when the memory tier is resized
+	private volatile Cache<BlockKey, byte[]> memory;
+
+	private long memoryCapacity;
+
+	// blocks of the memory tier by object, kept across resizes
+	private final ObjectIndex memoryObjects = new ObjectIndex();
+
+	private final AtomicLong retiredEvictions = new AtomicLong();
+
+	private final DiskTier disk;
+
+	private final Set<String> pinned = new CopyOnWriteArraySet<String>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param blockSize
+	 *            size in bytes of every block but the last one of an object
+	 * @param memorySize
+	 *            maximum bytes held in memory, 0 disables the memory tier
+	 * @param diskDir
+	 *            directory of the disk tier, <code>null</code> disables it
+	 * @param diskSize
+	 *            maximum bytes held in the disk tier
+	 * @throws IOException
+	 *             If the directory of the disk tier can not be prepared.
+	 */
+	public BlockCache(int blockSize, long memorySize, File diskDir, long diskSize) throws IOException {
+		Preconditions.checkArgument(blockSize > 0, "Block size must be positive but was %s.", blockSize);
+		this.blockSize = blockSize;
+		this.memory = newMemoryTier(memorySize);
+		this.memoryCapacity = memorySize;
+		this.disk = diskDir != null ? new DiskTier(diskDir, diskSize, pinned) : null;
+	}
+
+	private Cache<BlockKey, byte[]> newMemoryTier(final long memorySize) {
+		if (memorySize <= 0) {
+			return null;
+		}
+		final AtomicReference<Cache<BlockKey, byte[]>> tier = new AtomicReference<Cache<BlockKey, byte[]>>();
+		tier.set(CacheBuilder.newBuilder().maximumWeight(memorySize).weigher(new Weigher<BlockKey, byte[]>() {
+			@Override
+			public int weigh(BlockKey key, byte[] value) {
+				return value.length;
+			}
+		}).removalListener(new RemovalListener<BlockKey, byte[]>() {
+			@Override
+			public void onRemoval(RemovalNotification<BlockKey, byte[]> notification) {
+				// the block may have been put again since it was evicted
+				if (notification.wasEvicted() && !tier.get().asMap().containsKey(notification.getKey())) {
+					memoryObjects.remove(notification.getKey());
+				}
+			}
+		}).recordStats().build());
+		return tier.get();
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return the cached block or <code>null</code> if neither tier holds it.
+	 */
+	public byte[] get(BlockKey key) {
+		final Cache<BlockKey, byte[]> memory = this.memory;
+		byte[] block = memory == null ? null : memory.getIfPresent(key);
+		if (block == null && disk != null) {
+			block = disk.get(key);
+			if (block != null && memory != null) {
+				memoryObjects.add(key);
+				memory.put(key, block);
+			}
+		}
+		if (block == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return block;
+	}
+
+	public void put(BlockKey key, byte[] block) {
+		final Cache<BlockKey, byte[]> memory = this.memory;
+		if (memory != null) {
+			memoryObjects.add(key);
+			memory.put(key, block);
+		}
+		if (disk != null) {
+			disk.put(key, block);
+		}
+	}
+
+	/**
+	 * Drop all blocks of the given object key regardless of their ETag.
+	 */
+	public void invalidate(String key) {
+		final Cache<BlockKey, byte[]> memory = this.memory;
+		final Set<BlockKey> blockKeys = memoryObjects.removeAll(key);
+		if (memory != null) {
+			memory.invalidateAll(blockKeys);
+		}
+		if (disk != null) {
+			disk.invalidate(key);
+		}
+	}
+
+	/**
+	 * @return hits and misses of both tiers together, evictions of the memory
+	 *         tier.
+	 */
+	public CacheStats stats() {
+		final Cache<BlockKey, byte[]> memory = this.memory;
+		final long evictions = retiredEvictions.get() + (memory == null ? 0 : memory.stats().evictionCount());
+		return new CacheStats(hits.get(), misses.get(), 0, 0, 0, evictions);
+	}
+
+	/**
+	 * Change the maximum bytes held in memory. The blocks are moved to a new
+	 * memory tier of the given size, the least recently used order of the
+	 * old tier is lost.
+	 *
+	 * @param memorySize
+	 *            maximum bytes held in memory, 0 disables the memory tier
+	 */
+	public synchronized void setMemorySize(long memorySize) {
+		Preconditions.checkArgument(memorySize >= 0, "Memory size must not be negative but was %s.", memorySize);
+		final Cache<BlockKey, byte[]> previous = memory;
+		final Cache<BlockKey, byte[]> resized = newMemoryTier(memorySize);
+		if (previous != null) {
+			if (resized != null) {
+				resized.putAll(previous.asMap());
+			}
+			retiredEvictions.addAndGet(previous.stats().evictionCount());
+		}
+		memory = resized;
+		memoryCapacity = memorySize;
+		if (resized == null) {
+			memoryObjects.clear();
+		}
+		if (previous != null) {
+			previous.invalidateAll();
+		}
+	}
+
+	/**
+	 * @return maximum bytes held in memory.
+	 */
+	public synchronized long getMemoryCapacity() {
+		return memoryCapacity;
+	}
+
+	/**
+	 * @return bytes held in memory.
+	 */
+	public long getMemoryUsage() {
+		final Cache<BlockKey, byte[]> memory = this.memory;
+		long used = 0;
+		if (memory != null) {
+			for (byte[] block : memory.asMap().values()) {
+				used += block.length;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Change the maximum bytes held in the disk tier, blocks beyond it are
+	 * evicted at once.
+	 *
+	 * @throws IllegalStateException
+	 *             If the cache has no disk tier.
+	 */
+	public void setDiskSize(long diskSize) {
+		Preconditions.checkArgument(diskSize >= 0, "Disk size must not be negative but was %s.", diskSize);
+		if (disk == null) {
+			throw new IllegalStateException("The block cache has no disk tier.");
+		}
+		disk.setCapacity(diskSize);
+	}
+
+	/**
+	 * @return maximum bytes held in the disk tier, 0 without disk tier.
+	 */
+	public long getDiskCapacity() {
+		return disk == null ? 0 : disk.getCapacity();
+	}
+
+	/**
+	 * @return bytes held in the disk tier.
+	 */
+	public long getDiskUsage() {
+		return disk == null ? 0 : disk.getUsed();
+	}
+
+	/**
+	 * Keep the blocks of all objects with keys starting with the prefix in
+	 * the disk tier until they are unpinned or the objects change.
+	 *
+	 * @throws IllegalStateException
+	 *             If the cache has no disk tier.
+	 */
+	public void pin(String prefix) {
+		if (disk == null) {
+			throw new IllegalStateException("Blocks can only be pinned in a disk cache.");
+		}
+		pinned.add(prefix);
+	}
+
+	/**
+	 * Let the blocks of a pinned prefix be evicted again, beginning with the
+	 * blocks beyond the size of the disk tier.
+	 *
+	 * @return <code>false</code> if the prefix was not pinned.
+	 */
+	public boolean unpin(String prefix) {
+		final boolean removed = pinned.remove(prefix);
+		if (removed) {
+			disk.trim();
+		}
+		return removed;
+	}
+
+	public Set<String> getPinned() {
+		return Collections.unmodifiableSet(pinned);
+	}
+
+	/**
+	 * @return bytes of pinned blocks held in the disk tier.
+	 */
+	public long getPinnedUsage() {
+		return disk == null ? 0 : disk.getPinnedUsed();
+	}
+
+	private static boolean isPinned(Set<String> pinned, String key) {
+		for (String prefix : pinned) {
+			if (key.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void invalidateAll() {
+		final Cache<BlockKey, byte[]> memory = this.memory;
+		if (memory != null) {
+			memory.invalidateAll();
+		}
+		memoryObjects.clear();
+		if (disk != null) {
+			disk.invalidateAll();
+		}
+	}
+
+	/**
+	 * Drop the memory tier, the disk tier is kept for the next cache on its
+	 * directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		final Cache<BlockKey, byte[]> memory = this.memory;
+		if (memory != null) {
+			memory.invalidateAll();
+		}
+		memoryObjects.clear();
+	}
+
+	/**
+	 * Identity of a block of an object.
+	 */
+	public static final class BlockKey {
+		private final String key;
+		private final String etag;
+		private final long index;
+
+		public BlockKey(String key, String etag, long index) {
+			this.key = key;
+			this.etag = etag;
+			this.index = index;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public long getIndex() {
+			return index;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = key.hashCode();
+			result = 31 * result + (etag == null ? 0 : etag.hashCode());
+			return 31 * result + (int) (index ^ (index >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof BlockKey))
+				return false;
+			BlockKey other = (BlockKey) obj;
+			return index == other.index && key.equals(other.key) && (etag == null ? other.etag == null : etag.equals(other.etag));
+		}
+
+		@Override
+		public String toString() {
+			return key + "[" + etag + "]#" + index;
+		}
+	}
+
+	/**
+	 * Keys of the cached blocks of every object, so the blocks of one object
+	 * are dropped without scanning a whole tier.
+	 */
+	private static final class ObjectIndex {
+		private final Map<String, Set<BlockKey>> blocks = new HashMap<String, Set<BlockKey>>();
+
+		synchronized void add(BlockKey blockKey) {
+			Set<BlockKey> keys = blocks.get(blockKey.getKey());
+			if (keys == null) {
+				keys = new HashSet<BlockKey>();
+				blocks.put(blockKey.getKey(), keys);
+			}
+			keys.add(blockKey);
+		}
+
+		synchronized void remove(BlockKey blockKey) {
+			final Set<BlockKey> keys = blocks.get(blockKey.getKey());
+			if (keys != null && keys.remove(blockKey) && keys.isEmpty()) {
+				blocks.remove(blockKey.getKey());
+			}
+		}
+
+		/**
+		 * @return the removed keys of the blocks of the object.
+		 */
+		synchronized Set<BlockKey> removeAll(String key) {
+			final Set<BlockKey> keys = blocks.remove(key);
+			return keys == null ? Collections.<BlockKey> emptySet() : keys;
+		}
+
+		synchronized void clear() {
+			blocks.clear();
+		}
+	}
+
+	/**
+	 * Blocks stored as one file each in a local directory. Every file starts
+	 * with the identity of its block, so the blocks left by a previous cache
+	 * are indexed again when the cache is created, in the order they were
+	 * written.
+	 */
+	private static final class DiskTier {
+		private static final String TEMPORARY_SUFFIX = ".tmp";
+		private final File dir;
+		private final Set<String> pinned;
+		private long capacity;
+		private long used;
+		private final LinkedHashMap<BlockKey, Integer> index = new LinkedHashMap<BlockKey, Integer>(1024, 0.75f, true);
+		private final ObjectIndex objects = new ObjectIndex();
+
+		DiskTier(File dir, long capacity, Set<String> pinned) throws IOException {
+			this.dir = dir;
+			this.pinned = pinned;
+			this.capacity = capacity;
+			if (!dir.exists() && !dir.mkdirs()) {
+				throw new IOException("Could not create cache directory at " + dir.getAbsolutePath());
+			}
+			reindex();
+		}
+
+		/**
+		 * Index the blocks left in the directory, files which are incomplete
+		 * or not blocks of this cache are removed.
+		 */
+		private void reindex() {
+			final File[] files = dir.listFiles();
+			if (files == null) {
+				return;
+			}
+			// the oldest blocks are the least recently used
+			Arrays.sort(files, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					return Long.compare(a.lastModified(), b.lastModified());
+				}
+			});
+			for (File file : files) {
+				if (!file.isFile()) {
+					continue;
+				}
+				BlockKey key = null;
+				long length = 0;
+				if (!file.getName().endsWith(TEMPORARY_SUFFIX)) {
+					try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+						key = readHeader(input);
+						length = input.length() - input.getFilePointer();
+					} catch (IOException e) {
+						logger.debug("Could not read cached block '{}'.", file, e);
+					}
+				}
+				if (key != null && fileOf(key).getName().equals(file.getName())) {
+					index.put(key, (int) length);
+					objects.add(key);
+					used += length;
+				} else if (!file.delete()) {
+					logger.warn("Could not remove stale cache file '{}'.", file);
+				}
+			}
+			evict(null);
+			if (!index.isEmpty()) {
+				logger.info("Indexed {} cached blocks with {} bytes in '{}'.", index.size(), used, dir);
+			}
+		}
+
+		private static BlockKey readHeader(final DataInput input) throws IOException {
+			final String key = input.readUTF();
+			final String etag = input.readUTF();
+			final long blockIndex = input.readLong();
+			return new BlockKey(key, etag.isEmpty() ? null : etag, blockIndex);
+		}
+
+		private File fileOf(BlockKey key) {
+			return new File(dir, Hashing.sha1().hashUnencodedChars(key.getKey() + '\0' + key.getEtag()).toString() + "." + key.getIndex());
+		}
+
+		byte[] get(BlockKey key) {
+			synchronized (this) {
+				// touch the entry to keep it recently used
+				if (index.get(key) == null) {
+					return null;
+				}
+			}
+			try (RandomAccessFile input = new RandomAccessFile(fileOf(key), "r")) {
+				if (!key.equals(readHeader(input))) {
+					throw new IOException("The file holds another block");
+				}
+				final byte[] block = new byte[(int) (input.length() - input.getFilePointer())];
+				input.readFully(block);
+				return block;
+			} catch (IOException e) {
+				logger.warn("Could not read cached block {}.", key, e);
+				synchronized (this) {
+					remove(key);
+				}
+				return null;
+			}
+		}
+
+		void put(BlockKey key, byte[] block) {
+			if (block.length > capacity && !isPinned(pinned, key.getKey())) {
+				return;
+			}
+			final File file = fileOf(key);
+			try {
+				File tmp = File.createTempFile("block", TEMPORARY_SUFFIX, dir);
+				try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+					output.writeUTF(key.getKey());
+					output.writeUTF(key.getEtag() == null ? "" : key.getEtag());
+					output.writeLong(key.getIndex());
+					output.write(block);
+				}
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				logger.warn("Could not write cached block {} to '{}'.", key, file, e);
+				return;
+			}
+			synchronized (this) {
+				Integer previous = index.put(key, block.length);
+				objects.add(key);
+				used += block.length - (previous == null ? 0 : previous);
+				evict(key);
+			}
+		}
+
+		/**
+		 * Evict the least recently used blocks beyond the capacity, unless they
+		 * are pinned.
+		 *
+		 * @param keep
+		 *            a block which is not evicted or <code>null</code>
+		 */
+		private void evict(BlockKey keep) {
+			Iterator<Map.Entry<BlockKey, Integer>> it = index.entrySet().iterator();
+			while (used > capacity && it.hasNext()) {
+				Map.Entry<BlockKey, Integer> eldest = it.next();
+				if (eldest.getKey().equals(keep) || isPinned(pinned, eldest.getKey().getKey())) {
+					continue;
+				}
+				it.remove();
+				objects.remove(eldest.getKey());
+				used -= eldest.getValue();
+				fileOf(eldest.getKey()).delete();
+			}
+		}
+
+		synchronized void setCapacity(long capacity) {
+			this.capacity = capacity;
+			evict(null);
+		}
+
+		synchronized void trim() {
+			evict(null);
+		}
+
+		synchronized long getCapacity() {
+			return capacity;
+		}
+
+		synchronized long getUsed() {
+			return used;
+		}
+
+		synchronized long getPinnedUsed() {
+			long pinnedUsed = 0;
+			for (Map.Entry<BlockKey, Integer> entry : index.entrySet()) {
+				if (isPinned(pinned, entry.getKey().getKey())) {
+					pinnedUsed += entry.getValue();
+				}
+			}
+			return pinnedUsed;
+		}
+
+		synchronized void invalidate(String key) {
+			for (BlockKey blockKey : objects.removeAll(key)) {
+				// removing does not reorder the access-ordered map
+				final Integer length = index.remove(blockKey);
+				if (length != null) {
+					used -= length;
+					fileOf(blockKey).delete();
+				}
+			}
+		}
+
+		synchronized void invalidateAll() {
+			for (BlockKey blockKey : index.keySet()) {
+				fileOf(blockKey).delete();
+			}
+			index.clear();
+			objects.clear();
+			used = 0;
+		}
+
+		private void remove(BlockKey key) {
+			Integer length = index.remove(key);
+			if (length != null) {
+				used -= length;
+			}
+			objects.remove(key);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Concurrent index of the directories of a bucket, keyed by their path without
+ * the leading and the trailing '/'. OSS has no directories, a directory exists
+ * as long as objects with its prefix exist, so the index remembers which
+ * prefixes were seen and which names a complete listing returned.
+ *
+ * The index is bounded by the number of directories and children it holds,
+ * directories which were not accessed for a while are evicted.
+ */
+public class DirectoryIndex {
+
+	private final Cache<String, Node> nodes;
+
+	/**
+	 * @param maximumEntries
+	 *            maximum number of directories and children held
+	 * @param idleSeconds
+	 *            seconds after which a directory which was not accessed is
+	 *            evicted
+	 */
+	public DirectoryIndex(long maximumEntries, long idleSeconds) {
+		this.nodes = CacheBuilder.newBuilder().maximumWeight(maximumEntries).weigher(new Weigher<String, Node>() {
+			@Override
+			public int weigh(String key, Node node) {
+				return 1 + node.children.size();
+			}
+		}).expireAfterAccess(idleSeconds, TimeUnit.SECONDS).build();
+	}
+
+	/**
+	 * Record that the directory and therefore all of its parents exist.
+	 */
+	public void addDirectory(String dir) {
+		// parents are evicted independently, so walk up to the root
+		String path = dir;
+		while (!path.isEmpty()) {
+			nodes.asMap().putIfAbsent(path, new Node());
+			final int slash = path.lastIndexOf('/');
+			path = slash < 0 ? "" : path.substring(0, slash);
+		}
+	}
+
+	public boolean contains(String dir) {
+		return nodes.getIfPresent(dir) != null;
+	}
+
+	/**
+	 * Record the names of all children of the directory from a complete
+	 * listing.
+	 */
+	public void setChildren(String dir, Collection<String> names) {
+		final Node node = new Node();
+		node.children.addAll(names);
+		node.listedAt = System.currentTimeMillis();
+		nodes.put(dir, node);
+	}
+
+	/**
+	 * @param maxAgeMillis
+	 *            maximum age of the listing the children are known from
+	 * @return the names of all children of the directory or <code>null</code>
+	 *         if they are not known from a recent complete listing.
+	 */
+	public Set<String> getChildren(String dir, long maxAgeMillis) {
+		final Node node = nodes.getIfPresent(dir);
+		if (node == null || node.listedAt == 0 || System.currentTimeMillis() - node.listedAt > maxAgeMillis) {
+			return null;
+		}
+		return Collections.unmodifiableSet(node.children);
+	}
+
+	/**
+	 * Add a name to the children of the directory if they are known.
+	 */
+	public void addChild(String dir, String name) {
+		final Node node = nodes.getIfPresent(dir);
+		if (node != null && node.listedAt != 0) {
+			node.children.add(name);
+		}
+	}
+
+	public void removeChild(String dir, String name) {
+		final Node node = nodes.getIfPresent(dir);
+		if (node != null) {
+			node.children.remove(name);
+		}
+	}
+
+	public void invalidate(String dir) {
+		nodes.invalidate(dir);
+	}
+
+	/**
+	 * Forget the directory and all directories below it.
+	 */
+	public void invalidateTree(String dir) {
+		final String prefix = dir + "/";
+		final Iterator<String> it = nodes.asMap().keySet().iterator();
+		while (it.hasNext()) {
+			final String path = it.next();
+			if (path.equals(dir) || path.startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		nodes.invalidateAll();
+	}
+
+	/**
+	 * @return the number of directories held.
+	 */
+	public long size() {
+		return nodes.size();
+	}
+
+	/**
+	 * A known directory. The weight of a node is taken when it is put, so
+	 * children added later are not accounted for until the next listing.
+	 */
+	private static final class Node {
+		private final Set<String> children = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private volatile long listedAt;
+	}
+}
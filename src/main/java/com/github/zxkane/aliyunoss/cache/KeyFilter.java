@@ -0,0 +1,168 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.github.zxkane.aliyunoss.io.DirectoryLister;
+import com.github.zxkane.aliyunoss.io.ListingPages;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bloom filter of the paths of all files and directories of the bucket, built
+ * from a full listing, so paths which provably do not exist are answered
+ * without a request.
+ *
+ * The filter knows the objects of its last listing and those written through
+ * the mount, objects written by other clients are only known after the next
+ * listing. Until the first listing completes every path may exist.
+ */
+public class KeyFilter implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(KeyFilter.class);
+
+	private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+	private static final int SCAN_PAGE_SIZE = 1000;
+
+	private final DirectoryLister lister;
+
+	private final int scanParallelism;
+
+	private final long expectedKeys;
+
+	private final long refreshMillis;
+
+	private final ScheduledExecutorService executor;
+
+	// guarded by this for puts, read without locking
+	private volatile BloomFilter<CharSequence> filter;
+
+	// paths added while a listing builds the next filter, guarded by this
+	private List<String> addedWhileBuilding;
+
+	/**
+	 * @param expectedKeys
+	 *            number of paths the filter is sized for
+	 * @param refreshSeconds
+	 *            seconds after which the filter is built again
+	 */
+	public KeyFilter(DirectoryLister lister, int scanParallelism, long expectedKeys, long refreshSeconds) {
+		this.lister = lister;
+		this.scanParallelism = scanParallelism;
+		this.expectedKeys = Math.max(1000, expectedKeys);
+		this.refreshMillis = TimeUnit.SECONDS.toMillis(Math.max(1, refreshSeconds));
+		this.executor = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-key-filter-%d").build());
+	}
+
+	/**
+	 * Build the filter in the background now and after every refresh period.
+	 */
+	public void start() {
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					build();
+				} catch (IOException | RuntimeException e) {
+					logger.warn("Could not build the filter of existing keys.", e);
+				}
+			}
+		}, 0, refreshMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return <code>false</code> if the file or directory of the key provably
+	 *         does not exist.
+	 */
+	public boolean mightExist(String key) {
+		final BloomFilter<CharSequence> current = filter;
+		return current == null || current.mightContain(key);
+	}
+
+	/**
+	 * Record that the file or directory was created through the mount.
+	 */
+	public synchronized void add(String key) {
+		if (filter != null) {
+			putWithParents(filter, key);
+		}
+		if (addedWhileBuilding != null) {
+			addedWhileBuilding.add(key);
+		}
+	}
+
+	/**
+	 * @return whether the first listing completed.
+	 */
+	public boolean isReady() {
+		return filter != null;
+	}
+
+	/**
+	 * List the whole bucket into a new filter and replace the current one.
+	 */
+	public void build() throws IOException {
+		final long started = System.currentTimeMillis();
+		synchronized (this) {
+			addedWhileBuilding = new ArrayList<>();
+		}
+		final BloomFilter<CharSequence> next = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedKeys,
+				FALSE_POSITIVE_PROBABILITY);
+		long keys = 0;
+		boolean complete = false;
+		try (ListingPages pages = lister.scan("", null, SCAN_PAGE_SIZE, scanParallelism)) {
+			ObjectListing listing;
+			while ((listing = pages.next()) != null) {
+				for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+					putWithParents(next, objectSummary.getKey());
+					keys++;
+				}
+			}
+			complete = true;
+		} finally {
+			synchronized (this) {
+				if (complete) {
+					for (String key : addedWhileBuilding) {
+						putWithParents(next, key);
+					}
+					filter = next;
+				}
+				addedWhileBuilding = null;
+			}
+		}
+		if (keys > expectedKeys) {
+			logger.warn("Filter of {} keys exceeds its expected size {}, it answers less precisely.", keys, expectedKeys);
+		}
+		logger.info("Built filter of {} keys in {} ms.", keys, System.currentTimeMillis() - started);
+	}
+
+	/**
+	 * A key proves that its parent directories exist as well.
+	 */
+	private static void putWithParents(final BloomFilter<CharSequence> target, final String key) {
+		final String path = key.endsWith("/") ? key.substring(0, key.length() - 1) : key;
+		target.put(path);
+		for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+			target.put(path.substring(0, slash));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+	}
+}
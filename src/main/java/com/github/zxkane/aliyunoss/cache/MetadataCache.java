@@ -0,0 +1,197 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Attributes of the files and directories of a bucket, keyed by their path
+ * without the leading '/'. Besides the attributes of existing entries it
+ * remembers which paths do not exist, an entry is removed from that negative
+ * cache as soon as attributes of the path are put.
+ *
+ * Attributes of paths below pinned prefixes do not count towards the maximum
+ * size and are never evicted for others, they still expire with their age.
+ */
+public class MetadataCache {
+
+	private static final Object NULL = new Object();
+
+	private final long ttl;
+
+	private volatile long maximumSize;
+
+	// replaced when the cache is resized
+	private volatile Cache<String, ObjectAttributes> attributes;
+
+	private CacheStats retiredStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+	private final Cache<String, Object> notFound;
+
+	private final Set<String> pinned = new CopyOnWriteArraySet<String>();
+
+	/**
+	 * @param ttl
+	 *            seconds attributes are trusted
+	 * @param maximumSize
+	 *            maximum number of cached attributes
+	 * @param notFoundTtl
+	 *            seconds a path is known to not exist
+	 * @param notFoundMaximumSize
+	 *            maximum number of paths known to not exist
+	 */
+	public MetadataCache(long ttl, long maximumSize, long notFoundTtl, long notFoundMaximumSize) {
+		this.ttl = ttl;
+		this.maximumSize = maximumSize;
+		this.attributes = newAttributes(maximumSize);
+		this.notFound = CacheBuilder.newBuilder().maximumSize(notFoundMaximumSize).expireAfterWrite(notFoundTtl, TimeUnit.SECONDS).recordStats()
+				.build();
+	}
+
+	private Cache<String, ObjectAttributes> newAttributes(final long maximumSize) {
+		// pinned attributes weigh nothing, so the size bound ignores them
+		return CacheBuilder.newBuilder().maximumWeight(maximumSize).weigher(new Weigher<String, ObjectAttributes>() {
+			@Override
+			public int weigh(String key, ObjectAttributes value) {
+				return isPinned(key) ? 0 : 1;
+			}
+		}).expireAfterWrite(ttl, TimeUnit.SECONDS).recordStats().build();
+	}
+
+	/**
+	 * Change the maximum number of cached attributes. The cached attributes
+	 * are dropped, as their age can not be carried over.
+	 */
+	public synchronized void setMaximumSize(long maximumSize) {
+		final Cache<String, ObjectAttributes> previous = attributes;
+		attributes = newAttributes(maximumSize);
+		this.maximumSize = maximumSize;
+		retiredStats = retiredStats.plus(previous.stats());
+		previous.invalidateAll();
+	}
+
+	/**
+	 * @return maximum number of cached attributes.
+	 */
+	public long getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Exempt the attributes of all paths starting with the prefix from
+	 * eviction. Only attributes put afterwards are exempt.
+	 */
+	public void pin(String prefix) {
+		pinned.add(prefix);
+	}
+
+	/**
+	 * Let the attributes of a pinned prefix be evicted again once they are
+	 * put again.
+	 *
+	 * @return <code>false</code> if the prefix was not pinned.
+	 */
+	public boolean unpin(String prefix) {
+		return pinned.remove(prefix);
+	}
+
+	public Set<String> getPinned() {
+		return Collections.unmodifiableSet(pinned);
+	}
+
+	private boolean isPinned(String key) {
+		for (String prefix : pinned) {
+			if (key.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the cached attributes or <code>null</code> if unknown.
+	 */
+	public ObjectAttributes get(String key) {
+		return attributes.getIfPresent(key);
+	}
+
+	public void put(String key, ObjectAttributes objectAttributes) {
+		attributes.put(key, objectAttributes);
+		notFound.invalidate(key);
+	}
+
+	/**
+	 * @return whether the path is known to not exist.
+	 */
+	public boolean isNotFound(String key) {
+		return notFound.getIfPresent(key) != null;
+	}
+
+	public void putNotFound(String key) {
+		attributes.invalidate(key);
+		notFound.put(key, NULL);
+	}
+
+	/**
+	 * Forget that the path does not exist, e.g. because a listing shows
+	 * objects below it.
+	 */
+	public void invalidateNotFound(String key) {
+		notFound.invalidate(key);
+	}
+
+	/**
+	 * Forget everything about the path.
+	 */
+	public void invalidate(String key) {
+		attributes.invalidate(key);
+		notFound.invalidate(key);
+	}
+
+	/**
+	 * Forget everything about the paths starting with the prefix.
+	 */
+	public void invalidatePrefix(String prefix) {
+		invalidatePrefix(attributes.asMap().keySet(), prefix);
+		invalidatePrefix(notFound.asMap().keySet(), prefix);
+	}
+
+	private static void invalidatePrefix(final Set<String> keys, final String prefix) {
+		final Iterator<String> it = keys.iterator();
+		while (it.hasNext()) {
+			if (it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		attributes.invalidateAll();
+		notFound.invalidateAll();
+	}
+
+	public long size() {
+		return attributes.size();
+	}
+
+	/**
+	 * @return hits and misses of the attributes.
+	 */
+	public synchronized CacheStats stats() {
+		return retiredStats.plus(attributes.stats());
+	}
+
+	/**
+	 * @return hits and misses of the paths known to not exist.
+	 */
+	public CacheStats notFoundStats() {
+		return notFound.stats();
+	}
+}
@@ -0,0 +1,60 @@
+package com.github.zxkane.aliyunoss.cache;
+
+/**
+ * The attributes of a file or directory of the bucket which are needed to
+ * answer a stat without asking OSS.
+ */
+public final class ObjectAttributes {
+
+	private final boolean directory;
+
+	private final long size;
+
+	private final long lastModified;
+
+	private final String etag;
+
+	private ObjectAttributes(boolean directory, long size, long lastModified, String etag) {
+		this.directory = directory;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.etag = etag;
+	}
+
+	public static ObjectAttributes file(long size, long lastModified, String etag) {
+		return new ObjectAttributes(false, size, lastModified, etag);
+	}
+
+	/**
+	 * @param lastModified
+	 *            modification time of the marker object of the directory or 0
+	 *            if the directory only exists as a prefix of other objects
+	 */
+	public static ObjectAttributes directory(long lastModified) {
+		return new ObjectAttributes(true, 0, lastModified, null);
+	}
+
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return modification time in milliseconds.
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	@Override
+	public String toString() {
+		return (directory ? "directory" : "file of " + size + " bytes") + " modified at " + lastModified + (etag == null ? "" : " with ETag " + etag);
+	}
+}
@@ -0,0 +1,456 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.github.zxkane.aliyunoss.io.DirectoryLister;
+import com.github.zxkane.aliyunoss.io.ListingPages;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Index of all objects of a bucket kept on disk across mounts, so a new mount
+ * answers the attributes of known paths without asking OSS.
+ *
+ * The index is a snapshot of a full listing, a file of records sorted by key
+ * followed by a sparse index of the first key of every block. Only the
+ * sparse index is held in memory, a lookup reads a single block. The snapshot
+ * is opened in the background when the index is created and replaced by a
+ * new full listing periodically, changes made through the mount are kept in
+ * memory on top of the snapshot until a newer snapshot contains them.
+ *
+ * A refresh lists the whole bucket again, OSS offers no listing of the
+ * objects changed since a point in time to apply incrementally. Attributes
+ * answered from the snapshot are as old as its listing and do not expire
+ * with the metadata TTL, changes made by other clients are seen after the
+ * next refresh.
+ *
+ * Lookups hold a reference to the snapshot they read, a replaced snapshot is
+ * closed once the last lookup reading it finished.
+ */
+public class PersistentIndex implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PersistentIndex.class);
+
+	private static final int MAGIC = 0x4f535349;
+
+	private static final int BLOCK_SIZE = 16 * 1024;
+
+	private static final int SCAN_PAGE_SIZE = 1000;
+
+	private static final String SNAPSHOT = "index.dat";
+
+	private final File dir;
+
+	private final DirectoryLister lister;
+
+	private final int scanParallelism;
+
+	private final long refreshMillis;
+
+	private final ScheduledExecutorService executor;
+
+	private volatile Snapshot snapshot;
+
+	// changes since the scan of the snapshot started, null for deleted keys
+	private final Map<String, Change> changes = new ConcurrentHashMap<>();
+
+	// prefixes whose objects moved or were deleted since the scan started
+	private final Map<String, Long> removedPrefixes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param dir
+	 *            directory of the snapshot of the bucket
+	 * @param scanParallelism
+	 *            number of shards of the listing refreshing the snapshot
+	 * @param refreshSeconds
+	 *            seconds after which the snapshot is refreshed
+	 */
+	public PersistentIndex(File dir, DirectoryLister lister, int scanParallelism, long refreshSeconds) {
+		this.dir = dir;
+		this.lister = lister;
+		this.scanParallelism = scanParallelism;
+		this.refreshMillis = TimeUnit.SECONDS.toMillis(Math.max(1, refreshSeconds));
+		this.executor = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-index-" + dir.getName() + "-%d").build());
+	}
+
+	/**
+	 * Open the snapshot and refresh it once it is due, in the background.
+	 */
+	public void start() {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final File file = new File(dir, SNAPSHOT);
+				long age = Long.MAX_VALUE;
+				if (file.isFile()) {
+					try {
+						snapshot = Snapshot.open(file);
+						age = System.currentTimeMillis() - file.lastModified();
+						logger.info("Opened index of {} objects at '{}'.", snapshot.count, file);
+					} catch (IOException e) {
+						logger.warn("Could not open index '{}', it is rebuilt.", file, e);
+					}
+				}
+				executor.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							refresh();
+						} catch (IOException | RuntimeException e) {
+							logger.warn("Could not refresh index '{}'.", file, e);
+						}
+					}
+				}, Math.max(0, refreshMillis - age), refreshMillis, TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+
+	/**
+	 * @return the attributes of the file or directory of the key or
+	 *         <code>null</code> if the index does not know it.
+	 */
+	public ObjectAttributes get(String key) {
+		final Change change = changes.get(key);
+		if (change != null) {
+			return change.attributes;
+		}
+		if (isRemoved(key)) {
+			return null;
+		}
+		final Snapshot current = retainSnapshot();
+		if (current == null) {
+			return null;
+		}
+		try {
+			final Record file = current.ceiling(key);
+			if (file != null && file.key.equals(key)) {
+				return ObjectAttributes.file(file.size, file.lastModified, file.etag);
+			}
+			// a directory exists as long as any key has its prefix
+			final String prefix = key + "/";
+			final Record child = file != null && file.key.compareTo(prefix) >= 0 ? file : current.ceiling(prefix);
+			if (child != null && child.key.startsWith(prefix)) {
+				return ObjectAttributes.directory(child.key.equals(prefix) ? child.lastModified : 0);
+			}
+		} catch (IOException e) {
+			logger.debug("Could not look up key '{}' in the index.", key, e);
+		} finally {
+			current.release();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the current snapshot with a reference taken, which must be
+	 *         released, or <code>null</code> if none is open.
+	 */
+	private Snapshot retainSnapshot() {
+		while (true) {
+			final Snapshot current = snapshot;
+			if (current == null || current.retain()) {
+				return current;
+			}
+			// replaced and closed in the meantime, take the new one
+		}
+	}
+
+	/**
+	 * Record that the object was written through the mount.
+	 */
+	public void put(String key, ObjectAttributes attributes) {
+		changes.put(key, new Change(attributes));
+	}
+
+	/**
+	 * Record that the object was deleted through the mount.
+	 */
+	public void remove(String key) {
+		changes.put(key, new Change(null));
+	}
+
+	/**
+	 * Record that all objects below the prefix were moved or deleted.
+	 */
+	public void removePrefix(String prefix) {
+		removedPrefixes.put(prefix, System.currentTimeMillis());
+		for (String key : changes.keySet()) {
+			if (key.startsWith(prefix)) {
+				changes.remove(key);
+			}
+		}
+	}
+
+	private boolean isRemoved(final String key) {
+		for (String prefix : removedPrefixes.keySet()) {
+			if (key.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of objects of the snapshot, 0 before it is opened.
+	 */
+	public long size() {
+		final Snapshot current = snapshot;
+		return current == null ? 0 : current.count;
+	}
+
+	/**
+	 * List the whole bucket into a new snapshot and replace the current one.
+	 * The previous snapshot is closed once no lookup reads it anymore.
+	 */
+	public void refresh() throws IOException {
+		final long started = System.currentTimeMillis();
+		Files.createDirectories(dir.toPath());
+		final File temporary = new File(dir, SNAPSHOT + ".tmp");
+		final File file = new File(dir, SNAPSHOT);
+		try (ListingPages pages = lister.scan("", null, SCAN_PAGE_SIZE, scanParallelism)) {
+			Snapshot.write(temporary, pages);
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		final Snapshot previous = snapshot;
+		snapshot = Snapshot.open(file);
+		// changes the scan may have missed are kept until the next one
+		for (Map.Entry<String, Change> entry : changes.entrySet()) {
+			if (entry.getValue().time < started) {
+				changes.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		for (Map.Entry<String, Long> entry : removedPrefixes.entrySet()) {
+			if (entry.getValue() < started) {
+				removedPrefixes.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		if (previous != null) {
+			previous.release();
+		}
+		logger.info("Refreshed index of {} objects in {} ms.", snapshot.count, System.currentTimeMillis() - started);
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+		final Snapshot current = snapshot;
+		if (current != null) {
+			current.release();
+		}
+	}
+
+	private static final class Change {
+		private final ObjectAttributes attributes;
+		private final long time = System.currentTimeMillis();
+
+		Change(ObjectAttributes attributes) {
+			this.attributes = attributes;
+		}
+	}
+
+	private static final class Record {
+		private final String key;
+		private final long size;
+		private final long lastModified;
+		private final String etag;
+
+		Record(String key, long size, long lastModified, String etag) {
+			this.key = key;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.etag = etag;
+		}
+
+		static Record read(final DataInputStream input) throws IOException {
+			final String key = input.readUTF();
+			final long size = input.readLong();
+			final long lastModified = input.readLong();
+			final String etag = input.readUTF();
+			return new Record(key, size, lastModified, etag.isEmpty() ? null : etag);
+		}
+	}
+
+	/**
+	 * A snapshot file: the records sorted by key, the sparse index and the
+	 * position of the sparse index. The index holds one reference while the
+	 * snapshot is current, every lookup one more while it reads, the file is
+	 * closed when the last one is released.
+	 */
+	private static final class Snapshot {
+
+		private final FileChannel channel;
+
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		private final long count;
+
+		// first key and position of every block
+		private final String[] keys;
+
+		private final long[] positions;
+
+		// the end of the last block
+		private final long end;
+
+		private Snapshot(FileChannel channel, long count, String[] keys, long[] positions, long end) {
+			this.channel = channel;
+			this.count = count;
+			this.keys = keys;
+			this.positions = positions;
+			this.end = end;
+		}
+
+		static void write(final File file, final ListingPages pages) throws IOException {
+			final List<String> blockKeys = new ArrayList<>();
+			final List<Long> blockPositions = new ArrayList<>();
+			long count = 0;
+			try (CountingOutputStream counting = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+					DataOutputStream output = new DataOutputStream(counting)) {
+				long blockStart = -BLOCK_SIZE;
+				ObjectListing listing;
+				while ((listing = pages.next()) != null) {
+					for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+						// the data output does not buffer, so the count is exact
+						final long position = counting.getCount();
+						if (position - blockStart >= BLOCK_SIZE) {
+							blockKeys.add(objectSummary.getKey());
+							blockPositions.add(position);
+							blockStart = position;
+						}
+						output.writeUTF(objectSummary.getKey());
+						output.writeLong(objectSummary.getSize());
+						output.writeLong(objectSummary.getLastModified() == null ? 0 : objectSummary.getLastModified().getTime());
+						output.writeUTF(objectSummary.getETag() == null ? "" : objectSummary.getETag());
+						count++;
+					}
+				}
+				final long sparseStart = counting.getCount();
+				output.writeLong(count);
+				output.writeInt(blockKeys.size());
+				for (int i = 0; i < blockKeys.size(); i++) {
+					output.writeUTF(blockKeys.get(i));
+					output.writeLong(blockPositions.get(i));
+				}
+				output.writeLong(sparseStart);
+				output.writeInt(MAGIC);
+			}
+		}
+
+		static Snapshot open(final File file) throws IOException {
+			final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				final ByteBuffer footer = ByteBuffer.allocate(12);
+				readFully(channel, footer, channel.size() - 12);
+				final long sparseStart = footer.getLong(0);
+				if (footer.getInt(8) != MAGIC) {
+					throw new IOException("Not an index: " + file);
+				}
+				final ByteBuffer sparse = ByteBuffer.allocate((int) (channel.size() - 12 - sparseStart));
+				readFully(channel, sparse, sparseStart);
+				final DataInputStream input = new DataInputStream(new ByteArrayInputStream(sparse.array()));
+				final long count = input.readLong();
+				final int blocks = input.readInt();
+				final String[] keys = new String[blocks];
+				final long[] positions = new long[blocks];
+				for (int i = 0; i < blocks; i++) {
+					keys[i] = input.readUTF();
+					positions[i] = input.readLong();
+				}
+				return new Snapshot(channel, count, keys, positions, sparseStart);
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * @return the first record with a key not less than the given one or
+		 *         <code>null</code> if there is none.
+		 */
+		Record ceiling(final String key) throws IOException {
+			int block = Arrays.binarySearch(keys, key);
+			if (block < 0) {
+				// the block before the insertion point may contain the key
+				block = Math.max(0, -block - 2);
+			}
+			for (; block < keys.length; block++) {
+				final long start = positions[block];
+				final long blockEnd = block + 1 < positions.length ? positions[block + 1] : end;
+				final ByteBuffer content = ByteBuffer.allocate((int) (blockEnd - start));
+				readFully(channel, content, start);
+				final DataInputStream input = new DataInputStream(new ByteArrayInputStream(content.array()));
+				try {
+					while (true) {
+						final Record record = Record.read(input);
+						if (record.key.compareTo(key) >= 0) {
+							return record;
+						}
+					}
+				} catch (EOFException e) {
+					// the next block starts with a greater key
+				}
+			}
+			return null;
+		}
+
+		private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new EOFException();
+				}
+			}
+		}
+
+		/**
+		 * @return <code>false</code> if the snapshot is closed already.
+		 */
+		boolean retain() {
+			int current;
+			do {
+				current = references.get();
+				if (current == 0) {
+					return false;
+				}
+			} while (!references.compareAndSet(current, current + 1));
+			return true;
+		}
+
+		void release() {
+			if (references.decrementAndGet() == 0) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					logger.warn("Could not close a snapshot of the index.", e);
+				}
+			}
+		}
+	}
+}
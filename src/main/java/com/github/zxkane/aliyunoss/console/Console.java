@@ -8,6 +8,9 @@ import java.io.PrintWriter;
 import java.util.Arrays;
 
 import com.github.zxkane.aliyunoss.AliyunOSSFS;
+import com.github.zxkane.aliyunoss.AliyunOSSFilesystem;
+
+import com.github.zxkane.aliyunoss.cache.BlockCache;
 
 import jline.console.ConsoleReader;
 import jline.console.completer.FileNameCompleter;
@@ -16,13 +19,19 @@ import net.fusejna.FuseException;
 
 public class Console {
 
+	private static final long MB = 1024 * 1024;
+
+	private final StatsReport stats = new StatsReport();
+
 	public void run(final InputStream inStream, final OutputStream outStream) throws IOException {
 		ConsoleReader reader = new ConsoleReader("AliyunOSSFS", inStream, outStream, null);
 
 		reader.setPrompt("aliyun-oss-fs> ");
 
 		reader.addCompleter(new FileNameCompleter());
-		reader.addCompleter(new StringsCompleter(Arrays.asList(new String[] { "mount", "unmount", "list", "exit", "quit", "cls", })));
+		reader.addCompleter(new StringsCompleter(Arrays.asList(new String[] { "mount", "unmount", "list", "stats", "flush", "resize", "prewarm", "pin", "unpin", "set",
+				"exit",
+				"quit", "cls", })));
 
 		// TODO: the completers do not seem to work, is there more to do to make
 		// them work?
@@ -58,6 +67,27 @@ public class Console {
 				}
 			} else if (line.startsWith("list")) {
 				AliyunOSSFS.list();
+			} else if (line.startsWith("stats") || line.startsWith("flush") || line.startsWith("resize") || line.startsWith("prewarm")
+					|| line.startsWith("pin") || line.startsWith("unpin") || line.startsWith("set")) {
+				String[] cmd = line.split("\\s+");
+				AliyunOSSFilesystem fs = cmd.length < 2 ? null : AliyunOSSFS.getFilesystem(cmd[1]);
+				if (cmd.length < 2) {
+					out.println("Invalid command");
+					help(out);
+				} else if (fs == null) {
+					out.println("Could not find " + cmd[1]);
+				} else {
+					try {
+						if (!control(fs, cmd, out)) {
+							out.println("Invalid command");
+							help(out);
+						}
+					} catch (IllegalArgumentException | IllegalStateException e) {
+						out.println(e.getMessage());
+					} catch (IOException e) {
+						e.printStackTrace(out);
+					}
+				}
 			} else {
 				help(out);
 			}
@@ -71,10 +101,101 @@ public class Console {
 		}
 	}
 
+	/**
+	 * Run a command on a live mount.
+	 *
+	 * @return <code>false</code> if the command is incomplete or unknown.
+	 */
+	private boolean control(AliyunOSSFilesystem fs, String[] cmd, PrintWriter out) throws IOException {
+		switch (cmd[0]) {
+		case "stats":
+			stats.print(fs, out);
+			return true;
+		case "flush":
+			final String what = cmd.length > 2 ? cmd[2] : "all";
+			if (what.equals("metadata") || what.equals("all")) {
+				fs.flushMetadata();
+			}
+			if (what.equals("blocks") || what.equals("all")) {
+				fs.flushBlocks();
+			}
+			return what.equals("metadata") || what.equals("blocks") || what.equals("all");
+		case "resize":
+			if (cmd.length < 4) {
+				return false;
+			}
+			final long size = Long.parseLong(cmd[3]);
+			if (cmd[2].equals("memory")) {
+				requireBlockCache(fs).setMemorySize(size * MB);
+			} else if (cmd[2].equals("disk")) {
+				requireBlockCache(fs).setDiskSize(size * MB);
+			} else if (cmd[2].equals("metadata")) {
+				fs.getMetadataCache().setMaximumSize(size);
+			} else {
+				return false;
+			}
+			return true;
+		case "prewarm":
+			final String path = cmd.length > 2 ? cmd[2] : "/";
+			final boolean data = cmd.length > 3 && cmd[3].equals("data");
+			if (cmd.length > 3 && !data) {
+				return false;
+			}
+			out.println("Cached " + (data ? "" : "the attributes of ") + fs.prewarm(path, data) + " objects below " + path);
+			return true;
+		case "pin":
+			if (cmd.length < 3) {
+				return false;
+			}
+			out.println("Pinned " + fs.pin(cmd[2]) + " objects below " + cmd[2]);
+			return true;
+		case "unpin":
+			if (cmd.length < 3) {
+				return false;
+			}
+			out.println(fs.unpin(cmd[2]) ? "Unpinned " + cmd[2] : cmd[2] + " is not pinned");
+			return true;
+		case "set":
+			if (cmd.length < 4) {
+				return false;
+			}
+			final int value = Integer.parseInt(cmd[3]);
+			if (cmd[2].equals("read-ahead")) {
+				fs.setReadAheadMax(value * MB);
+			} else if (cmd[2].equals("prefetch-threads")) {
+				fs.setPrefetchThreads(value);
+			} else if (cmd[2].equals("metadata-ops")) {
+				fs.getMetadataLimiter().setConcurrency(value);
+			} else if (cmd[2].equals("data-ops")) {
+				fs.getDataLimiter().setConcurrency(value);
+			} else {
+				return false;
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static BlockCache requireBlockCache(AliyunOSSFilesystem fs) {
+		if (fs.getBlockCache() == null) {
+			throw new IllegalStateException("Blocks are not cached.");
+		}
+		return fs.getBlockCache();
+	}
+
 	private void help(PrintWriter out) {
 		out.println("mount <git-dir> <mountpoint>");
 		out.println("umount <git-dir>|<mountpoint>");
 		out.println("list ... list current mounts");
+		out.println("stats <bucket>|<mountpoint> ... operations, latencies, caches and limits of a mount");
+		out.println("flush <bucket>|<mountpoint> [metadata|blocks|all] ... empty the caches of a mount");
+		out.println("resize <bucket>|<mountpoint> memory|disk <MB> ... resize the block cache");
+		out.println("resize <bucket>|<mountpoint> metadata <entries> ... resize the metadata cache, dropping its entries");
+		out.println("prewarm <bucket>|<mountpoint> [<path> [data]] ... cache the attributes and optionally the content of all objects below the path");
+		out.println("pin <bucket>|<mountpoint> <path> ... download all objects below the path and keep them in the caches");
+		out.println("unpin <bucket>|<mountpoint> <path> ... let pinned objects be evicted again");
+		out.println("set <bucket>|<mountpoint> read-ahead <MB>|prefetch-threads <n>|metadata-ops <n>|data-ops <n> ... tune a mount");
 		out.println("quit ... quit the applicatoin");
 		out.println("exit ... quit the application");
 		out.println("cls  ... clear the screen");
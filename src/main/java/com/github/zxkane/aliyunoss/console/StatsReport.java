@@ -0,0 +1,104 @@
+package com.github.zxkane.aliyunoss.console;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.github.zxkane.aliyunoss.AliyunOSSFilesystem;
+import com.github.zxkane.aliyunoss.cache.BlockCache;
+import com.github.zxkane.aliyunoss.cache.MetadataCache;
+import com.github.zxkane.aliyunoss.metrics.CacheMetrics;
+import com.github.zxkane.aliyunoss.metrics.Metrics;
+import com.github.zxkane.aliyunoss.metrics.OperationMetrics;
+import com.github.zxkane.aliyunoss.util.OperationLimiter;
+
+/**
+ * Prints the metrics of a mount as tables. Throughput is computed over the
+ * time since the previous report of the same mount, or since the mount for
+ * the first report.
+ */
+class StatsReport {
+
+	private static final double MB = 1024 * 1024;
+
+	private static final String OPERATION_HEADER = "%-24s %10s %8s %9s %9s %9s %9s %9s %9s %9s%n";
+
+	private static final String OPERATION_ROW = "%-24s %10d %8d %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n";
+
+	// keyed by the metrics of a mount, so unmounted buckets are dropped
+	private final Map<Metrics, Snapshot> previous = new WeakHashMap<Metrics, Snapshot>();
+
+	private final long created = System.nanoTime();
+
+	synchronized void print(AliyunOSSFilesystem fs, PrintWriter out) {
+		final Metrics metrics = fs.getMetrics();
+		final Snapshot last = previous.get(metrics);
+		final Snapshot current = new Snapshot();
+		final double seconds = Math.max(1e-3, (current.time - (last == null ? created : last.time)) / 1e9);
+
+		out.format(OPERATION_HEADER, "operation", "count", "errors", "in-flight", "ops/s", "MB/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (OperationMetrics operation : metrics.getOperations()) {
+			printOperation(out, "fuse " + operation.getName(), operation, last, current, seconds);
+		}
+		for (OperationMetrics request : metrics.getRequests()) {
+			printOperation(out, "oss " + request.getName(), request, last, current, seconds);
+		}
+		previous.put(metrics, current);
+
+		out.println();
+		out.format("%-24s %10s %10s %9s %10s%n", "cache", "hits", "misses", "hit ratio", "evictions");
+		for (CacheMetrics cache : metrics.getCaches()) {
+			out.format("%-24s %10d %10d %8.1f%% %10d%n", cache.getName(), cache.getHitCount(), cache.getMissCount(), 100 * cache.getHitRatio(),
+					cache.getEvictionCount());
+		}
+
+		out.println();
+		final MetadataCache metadataCache = fs.getMetadataCache();
+		out.format("metadata cache     %d of %d entries%n", metadataCache.size(), metadataCache.getMaximumSize());
+		final BlockCache blockCache = fs.getBlockCache();
+		if (blockCache != null) {
+			out.format("block cache memory %.1f of %.1f MB%n", blockCache.getMemoryUsage() / MB, blockCache.getMemoryCapacity() / MB);
+			out.format("block cache disk   %.1f of %.1f MB%n", blockCache.getDiskUsage() / MB, blockCache.getDiskCapacity() / MB);
+			if (!blockCache.getPinned().isEmpty()) {
+				out.format("pinned             %.1f MB below %s%n", blockCache.getPinnedUsage() / MB, blockCache.getPinned());
+			}
+		}
+		printLimiter(out, fs.getMetadataLimiter());
+		printLimiter(out, fs.getDataLimiter());
+		out.format("read-ahead         %.0f MB with %d prefetch threads%n", fs.getReadAheadMax() / MB, fs.getPrefetchThreads());
+		out.flush();
+	}
+
+	/**
+	 * Print a row for operations which were called at least once.
+	 */
+	private static void printOperation(PrintWriter out, String name, OperationMetrics operation, Snapshot last, Snapshot current, double seconds) {
+		final long count = operation.getCount();
+		final long bytes = operation.getBytes();
+		current.counts.put(name, new long[] { count, bytes });
+		if (count == 0 && operation.getInFlight() == 0) {
+			return;
+		}
+		final long[] before = last == null ? null : last.counts.get(name);
+		final long countDelta = count - (before == null ? 0 : before[0]);
+		final long bytesDelta = bytes - (before == null ? 0 : before[1]);
+		out.format(OPERATION_ROW, name, count, operation.getErrors(), operation.getInFlight(), countDelta / seconds, bytesDelta / MB / seconds,
+				operation.getMedianMicros() / 1e3, operation.getPercentile99Micros() / 1e3, operation.getPercentile999Micros() / 1e3,
+				operation.getMaxMicros() / 1e3);
+	}
+
+	private static void printLimiter(PrintWriter out, OperationLimiter limiter) {
+		if (limiter.getConcurrency() > 0) {
+			out.format("%-18s %d of %d running, %d waiting%n", limiter.getName() + " ops", limiter.getRunning(), limiter.getConcurrency(),
+					limiter.getQueued());
+		} else {
+			out.format("%-18s not limited%n", limiter.getName() + " ops");
+		}
+	}
+
+	private static final class Snapshot {
+		private final long time = System.nanoTime();
+		private final Map<String, long[]> counts = new HashMap<String, long[]>();
+	}
+}
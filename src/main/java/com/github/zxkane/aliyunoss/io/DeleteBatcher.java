@@ -0,0 +1,264 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.oss.OSSException;
+import com.github.zxkane.aliyunoss.store.ObjectStore;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Coalesces deletes of single objects into DeleteObjects requests of up to
+ * 1000 keys. A batch is sent once it is full or a short delay after its first
+ * key, so the deletes issued back-to-back by a recursive removal share few
+ * requests, and several batches are sent concurrently.
+ *
+ * Keys are pending from the moment they are queued until their batch is
+ * sent, callers hide them meanwhile and wait for them before the key is
+ * written again.
+ */
+public class DeleteBatcher implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DeleteBatcher.class);
+
+	// the maximum number of keys of a DeleteObjects request
+	static final int MAX_BATCH_SIZE = 1000;
+
+	/**
+	 * Called once per sent batch, from the thread which sent it.
+	 */
+	public interface Listener {
+		void deleted(List<String> keys);
+
+		void failed(List<String> keys, Exception e);
+	}
+
+	private final ObjectStore store;
+
+	private final long delayMillis;
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private final Map<String, Batch> pending = new ConcurrentHashMap<>();
+
+	private volatile Listener listener;
+
+	// the batch collecting keys, guarded by this
+	private Batch current;
+
+	/**
+	 * @param delayMillis
+	 *            milliseconds a batch waits for more keys after its first one
+	 * @param threads
+	 *            number of batches sent at the same time
+	 */
+	public DeleteBatcher(ObjectStore store, long delayMillis, int threads) {
+		this.store = store;
+		this.delayMillis = Math.max(0, delayMillis);
+		this.executor = new ScheduledThreadPoolExecutor(Math.max(1, threads),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-delete-" + store.getBucketName() + "-%d").build());
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Queue the object for deletion.
+	 */
+	public synchronized void delete(final String key) {
+		final Batch previous = pending.get(key);
+		if (previous != null && !previous.sent) {
+			return;
+		}
+		if (current == null) {
+			final Batch batch = new Batch();
+			current = batch;
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					send(batch);
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		}
+		current.keys.add(key);
+		pending.put(key, current);
+		if (current.keys.size() >= MAX_BATCH_SIZE) {
+			send(current);
+		}
+	}
+
+	/**
+	 * @return whether the object is queued for deletion and not deleted yet.
+	 */
+	public boolean isPending(final String key) {
+		return pending.containsKey(key);
+	}
+
+	/**
+	 * Withdraw a pending delete of the object before it is written again. If
+	 * its batch is being sent already, wait for it to finish.
+	 */
+	public void cancel(final String key) throws IOException {
+		final Batch batch;
+		synchronized (this) {
+			batch = pending.get(key);
+			if (batch == null) {
+				return;
+			}
+			if (!batch.sent) {
+				batch.keys.remove(key);
+				pending.remove(key);
+				return;
+			}
+		}
+		try {
+			await(batch);
+		} catch (IOException | RuntimeException e) {
+			// the object is written again anyway
+			logger.debug("Pending delete of object '{}' failed.", key, e);
+		}
+	}
+
+	/**
+	 * Send the pending deletes of all objects below the prefix and wait for
+	 * them.
+	 *
+	 * @throws IOException
+	 *             If deleting any of the objects failed.
+	 */
+	public void flush(final String prefix) throws IOException {
+		final List<Batch> batches = new ArrayList<>();
+		synchronized (this) {
+			for (Map.Entry<String, Batch> entry : pending.entrySet()) {
+				if (entry.getKey().startsWith(prefix) && !batches.contains(entry.getValue())) {
+					batches.add(entry.getValue());
+				}
+			}
+			if (batches.contains(current)) {
+				send(current);
+			}
+		}
+		for (Batch batch : batches) {
+			await(batch);
+		}
+	}
+
+	/**
+	 * @return the number of objects queued for deletion.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	private synchronized void send(final Batch batch) {
+		if (batch.sent) {
+			return;
+		}
+		batch.sent = true;
+		if (current == batch) {
+			current = null;
+		}
+		executor.execute(batch);
+	}
+
+	private static void await(final Batch batch) throws IOException {
+		try {
+			batch.done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for deletes");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OSSException) {
+				throw (OSSException) e.getCause();
+			}
+			throw new IOException("Deleting objects failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Send the pending deletes and wait for them before the client is shut
+	 * down.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (current != null) {
+				send(current);
+			}
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.warn("Gave up waiting for deletes of {} objects.", pending.size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Keys deleted with one request.
+	 */
+	private final class Batch implements Runnable {
+
+		private final List<String> keys = new ArrayList<>();
+
+		private final SettableFuture<Void> done = SettableFuture.create();
+
+		// guarded by the batcher, no key is added once it is set
+		private boolean sent;
+
+		@Override
+		public void run() {
+			final List<String> batchKeys;
+			synchronized (DeleteBatcher.this) {
+				batchKeys = Collections.unmodifiableList(new ArrayList<>(keys));
+			}
+			if (batchKeys.isEmpty()) {
+				done.set(null);
+				return;
+			}
+			final Listener batchListener = listener;
+			RuntimeException failure = null;
+			try {
+				store.deleteObjects(batchKeys);
+				logger.debug("Deleted {} objects.", batchKeys.size());
+			} catch (RuntimeException e) {
+				logger.error("Error on deleting {} objects.", batchKeys.size(), e);
+				failure = e;
+			}
+			try {
+				if (batchListener != null && failure == null) {
+					batchListener.deleted(batchKeys);
+				} else if (batchListener != null) {
+					batchListener.failed(batchKeys, failure);
+				}
+			} finally {
+				// the keys are settled before anybody waiting is woken up
+				for (String key : batchKeys) {
+					pending.remove(key, this);
+				}
+				if (failure == null) {
+					done.set(null);
+				} else {
+					done.setException(failure);
+				}
+			}
+		}
+	}
+}
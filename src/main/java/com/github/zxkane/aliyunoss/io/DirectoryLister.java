@@ -0,0 +1,289 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.github.zxkane.aliyunoss.store.ObjectStore;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Lists prefixes page by page. The next pages are requested while the
+ * current one is consumed, so a large directory is filled in while it is
+ * listed instead of after it was listed entirely.
+ *
+ * The markers a listing continued at are remembered per prefix. Listing the
+ * prefix again requests the pages at the remembered markers concurrently, the
+ * pages are checked to continue each other and the listing falls back to
+ * following the markers one by one once the prefix changed. Prefixes without
+ * remembered markers are listed by a {@link ShardedLister} if listings are
+ * sharded.
+ */
+public class DirectoryLister implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DirectoryLister.class);
+
+	private static final int MAX_REMEMBERED_LISTINGS = 1024;
+
+	private static final long REMEMBERED_LISTING_IDLE_MINUTES = 30;
+
+	private final ObjectStore store;
+
+	private final int pagesAhead;
+
+	private final int shards;
+
+	private final ExecutorService executor;
+
+	private final ShardedLister shardedLister;
+
+	// the markers of every page of the last complete listing of a prefix
+	private final Cache<String, List<String>> markers = CacheBuilder.newBuilder().maximumSize(MAX_REMEMBERED_LISTINGS)
+			.expireAfterAccess(REMEMBERED_LISTING_IDLE_MINUTES, TimeUnit.MINUTES).build();
+
+	/**
+	 * @param threads
+	 *            number of pages requested at the same time over all listings
+	 * @param pagesAhead
+	 *            number of pages of a listing requested before they are
+	 *            consumed
+	 * @param shards
+	 *            number of shards of a listing requested at the same time, a
+	 *            single shard lists sequentially
+	 */
+	public DirectoryLister(ObjectStore store, int threads, int pagesAhead, int shards) {
+		this.store = store;
+		this.pagesAhead = Math.max(1, pagesAhead);
+		this.shards = shards;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-list-" + store.getBucketName() + "-%d").build());
+		this.shardedLister = new ShardedLister(store, executor);
+	}
+
+	/**
+	 * Start listing the prefix, no page is requested before the first call to
+	 * {@link ListingPages#next()}.
+	 *
+	 * @param prefix
+	 *            the prefix to list, empty for the whole bucket
+	 * @param delimiter
+	 *            the delimiter to group keys by or <code>null</code>
+	 * @param maxKeys
+	 *            maximum number of entries of a page
+	 */
+	public ListingPages list(String prefix, String delimiter, int maxKeys) {
+		final List<String> remembered = markers.getIfPresent(cacheKey(prefix, delimiter, maxKeys));
+		if (remembered == null && shards > 1) {
+			return new RememberingPages(shardedLister.list(prefix, delimiter, maxKeys, shards), prefix, delimiter, maxKeys);
+		}
+		return new Pages(prefix, delimiter, maxKeys, remembered == null ? Collections.singletonList("") : remembered);
+	}
+
+	/**
+	 * List the prefix as shards regardless of remembered markers, e.g. to scan
+	 * a large part of the bucket.
+	 *
+	 * @see ShardedLister#list(String, String, int, int)
+	 */
+	public ListingPages scan(String prefix, String delimiter, int maxKeys, int parallelism) {
+		return shardedLister.list(prefix, delimiter, maxKeys, parallelism);
+	}
+
+	private static String cacheKey(final String prefix, final String delimiter, final int maxKeys) {
+		return delimiter + ":" + maxKeys + ":" + prefix;
+	}
+
+	/**
+	 * Forget the markers of all listings, e.g. after many objects moved.
+	 */
+	public void invalidateAll() {
+		markers.invalidateAll();
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Pages following each other's markers.
+	 */
+	private final class Pages implements ListingPages {
+
+		private final String prefix;
+
+		private final String delimiter;
+
+		private final int maxKeys;
+
+		// pages requested but not consumed yet, in the order of the listing
+		private final Deque<Page> ahead = new ArrayDeque<>();
+
+		// markers of the pages to request next, empty for the first page
+		private final Deque<String> toRequest = new ArrayDeque<>();
+
+		private final List<String> consumed = new ArrayList<>();
+
+		Pages(String prefix, String delimiter, int maxKeys, List<String> initialMarkers) {
+			this.prefix = prefix;
+			this.delimiter = delimiter;
+			this.maxKeys = maxKeys;
+			toRequest.addAll(initialMarkers);
+		}
+
+		@Override
+		public ObjectListing next() throws IOException {
+			request();
+			final Page page = ahead.poll();
+			if (page == null) {
+				return null;
+			}
+			final ObjectListing listing = await(page.listing);
+			consumed.add(page.marker);
+
+			if (!listing.isTruncated()) {
+				// remembered pages beyond the end are stale
+				cancel();
+				if (consumed.size() > 1) {
+					markers.put(cacheKey(prefix, delimiter, maxKeys), new ArrayList<>(consumed));
+				}
+				return listing;
+			}
+			final String nextMarker = listing.getNextMarker();
+			final String expected = !ahead.isEmpty() ? ahead.peek().marker : toRequest.peek();
+			if (expected == null || !expected.equals(nextMarker)) {
+				if (expected != null) {
+					logger.debug("Listing of prefix '{}' changed at marker '{}'.", prefix, nextMarker);
+				}
+				cancel();
+				toRequest.add(nextMarker);
+			}
+			// the next page is on its way while this one is consumed
+			request();
+			return listing;
+		}
+
+		private void request() {
+			while (ahead.size() < pagesAhead && !toRequest.isEmpty()) {
+				final String marker = toRequest.poll();
+				ahead.add(new Page(marker, executor.submit(new Callable<ObjectListing>() {
+					@Override
+					public ObjectListing call() {
+						return store.listObjects(prefix, delimiter, marker.isEmpty() ? null : marker, maxKeys);
+					}
+				})));
+			}
+		}
+
+		private void cancel() {
+			for (Page page : ahead) {
+				page.listing.cancel(true);
+			}
+			ahead.clear();
+			toRequest.clear();
+		}
+
+		@Override
+		public void close() {
+			cancel();
+		}
+	}
+
+	/**
+	 * Remembers the markers a sequential listing would have continued at from
+	 * the pages of a sharded listing, every page ends with its last key or
+	 * group of keys.
+	 */
+	private final class RememberingPages implements ListingPages {
+
+		private final ListingPages pages;
+
+		private final String prefix;
+
+		private final String delimiter;
+
+		private final int maxKeys;
+
+		private final List<String> pageMarkers = new ArrayList<>(Collections.singletonList(""));
+
+		private long entries;
+
+		RememberingPages(ListingPages pages, String prefix, String delimiter, int maxKeys) {
+			this.pages = pages;
+			this.prefix = prefix;
+			this.delimiter = delimiter;
+			this.maxKeys = maxKeys;
+		}
+
+		@Override
+		public ObjectListing next() throws IOException {
+			final ObjectListing listing = pages.next();
+			if (listing == null) {
+				if (pageMarkers.size() > 1) {
+					markers.put(cacheKey(prefix, delimiter, maxKeys), pageMarkers);
+				}
+				return null;
+			}
+			final List<String> keys = new ArrayList<>(listing.getCommonPrefixes());
+			for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+				keys.add(objectSummary.getKey());
+			}
+			Collections.sort(keys);
+			for (String key : keys) {
+				// the marker of the next page is the last entry of a full one
+				if (++entries % maxKeys == 0) {
+					pageMarkers.add(key);
+				}
+			}
+			return listing;
+		}
+
+		@Override
+		public void close() {
+			pages.close();
+		}
+	}
+
+	private static final class Page {
+		private final String marker;
+		private final Future<ObjectListing> listing;
+
+		Page(String marker, Future<ObjectListing> listing) {
+			this.marker = marker;
+			this.listing = listing;
+		}
+	}
+
+	private static ObjectListing await(final Future<ObjectListing> pending) throws IOException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a listing");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OSSException) {
+				throw (OSSException) e.getCause();
+			}
+			throw new IOException("Listing failed", e.getCause());
+		}
+	}
+}
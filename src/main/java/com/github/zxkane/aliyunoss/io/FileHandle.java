@@ -0,0 +1,163 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+
+/**
+ * State of a file between open and release. The attributes of the object are
+ * taken once on open, so reads of the handle need no HEAD request, and every
+ * handle detects sequential access on its own.
+ *
+ * Without a block cache the handle keeps the response stream of its last read
+ * open while the file is read forward, so the next read continues on the same
+ * connection instead of issuing another GET.
+ */
+public class FileHandle implements Closeable {
+
+	private final String key;
+
+	private final ObjectAttributes attributes;
+
+	private final ReadAhead readAhead;
+
+	private final ObjectWriter.Upload upload;
+
+	private final WriteBackCache.Entry entry;
+
+	// guards the live stream, concurrent reads of the handle bypass it
+	final ReentrantLock streamLock = new ReentrantLock();
+
+	private InputStream stream;
+
+	private long streamOffset;
+
+	private long nextOffset = -1;
+
+	/**
+	 * @param readAhead
+	 *            read-ahead state of the handle or <code>null</code> if
+	 *            read-ahead is disabled
+	 */
+	public FileHandle(String key, ObjectAttributes attributes, ReadAhead readAhead) {
+		this.key = key;
+		this.attributes = attributes;
+		this.readAhead = readAhead;
+		this.upload = null;
+		this.entry = null;
+	}
+
+	/**
+	 * Create the handle of a file which is written.
+	 */
+	public FileHandle(ObjectWriter.Upload upload) {
+		this.key = upload.getKey();
+		this.attributes = ObjectAttributes.file(0, System.currentTimeMillis(), null);
+		this.readAhead = null;
+		this.upload = upload;
+		this.entry = null;
+	}
+
+	/**
+	 * Create the handle of a file which is written into the write-back
+	 * journal.
+	 */
+	public FileHandle(WriteBackCache.Entry entry) {
+		this.key = entry.getKey();
+		this.attributes = ObjectAttributes.file(0, System.currentTimeMillis(), null);
+		this.readAhead = null;
+		this.upload = null;
+		this.entry = entry;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public ObjectAttributes getAttributes() {
+		return attributes;
+	}
+
+	public ReadAhead getReadAhead() {
+		return readAhead;
+	}
+
+	/**
+	 * @return the upload of the file or <code>null</code> if the file is open
+	 *         for reading.
+	 */
+	public ObjectWriter.Upload getUpload() {
+		return upload;
+	}
+
+	/**
+	 * @return the journal entry of the file or <code>null</code> if the file
+	 *         is not written into the write-back journal.
+	 */
+	public WriteBackCache.Entry getEntry() {
+		return entry;
+	}
+
+	/**
+	 * @return whether the file is open for writing.
+	 */
+	public boolean isWriting() {
+		return upload != null || entry != null;
+	}
+
+	/**
+	 * @return whether a read from the offset continues the last read.
+	 */
+	boolean isSequential(long offset) {
+		return offset == nextOffset;
+	}
+
+	/**
+	 * @return the live stream if it is positioned at the offset, otherwise it
+	 *         is aborted and <code>null</code> is returned.
+	 */
+	InputStream detachStream(long offset) throws IOException {
+		final InputStream current = stream;
+		stream = null;
+		if (current != null && streamOffset != offset) {
+			current.close();
+			return null;
+		}
+		return current;
+	}
+
+	/**
+	 * Keep the stream for the next read, positioned at the offset.
+	 */
+	void attachStream(InputStream stream, long offset) {
+		this.stream = stream;
+		this.streamOffset = offset;
+	}
+
+	void setNextOffset(long nextOffset) {
+		this.nextOffset = nextOffset;
+	}
+
+	/**
+	 * Abort the live stream, if any, and the upload of the file unless it was
+	 * completed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (upload != null) {
+			upload.abort();
+		}
+		streamLock.lock();
+		try {
+			if (stream != null) {
+				stream.close();
+				stream = null;
+			}
+		} finally {
+			streamLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.aliyun.oss.model.ObjectListing;
+
+/**
+ * The pages of one listing in the order of their keys, to be consumed by one
+ * thread and closed once the consumer is done with it.
+ */
+public interface ListingPages extends Closeable {
+
+	/**
+	 * @return the next page or <code>null</code> if the listing is complete.
+	 */
+	ObjectListing next() throws IOException;
+
+	/**
+	 * Stop requesting pages, e.g. because the consumer stopped early.
+	 */
+	@Override
+	void close();
+}
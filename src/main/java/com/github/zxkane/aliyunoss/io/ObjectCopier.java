@@ -0,0 +1,186 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.PartETag;
+import com.github.zxkane.aliyunoss.store.ObjectStore;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Copies and moves objects within the bucket on the server side, the content
+ * never passes through the client. Objects larger than a part are copied by
+ * concurrent ranged part copies of a multipart upload, moves of many objects
+ * run concurrently.
+ */
+public class ObjectCopier implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ObjectCopier.class);
+
+	private static final int MAX_PARTS = 10000;
+
+	private final ObjectStore store;
+
+	private final long partSize;
+
+	// objects and parts are copied by separate pools, object copies wait for
+	// their parts
+	private final ExecutorService objectExecutor;
+
+	private final ExecutorService partExecutor;
+
+	/**
+	 * @param partSize
+	 *            size in bytes of the parts larger objects are copied in
+	 * @param threads
+	 *            number of objects and of parts copied at the same time
+	 */
+	public ObjectCopier(ObjectStore store, long partSize, int threads) {
+		this.store = store;
+		this.partSize = Math.max(ObjectWriter.MIN_PART_SIZE, partSize);
+		this.objectExecutor = Executors.newFixedThreadPool(Math.max(1, threads),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-copy-" + store.getBucketName() + "-%d").build());
+		this.partExecutor = Executors.newFixedThreadPool(Math.max(1, threads),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-copy-part-" + store.getBucketName() + "-%d").build());
+	}
+
+	/**
+	 * Copy the object to another key of the bucket.
+	 *
+	 * @param size
+	 *            content length of the source object
+	 * @return ETag of the copy
+	 */
+	public String copy(final String sourceKey, final String destinationKey, final long size) throws IOException {
+		if (size <= partSize) {
+			return store.copyObject(sourceKey, destinationKey);
+		}
+
+		final long copyPartSize = Math.max(partSize, (size + MAX_PARTS - 1) / MAX_PARTS);
+		final String uploadId = store.initiateMultipartUpload(destinationKey);
+		try {
+			final List<Future<PartETag>> parts = new ArrayList<>();
+			for (long start = 0; start < size; start += copyPartSize) {
+				final long beginIndex = start;
+				final long length = Math.min(copyPartSize, size - start);
+				final int partNumber = parts.size() + 1;
+				parts.add(partExecutor.submit(new Callable<PartETag>() {
+					@Override
+					public PartETag call() {
+						return store.uploadPartCopy(sourceKey, destinationKey, uploadId, partNumber, beginIndex, length);
+					}
+				}));
+			}
+			logger.debug("Copying object '{}' to '{}' in {} parts.", sourceKey, destinationKey, parts.size());
+
+			final List<PartETag> partETags = new ArrayList<>(parts.size());
+			Exception failure = null;
+			for (Future<PartETag> part : parts) {
+				try {
+					partETags.add(await(part));
+				} catch (IOException | RuntimeException e) {
+					failure = failure == null ? e : failure;
+				}
+			}
+			rethrow(failure);
+			return store.completeMultipartUpload(destinationKey, uploadId, partETags);
+		} catch (IOException | RuntimeException e) {
+			try {
+				store.abortMultipartUpload(destinationKey, uploadId);
+			} catch (RuntimeException abortFailure) {
+				logger.warn("Could not abort copy {} of object '{}'.", uploadId, destinationKey, abortFailure);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Move the objects below a prefix to another prefix concurrently. Every
+	 * object is deleted once it is copied.
+	 *
+	 * @param objects
+	 *            objects below the source prefix
+	 * @return the number of moved objects
+	 * @throws IOException
+	 *             If moving any object failed, the other objects are moved
+	 *             nevertheless.
+	 */
+	public int move(final List<OSSObjectSummary> objects, final String sourcePrefix, final String destinationPrefix) throws IOException {
+		final List<Future<?>> moves = new ArrayList<>(objects.size());
+		for (final OSSObjectSummary object : objects) {
+			moves.add(objectExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					final String destinationKey = destinationPrefix + object.getKey().substring(sourcePrefix.length());
+					copy(object.getKey(), destinationKey, object.getSize());
+					store.deleteObject(object.getKey());
+					return null;
+				}
+			}));
+		}
+
+		int moved = 0;
+		Exception failure = null;
+		for (Future<?> move : moves) {
+			try {
+				await(move);
+				moved++;
+			} catch (IOException | RuntimeException e) {
+				failure = failure == null ? e : failure;
+			}
+		}
+		if (failure != null) {
+			logger.error("Moved {} of {} objects from '{}' to '{}'.", moved, objects.size(), sourcePrefix, destinationPrefix);
+			rethrow(failure);
+		}
+		return moved;
+	}
+
+	/**
+	 * Throw the first failure of concurrent copies, if any.
+	 */
+	private static void rethrow(final Exception failure) throws IOException {
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+	}
+
+	private static <T> T await(final Future<T> pending) throws IOException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a copy");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OSSException) {
+				throw (OSSException) e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Copying failed", e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		objectExecutor.shutdownNow();
+		partExecutor.shutdownNow();
+	}
+}
@@ -0,0 +1,586 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.common.utils.IOUtils;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.github.zxkane.aliyunoss.cache.BlockCache;
+import com.github.zxkane.aliyunoss.cache.BlockCache.BlockKey;
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+import com.github.zxkane.aliyunoss.store.ObjectStore;
+import com.github.zxkane.aliyunoss.util.BufferUtils;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads ranges of OSS objects into the buffers handed over by FUSE. If a
+ * {@link BlockCache} is given, reads are served from cached blocks and only the
+ * missing blocks are fetched from OSS, otherwise every read is a ranged GET.
+ *
+ * Blocks being fetched are tracked as in-flight, so a read of a block which is
+ * prefetched in the background waits for that fetch instead of issuing
+ * another request.
+ *
+ * Large runs of missing blocks are split into parts which are fetched by
+ * concurrent ranged GETs, as a single connection to OSS is far slower than the
+ * network.
+ */
+public class ObjectReader implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ObjectReader.class);
+
+	private static final String CONTENT_RANGE = "Content-Range";
+
+	private final ObjectStore store;
+
+	private final String bucketName;
+
+	private final BlockCache cache;
+
+	private final ConcurrentMap<BlockKey, SettableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+	private final ThreadPoolExecutor prefetchExecutor;
+
+	private final int partBlocks;
+
+	private final ExecutorService fetchExecutor;
+
+	public ObjectReader(ObjectStore store, BlockCache cache) {
+		this(store, cache, 0, 0, 0);
+	}
+
+	/**
+	 * @param prefetchThreads
+	 *            number of threads fetching blocks in the background, 0
+	 *            disables prefetching
+	 * @param partSize
+	 *            size in bytes of the parts a large fetch is split into, it
+	 *            is rounded to whole blocks
+	 * @param fetchThreads
+	 *            number of threads fetching parts in parallel, 0 disables
+	 *            parallel fetches
+	 */
+	public ObjectReader(ObjectStore store, BlockCache cache, int prefetchThreads, long partSize, int fetchThreads) {
+		this.store = store;
+		this.bucketName = store.getBucketName();
+		this.cache = cache;
+		if (cache != null && fetchThreads > 0) {
+			this.partBlocks = (int) Math.max(1, partSize / cache.getBlockSize());
+			this.fetchExecutor = Executors.newFixedThreadPool(fetchThreads,
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-fetch-" + bucketName + "-%d").build());
+		} else {
+			this.partBlocks = Integer.MAX_VALUE;
+			this.fetchExecutor = null;
+		}
+		if (cache != null && prefetchThreads > 0) {
+			// the queue is bounded, prefetches beyond it are dropped
+			this.prefetchExecutor = new ThreadPoolExecutor(prefetchThreads, prefetchThreads, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(prefetchThreads * 16),
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-prefetch-" + bucketName + "-%d").build());
+		} else {
+			this.prefetchExecutor = null;
+		}
+	}
+
+	/**
+	 * @return whether {@link #prefetch(String, String, long, long, long)} does
+	 *         anything.
+	 */
+	public boolean isPrefetching() {
+		return prefetchExecutor != null;
+	}
+
+	/**
+	 * Change the number of prefetching threads of a running reader, the queue
+	 * of waiting prefetches keeps its size.
+	 *
+	 * @throws IllegalStateException
+	 *             If the reader was created without prefetching.
+	 */
+	public synchronized void setPrefetchThreads(int prefetchThreads) {
+		Preconditions.checkArgument(prefetchThreads > 0, "Prefetch threads must be positive but was %s.", prefetchThreads);
+		if (prefetchExecutor == null) {
+			throw new IllegalStateException("Prefetching of bucket " + bucketName + " is disabled.");
+		}
+		// the core size must never exceed the maximum size
+		if (prefetchThreads > prefetchExecutor.getMaximumPoolSize()) {
+			prefetchExecutor.setMaximumPoolSize(prefetchThreads);
+			prefetchExecutor.setCorePoolSize(prefetchThreads);
+		} else {
+			prefetchExecutor.setCorePoolSize(prefetchThreads);
+			prefetchExecutor.setMaximumPoolSize(prefetchThreads);
+		}
+	}
+
+	/**
+	 * @return number of prefetching threads, 0 if prefetching is disabled.
+	 */
+	public int getPrefetchThreads() {
+		return prefetchExecutor == null ? 0 : prefetchExecutor.getMaximumPoolSize();
+	}
+
+	/**
+	 * Read up to <code>size</code> bytes of the object from
+	 * <code>offset</code> into the buffer.
+	 *
+	 * @param key
+	 *            key of the object
+	 * @param etag
+	 *            ETag of the object, used to tell apart versions of cached
+	 *            blocks
+	 * @param objectSize
+	 *            content length of the object, reads are clamped to it
+	 * @return the number of bytes put into the buffer
+	 * @throws IOException
+	 *             If reading the object content fails.
+	 */
+	public int read(final String key, final String etag, final long objectSize, final ByteBuffer buffer, final long offset, final long size)
+			throws IOException {
+		if (offset >= objectSize || size <= 0) {
+			return 0;
+		}
+		final long end = Math.min(offset + size, objectSize);
+		if (cache == null) {
+			return readDirect(key, buffer, offset, end);
+		}
+
+		final int blockSize = cache.getBlockSize();
+		final long first = offset / blockSize;
+		final byte[][] blocks = new byte[(int) ((end - 1) / blockSize - first + 1)][];
+		acquireBlocks(key, etag, objectSize, first, blocks);
+
+		int read = 0;
+		for (int i = 0; i < blocks.length; i++) {
+			final long blockStart = (first + i) * blockSize;
+			final int from = (int) (Math.max(offset, blockStart) - blockStart);
+			final int to = (int) (Math.min(end, blockStart + blocks[i].length) - blockStart);
+			buffer.put(blocks[i], from, to - from);
+			read += to - from;
+		}
+		return read;
+	}
+
+	/**
+	 * Read up to <code>size</code> bytes of the file of the handle from
+	 * <code>offset</code> into the buffer. Without a block cache, forward
+	 * sequential reads of the handle continue on its live stream.
+	 *
+	 * @return the number of bytes put into the buffer
+	 * @throws IOException
+	 *             If reading the object content fails.
+	 */
+	public int read(final FileHandle handle, final ByteBuffer buffer, final long offset, final long size) throws IOException {
+		final ObjectAttributes attributes = handle.getAttributes();
+		final long objectSize = attributes.getSize();
+		if (cache != null || offset >= objectSize || size <= 0) {
+			return read(handle.getKey(), attributes.getEtag(), objectSize, buffer, offset, size);
+		}
+		final long end = Math.min(offset + size, objectSize);
+		if (!handle.streamLock.tryLock()) {
+			// another read of the handle uses the stream
+			return readDirect(handle.getKey(), buffer, offset, end);
+		}
+		try {
+			InputStream stream = handle.detachStream(offset);
+			if (stream == null) {
+				if (!handle.isSequential(offset)) {
+					handle.setNextOffset(end);
+					return readDirect(handle.getKey(), buffer, offset, end);
+				}
+				// the second read in a row, keep the rest of the object open
+				logger.debug("Streaming object '{}' from offset {}.", handle.getKey(), offset);
+				stream = openRange(handle.getKey(), offset, objectSize);
+			}
+			boolean complete = false;
+			try {
+				final int read = BufferUtils.transfer(stream, buffer, end - offset);
+				complete = read == end - offset;
+				if (complete) {
+					handle.attachStream(stream, end);
+				}
+				handle.setNextOffset(end);
+				return read;
+			} finally {
+				if (!complete) {
+					IOUtils.safeClose(stream);
+				}
+			}
+		} finally {
+			handle.streamLock.unlock();
+		}
+	}
+
+	/**
+	 * Fetch the blocks covering range [start, end) of the object in the
+	 * background unless they are cached or already being fetched.
+	 */
+	public void prefetch(final String key, final String etag, final long objectSize, final long start, final long end) {
+		if (prefetchExecutor == null || start >= Math.min(end, objectSize)) {
+			return;
+		}
+		final int blockSize = cache.getBlockSize();
+		final long first = start / blockSize;
+		final int count = (int) ((Math.min(end, objectSize) - 1) / blockSize - first + 1);
+		final SettableFuture<byte[]>[] claims = newClaims(count);
+		for (int i = 0; i < count; i++) {
+			final BlockKey blockKey = new BlockKey(key, etag, first + i);
+			if (cache.get(blockKey) == null) {
+				claims[i] = claim(blockKey);
+			}
+		}
+
+		int i = 0;
+		while (i < count) {
+			if (claims[i] == null) {
+				i++;
+				continue;
+			}
+			int j = i;
+			while (j < count && claims[j] != null) {
+				j++;
+			}
+			final long runFirst = first + i;
+			final SettableFuture<byte[]>[] runClaims = newClaims(j - i);
+			System.arraycopy(claims, i, runClaims, 0, j - i);
+			try {
+				prefetchExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							fetchRun(key, etag, objectSize, runFirst, runClaims, new byte[runClaims.length][]);
+						} catch (IOException | RuntimeException e) {
+							logger.warn("Could not prefetch {} blocks of object '{}' from block {}.", runClaims.length, key, runFirst, e);
+						} finally {
+							abandon(key, etag, runFirst, runClaims);
+						}
+					}
+				});
+				logger.debug("Prefetching {} blocks of object '{}' from block {}.", j - i, key, runFirst);
+			} catch (RejectedExecutionException e) {
+				logger.debug("Prefetch queue is full, skipping {} blocks of object '{}'.", j - i, key);
+				for (int k = 0; k < runClaims.length; k++) {
+					release(new BlockKey(key, etag, runFirst + k), runClaims[k], null);
+				}
+			}
+			i = j;
+		}
+	}
+
+	/**
+	 * Fetch the blocks covering range [start, end) of the object into the
+	 * cache unless they are cached already, waiting for the fetches in flight.
+	 * The blocks are fetched by a single ranged GET, or by parallel parts if
+	 * the range is longer than a part.
+	 *
+	 * @throws IOException
+	 *             If fetching a block fails.
+	 * @throws IllegalStateException
+	 *             If the reader has no block cache.
+	 */
+	public void load(final String key, final String etag, final long objectSize, final long start, final long end) throws IOException {
+		if (cache == null) {
+			throw new IllegalStateException("Objects of bucket " + bucketName + " can not be loaded without a block cache.");
+		}
+		if (start >= Math.min(end, objectSize)) {
+			return;
+		}
+		final int blockSize = cache.getBlockSize();
+		final long first = start / blockSize;
+		acquireBlocks(key, etag, objectSize, first, new byte[(int) ((Math.min(end, objectSize) - 1) / blockSize - first + 1)][]);
+	}
+
+	/**
+	 * Fill all blocks from the cache, from fetches in flight or by fetching
+	 * them from OSS.
+	 */
+	private void acquireBlocks(final String key, final String etag, final long objectSize, final long first, final byte[][] blocks)
+			throws IOException {
+		final int count = blocks.length;
+		boolean complete = false;
+		while (!complete) {
+			final SettableFuture<byte[]>[] claims = newClaims(count);
+			final Future<byte[]>[] pending = newClaims(count);
+			for (int i = 0; i < count; i++) {
+				if (blocks[i] != null) {
+					continue;
+				}
+				final BlockKey blockKey = new BlockKey(key, etag, first + i);
+				blocks[i] = cache.get(blockKey);
+				if (blocks[i] == null) {
+					final SettableFuture<byte[]> claim = claim(blockKey);
+					if (claim != null) {
+						claims[i] = claim;
+					} else {
+						pending[i] = inFlight.get(blockKey);
+					}
+				}
+			}
+
+			// fetch every run of consecutive claimed blocks with one request
+			try {
+				int i = 0;
+				while (i < count) {
+					if (claims[i] == null) {
+						i++;
+						continue;
+					}
+					int j = i;
+					while (j < count && claims[j] != null) {
+						j++;
+					}
+					final SettableFuture<byte[]>[] runClaims = newClaims(j - i);
+					System.arraycopy(claims, i, runClaims, 0, j - i);
+					final byte[][] runBlocks = new byte[j - i][];
+					fetchRun(key, etag, objectSize, first + i, runClaims, runBlocks);
+					System.arraycopy(runBlocks, 0, blocks, i, j - i);
+					i = j;
+				}
+			} finally {
+				// a failed run leaves the claims of the later runs open
+				abandon(key, etag, first, claims);
+			}
+
+			complete = true;
+			for (int i = 0; i < count; i++) {
+				if (blocks[i] == null && pending[i] != null) {
+					blocks[i] = await(pending[i]);
+				}
+				// a dropped prefetch completes without a block, claim it again
+				complete &= blocks[i] != null;
+			}
+		}
+	}
+
+	/**
+	 * Fetch consecutive blocks and complete their claims. Runs longer than a
+	 * part are split into parts, all but the first one are fetched by the
+	 * fetch pool while the calling thread fetches the first one.
+	 */
+	private void fetchRun(final String key, final String etag, final long objectSize, final long firstIndex,
+			final SettableFuture<byte[]>[] claims, final byte[][] blocks) throws IOException {
+		final int count = claims.length;
+		if (count <= partBlocks) {
+			fetchBlocks(key, etag, objectSize, firstIndex, claims, blocks);
+			return;
+		}
+
+		final List<Future<?>> parts = new ArrayList<>();
+		for (int i = partBlocks; i < count; i += partBlocks) {
+			final int partStart = i;
+			final int partCount = Math.min(partBlocks, count - i);
+			final SettableFuture<byte[]>[] partClaims = Arrays.copyOfRange(claims, partStart, partStart + partCount);
+			parts.add(fetchExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					final byte[][] partBlocks = new byte[partCount][];
+					fetchBlocks(key, etag, objectSize, firstIndex + partStart, partClaims, partBlocks);
+					System.arraycopy(partBlocks, 0, blocks, partStart, partCount);
+					return null;
+				}
+			}));
+		}
+		logger.debug("Fetching {} blocks of object '{}' in {} parts.", count, key, parts.size() + 1);
+
+		final byte[][] firstBlocks = new byte[partBlocks][];
+		IOException failure = null;
+		try {
+			fetchBlocks(key, etag, objectSize, firstIndex, Arrays.copyOf(claims, partBlocks), firstBlocks);
+			System.arraycopy(firstBlocks, 0, blocks, 0, partBlocks);
+		} catch (IOException e) {
+			failure = e;
+		}
+		for (Future<?> part : parts) {
+			try {
+				await(part);
+			} catch (IOException e) {
+				failure = failure == null ? e : failure;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Fetch consecutive blocks with one ranged GET and complete their claims.
+	 */
+	private void fetchBlocks(final String key, final String etag, final long objectSize, final long firstIndex,
+			final SettableFuture<byte[]>[] claims, final byte[][] blocks) throws IOException {
+		final int blockSize = cache.getBlockSize();
+		final int count = claims.length;
+		final long start = firstIndex * blockSize;
+		final long end = Math.min((firstIndex + count) * blockSize, objectSize);
+		logger.debug("Fetching {} blocks of object '{}' from offset {}.", count, key, start);
+
+		int i = 0;
+		try {
+			final InputStream input = openRange(key, start, end);
+			try {
+				for (; i < count; i++) {
+					final long blockStart = start + (long) i * blockSize;
+					final byte[] block = new byte[(int) (Math.min(blockStart + blockSize, end) - blockStart)];
+					BufferUtils.readFully(input, block, 0, block.length);
+					final BlockKey blockKey = new BlockKey(key, etag, firstIndex + i);
+					cache.put(blockKey, block);
+					release(blockKey, claims[i], block);
+					blocks[i] = block;
+				}
+			} finally {
+				IOUtils.safeClose(input);
+			}
+		} catch (IOException | RuntimeException e) {
+			for (; i < count; i++) {
+				final BlockKey blockKey = new BlockKey(key, etag, firstIndex + i);
+				inFlight.remove(blockKey, claims[i]);
+				claims[i].setException(e);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return a claim on fetching the block or <code>null</code> if it is
+	 *         fetched by someone else already.
+	 */
+	private SettableFuture<byte[]> claim(final BlockKey blockKey) {
+		final SettableFuture<byte[]> claim = SettableFuture.create();
+		return inFlight.putIfAbsent(blockKey, claim) == null ? claim : null;
+	}
+
+	private void release(final BlockKey blockKey, final SettableFuture<byte[]> claim, final byte[] block) {
+		inFlight.remove(blockKey, claim);
+		claim.set(block);
+	}
+
+	/**
+	 * Fail the claims which were not completed, so reads waiting for the
+	 * blocks fail instead of waiting forever and later reads fetch them again.
+	 */
+	private void abandon(final String key, final String etag, final long firstIndex, final SettableFuture<byte[]>[] claims) {
+		for (int i = 0; i < claims.length; i++) {
+			if (claims[i] != null && !claims[i].isDone()) {
+				inFlight.remove(new BlockKey(key, etag, firstIndex + i), claims[i]);
+				claims[i].setException(new IOException("Fetching block " + (firstIndex + i) + " of object " + key + " was abandoned"));
+			}
+		}
+	}
+
+	private static <T> T await(final Future<T> pending) throws IOException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a block");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OSSException) {
+				throw (OSSException) e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Fetching a block failed", e.getCause());
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static SettableFuture<byte[]>[] newClaims(final int count) {
+		return new SettableFuture[count];
+	}
+
+	private int readDirect(final String key, final ByteBuffer buffer, final long offset, final long end) throws IOException {
+		final InputStream input = openRange(key, offset, end);
+		try {
+			return BufferUtils.transfer(input, buffer, end - offset);
+		} finally {
+			IOUtils.safeClose(input);
+		}
+	}
+
+	/**
+	 * Open the content of the object in range [start, end). The range is
+	 * verified against the Content-Range of the response. If OSS answers with
+	 * the whole object instead, the content before the range is skipped. If
+	 * the response continues after the range, the connection is aborted on
+	 * close rather than drained.
+	 */
+	private InputStream openRange(final String key, final long start, final long end) throws IOException {
+		OSSObject object = store.getObject(key, start, end);
+		final InputStream input = object.getObjectContent();
+		final String contentRange = header(object.getObjectMetadata(), CONTENT_RANGE);
+		final boolean exceedsRange;
+		if (contentRange != null) {
+			final long[] range = RangeInputStream.parseContentRange(contentRange);
+			if (range == null || range[0] != start || range[1] < end - 1) {
+				RangeInputStream.abort(input);
+				throw new IOException("Unexpected Content-Range '" + contentRange + "' of object " + key + " for range " + start + "-" + (end - 1));
+			}
+			exceedsRange = range[1] > end - 1;
+		} else {
+			// the whole object, unless its length is known to end the range
+			exceedsRange = object.getObjectMetadata().getContentLength() != end;
+		}
+		if (contentRange == null && start > 0) {
+			logger.warn("OSS ignored range {}-{} of object '{}', skipping {} bytes of the whole object.", start, end - 1, key, start);
+			long skipped = 0;
+			while (skipped < start) {
+				final long n = input.skip(start - skipped);
+				if (n <= 0) {
+					RangeInputStream.abort(input);
+					throw new EOFException("Object " + key + " ended before offset " + start);
+				}
+				skipped += n;
+			}
+		}
+		return new RangeInputStream(input, end - start, exceedsRange);
+	}
+
+	private static String header(final ObjectMetadata metadata, final String name) {
+		for (Map.Entry<String, Object> header : metadata.getRawMetadata().entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey())) {
+				return header.getValue() == null ? null : header.getValue().toString();
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (prefetchExecutor != null) {
+			prefetchExecutor.shutdownNow();
+		}
+		if (fetchExecutor != null) {
+			fetchExecutor.shutdownNow();
+		}
+		// fail the claims of prefetches which never run
+		for (SettableFuture<byte[]> claim : inFlight.values()) {
+			claim.setException(new IOException("Reader of bucket " + bucketName + " is closed"));
+		}
+		inFlight.clear();
+	}
+}
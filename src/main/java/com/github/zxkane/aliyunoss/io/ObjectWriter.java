@@ -0,0 +1,385 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.PartETag;
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+import com.github.zxkane.aliyunoss.store.ObjectStore;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Streams files written through FUSE to OSS. Every file is written into a
+ * part buffer, full parts are uploaded as parts of a multipart upload by a
+ * pool of threads while the file is still being written. Files smaller than a
+ * part are uploaded with a single PUT when they are completed.
+ *
+ * The number of parts buffered for upload is bounded over all files, writers
+ * wait for a part to finish uploading once the bound is reached, so a file is
+ * never held in memory entirely.
+ *
+ * Uploads which are neither completed nor aborted when the writer is closed
+ * are aborted, so no multipart upload is left open in the bucket.
+ */
+public class ObjectWriter implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ObjectWriter.class);
+
+	// OSS refuses parts smaller than this except for the last one
+	static final int MIN_PART_SIZE = 100 * 1024;
+
+	private static final int MAX_PARTS = 10000;
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final ObjectStore store;
+
+	private final int partSize;
+
+	private final Semaphore uploadBuffers;
+
+	private final ExecutorService uploadExecutor;
+
+	// uploads which are neither completed nor aborted
+	private final Set<Upload> open = Collections.newSetFromMap(new ConcurrentHashMap<Upload, Boolean>());
+
+	/**
+	 * @param partSize
+	 *            size in bytes of the parts of a multipart upload
+	 * @param uploadThreads
+	 *            number of threads uploading parts
+	 * @param maxBuffers
+	 *            maximum number of parts of all files waiting for or being
+	 *            uploaded
+	 */
+	public ObjectWriter(ObjectStore store, long partSize, int uploadThreads, int maxBuffers) {
+		this.store = store;
+		this.partSize = (int) Math.max(MIN_PART_SIZE, Math.min(partSize, Integer.MAX_VALUE));
+		this.uploadBuffers = new Semaphore(Math.max(1, maxBuffers));
+		this.uploadExecutor = Executors.newFixedThreadPool(Math.max(1, uploadThreads),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-upload-" + store.getBucketName() + "-%d").build());
+	}
+
+	/**
+	 * Start writing a new version of the object, it replaces the current one
+	 * once the upload is completed.
+	 */
+	public Upload open(String key) {
+		final Upload upload = new Upload(key);
+		open.add(upload);
+		return upload;
+	}
+
+	/**
+	 * Replace the object with an empty one.
+	 *
+	 * @return attributes of the empty object
+	 */
+	public ObjectAttributes putEmpty(String key) {
+		final String etag = store.putObject(key, new byte[0], 0, 0);
+		return ObjectAttributes.file(0, System.currentTimeMillis(), etag);
+	}
+
+	/**
+	 * @return number of part buffers which are not taken by an upload.
+	 */
+	int availableBuffers() {
+		return uploadBuffers.availablePermits();
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Upload upload : open) {
+			logger.warn("Aborting upload of object '{}' which was not completed.", upload.getKey());
+			upload.abort();
+		}
+		uploadExecutor.shutdownNow();
+	}
+
+	/**
+	 * A file being written sequentially.
+	 */
+	public class Upload {
+
+		private final String key;
+
+		private byte[] part = new byte[INITIAL_BUFFER_SIZE];
+
+		private int partLength;
+
+		private long position;
+
+		private String uploadId;
+
+		private final List<Future<PartETag>> parts = new ArrayList<>();
+
+		private final List<PartTask> tasks = new ArrayList<>();
+
+		private boolean completed;
+
+		// completed or aborted, nothing is left to clean up
+		private boolean closed;
+
+		Upload(String key) {
+			this.key = key;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return number of bytes written so far.
+		 */
+		public synchronized long getPosition() {
+			return position;
+		}
+
+		/**
+		 * Append the content of the buffer at the offset. Full parts are
+		 * handed over to the upload threads, this blocks while too many parts
+		 * are waiting for their upload.
+		 *
+		 * @return <code>false</code> if the offset is not the end of the file,
+		 *         multipart uploads can only be written sequentially.
+		 */
+		public synchronized boolean write(final ByteBuffer buffer, final long offset, final int length) throws IOException {
+			if (completed) {
+				throw new IOException("Upload of object " + key + " is completed already");
+			}
+			if (offset != position) {
+				return false;
+			}
+			int remaining = length;
+			while (remaining > 0) {
+				final int n = Math.min(remaining, partSize - partLength);
+				ensureCapacity(partLength + n);
+				buffer.get(part, partLength, n);
+				partLength += n;
+				position += n;
+				remaining -= n;
+				if (partLength == partSize) {
+					submitPart();
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Fail if the upload of a part failed already.
+		 */
+		public synchronized void checkFailure() throws IOException {
+			for (Future<PartETag> pending : parts) {
+				if (pending.isDone()) {
+					await(pending);
+				}
+			}
+		}
+
+		/**
+		 * Upload the rest of the file and complete the upload. The upload is
+		 * aborted if that fails.
+		 *
+		 * @return attributes of the uploaded object
+		 */
+		public synchronized ObjectAttributes complete() throws IOException {
+			if (completed) {
+				throw new IOException("Upload of object " + key + " is completed already");
+			}
+			completed = true;
+			if (uploadId == null) {
+				try {
+					final String etag = store.putObject(key, part, 0, partLength);
+					logger.debug("Uploaded object '{}' with {} bytes.", key, position);
+					return ObjectAttributes.file(position, System.currentTimeMillis(), etag);
+				} finally {
+					part = null;
+					closed();
+				}
+			}
+
+			try {
+				if (partLength > 0) {
+					submitPart();
+				}
+				part = null;
+				final List<PartETag> partETags = new ArrayList<>(parts.size());
+				for (Future<PartETag> pending : parts) {
+					partETags.add(await(pending));
+				}
+				Collections.sort(partETags, new Comparator<PartETag>() {
+					@Override
+					public int compare(PartETag a, PartETag b) {
+						return Integer.compare(a.getPartNumber(), b.getPartNumber());
+					}
+				});
+				final String etag = store.completeMultipartUpload(key, uploadId, partETags);
+				uploadId = null;
+				closed();
+				logger.debug("Completed upload of object '{}' with {} bytes in {} parts.", key, position, partETags.size());
+				return ObjectAttributes.file(position, System.currentTimeMillis(), etag);
+			} catch (IOException | RuntimeException e) {
+				abort();
+				throw e;
+			}
+		}
+
+		/**
+		 * Discard the file, parts which were uploaded already are deleted.
+		 * Nothing happens if the upload is completed or aborted already.
+		 */
+		public synchronized void abort() {
+			if (closed) {
+				return;
+			}
+			completed = true;
+			part = null;
+			for (PartTask task : tasks) {
+				task.cancel();
+			}
+			if (uploadId != null) {
+				try {
+					store.abortMultipartUpload(key, uploadId);
+				} catch (RuntimeException e) {
+					logger.warn("Could not abort upload {} of object '{}'.", uploadId, key, e);
+				}
+				uploadId = null;
+			}
+			closed();
+		}
+
+		/**
+		 * @return whether the upload is completed or aborted.
+		 */
+		public synchronized boolean isClosed() {
+			return closed;
+		}
+
+		private void closed() {
+			closed = true;
+			open.remove(this);
+		}
+
+		private void ensureCapacity(final int capacity) {
+			if (part == null) {
+				// the file has more than one part, so the next one is full
+				part = new byte[partSize];
+			} else if (capacity > part.length) {
+				final byte[] grown = new byte[Math.min(partSize, Math.max(capacity, part.length * 2))];
+				System.arraycopy(part, 0, grown, 0, partLength);
+				part = grown;
+			}
+		}
+
+		private void submitPart() throws IOException {
+			if (parts.size() >= MAX_PARTS) {
+				throw new IOException("Object " + key + " exceeds " + MAX_PARTS + " parts");
+			}
+			if (uploadId == null) {
+				uploadId = store.initiateMultipartUpload(key);
+				logger.debug("Initiated upload {} of object '{}'.", uploadId, key);
+			}
+			try {
+				uploadBuffers.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+			}
+
+			final byte[] content = part;
+			final int length = partLength;
+			final int partNumber = parts.size() + 1;
+			final String currentUploadId = uploadId;
+			final PartTask task = new PartTask(key, currentUploadId, partNumber, content, length);
+			try {
+				task.future = uploadExecutor.submit(task);
+			} catch (RuntimeException e) {
+				task.releaseBuffer();
+				throw e;
+			}
+			tasks.add(task);
+			parts.add(task.future);
+			// the submitted buffer belongs to the upload thread now
+			part = null;
+			partLength = 0;
+		}
+	}
+
+	/**
+	 * Upload of a part holding an upload buffer. The buffer is returned when
+	 * the upload finishes, or when the part is cancelled before its upload
+	 * started and the task never runs.
+	 */
+	private final class PartTask implements Callable<PartETag> {
+		private final String key;
+		private final String uploadId;
+		private final int partNumber;
+		private final byte[] content;
+		private final int length;
+		private final AtomicBoolean released = new AtomicBoolean();
+		private Future<PartETag> future;
+
+		PartTask(String key, String uploadId, int partNumber, byte[] content, int length) {
+			this.key = key;
+			this.uploadId = uploadId;
+			this.partNumber = partNumber;
+			this.content = content;
+			this.length = length;
+		}
+
+		@Override
+		public PartETag call() {
+			try {
+				return store.uploadPart(key, uploadId, partNumber, content, 0, length);
+			} finally {
+				releaseBuffer();
+			}
+		}
+
+		void cancel() {
+			if (future.cancel(true)) {
+				// a queued task never runs to release its buffer
+				releaseBuffer();
+			}
+		}
+
+		void releaseBuffer() {
+			if (released.compareAndSet(false, true)) {
+				uploadBuffers.release();
+			}
+		}
+	}
+
+	private static <T> T await(final Future<T> pending) throws IOException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a part upload");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OSSException) {
+				throw (OSSException) e.getCause();
+			}
+			throw new IOException("Uploading a part failed", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+import com.github.zxkane.aliyunoss.store.ObjectStore;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Finds out whether a path is a file or a directory. The object of the path
+ * is looked up and the prefix of the path is listed at the same time, the
+ * first one which finds the path answers. Directories without a marker
+ * object cost a single round trip this way.
+ */
+public class PathResolver implements Closeable {
+
+	private final ObjectStore store;
+
+	// callers are limited by the metadata limiter already
+	private final ExecutorService executor;
+
+	public PathResolver(ObjectStore store) {
+		this.store = store;
+		this.executor = Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-resolve-" + store.getBucketName() + "-%d").build());
+	}
+
+	/**
+	 * @param knownDirectory
+	 *            whether the path is known to be a directory unless it is a
+	 *            file, so its prefix needs not be listed
+	 * @return the attributes of the file or directory or <code>null</code>
+	 *         if neither exists.
+	 */
+	public ObjectAttributes resolve(final String key, final boolean knownDirectory) throws IOException {
+		if (knownDirectory) {
+			final ObjectAttributes file = head(key);
+			return file != null ? file : ObjectAttributes.directory(0);
+		}
+
+		final CompletionService<ObjectAttributes> probes = new ExecutorCompletionService<>(executor);
+		final Future<ObjectAttributes> file = probes.submit(new Callable<ObjectAttributes>() {
+			@Override
+			public ObjectAttributes call() {
+				return head(key);
+			}
+		});
+		final Future<ObjectAttributes> directory = probes.submit(new Callable<ObjectAttributes>() {
+			@Override
+			public ObjectAttributes call() {
+				return list(key + "/");
+			}
+		});
+		try {
+			for (int i = 0; i < 2; i++) {
+				final ObjectAttributes attributes = await(probes.take());
+				if (attributes != null) {
+					return attributes;
+				}
+			}
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while resolving path " + key);
+		} finally {
+			file.cancel(true);
+			directory.cancel(true);
+		}
+	}
+
+	private ObjectAttributes head(final String key) {
+		try {
+			final ObjectMetadata objectMetadata = store.headObject(key);
+			return ObjectAttributes.file(objectMetadata.getContentLength(), objectMetadata.getLastModified().getTime(),
+					objectMetadata.getETag());
+		} catch (OSSException e) {
+			if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	private ObjectAttributes list(final String prefix) {
+		final ObjectListing listing = store.listObjects(prefix, "/", null, 1);
+		for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+			// the marker object of the directory is listed first
+			return ObjectAttributes.directory(prefix.equals(objectSummary.getKey()) ? objectSummary.getLastModified().getTime() : 0);
+		}
+		return listing.getCommonPrefixes().isEmpty() ? null : ObjectAttributes.directory(0);
+	}
+
+	private static ObjectAttributes await(final Future<ObjectAttributes> probe) throws IOException, InterruptedException {
+		try {
+			return probe.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OSSException) {
+				throw (OSSException) e.getCause();
+			}
+			throw new IOException("Resolving a path failed", e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,136 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+/**
+ * Content of an object response limited to the requested range. Closing it
+ * before the range is consumed, or when the response continues past the
+ * range, aborts the HTTP connection instead of draining the rest of the
+ * response, which could be the whole object.
+ */
+public class RangeInputStream extends FilterInputStream {
+
+	private long remaining;
+
+	private final boolean exceedsRange;
+
+	private boolean closed;
+
+	/**
+	 * Limit a response which ends with the range.
+	 */
+	public RangeInputStream(InputStream input, long length) {
+		this(input, length, false);
+	}
+
+	/**
+	 * @param exceedsRange
+	 *            whether the response continues after the range, e.g. because
+	 *            OSS answered with the whole object
+	 */
+	public RangeInputStream(InputStream input, long length, boolean exceedsRange) {
+		super(input);
+		this.remaining = length;
+		this.exceedsRange = exceedsRange;
+	}
+
+	/**
+	 * @return the number of bytes left in the range.
+	 */
+	public long getRemaining() {
+		return remaining;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (remaining <= 0) {
+			return -1;
+		}
+		final int b = in.read();
+		if (b >= 0) {
+			remaining--;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (remaining <= 0) {
+			return -1;
+		}
+		final int bytesRead = in.read(b, off, (int) Math.min(len, remaining));
+		if (bytesRead > 0) {
+			remaining -= bytesRead;
+		}
+		return bytesRead;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		final long skipped = in.skip(Math.min(n, remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (remaining > 0 || exceedsRange) {
+			abort(in);
+		} else {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parse a Content-Range header like <code>bytes 100-199/1000</code>.
+	 *
+	 * @return first and last byte position of the range or <code>null</code>
+	 *         if the header is malformed.
+	 */
+	public static long[] parseContentRange(String contentRange) {
+		final String value = contentRange.trim();
+		if (!value.startsWith("bytes ")) {
+			return null;
+		}
+		final int dash = value.indexOf('-');
+		final int slash = value.indexOf('/');
+		if (dash < 0 || slash < dash) {
+			return null;
+		}
+		try {
+			return new long[] { Long.parseLong(value.substring(6, dash).trim()), Long.parseLong(value.substring(dash + 1, slash).trim()) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Close the response stream without reading the rest of it. The
+	 * connection is not reused then.
+	 */
+	public static void abort(InputStream input) throws IOException {
+		if (input instanceof ConnectionReleaseTrigger) {
+			((ConnectionReleaseTrigger) input).abortConnection();
+		} else {
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.github.zxkane.aliyunoss.io;
+
+/**
+ * Sequential access detection of one open file. While a file is read
+ * sequentially the read-ahead window doubles from the minimum up to the
+ * maximum size, a random access shrinks it to the minimum again.
+ *
+ * Read-ahead is triggered when the reader comes within half a window of the
+ * data already requested, so not every read submits a prefetch.
+ */
+public class ReadAhead {
+
+	private final long minWindow;
+
+	private final long maxWindow;
+
+	private long window;
+
+	private long nextOffset;
+
+	private long prefetchedUntil;
+
+	public ReadAhead(long minWindow, long maxWindow) {
+		this.minWindow = minWindow;
+		this.maxWindow = Math.max(minWindow, maxWindow);
+		this.window = minWindow;
+	}
+
+	/**
+	 * Record a read of range [offset, end) of an object.
+	 *
+	 * @return the range [start, end) which should be prefetched or
+	 *         <code>null</code> if nothing needs to be read ahead.
+	 */
+	public synchronized long[] onRead(final long offset, final long end, final long objectSize) {
+		// FUSE threads might deliver sequential reads slightly out of order
+		final boolean sequential = Math.abs(offset - nextOffset) <= minWindow;
+		nextOffset = Math.max(end, sequential ? nextOffset : 0);
+		if (!sequential) {
+			window = minWindow;
+			prefetchedUntil = end;
+			return null;
+		}
+		if (end + window / 2 < prefetchedUntil || prefetchedUntil >= objectSize) {
+			return null;
+		}
+		if (prefetchedUntil > end) {
+			window = Math.min(window * 2, maxWindow);
+		}
+		final long start = Math.max(prefetchedUntil, end);
+		prefetchedUntil = Math.min(end + window, objectSize);
+		return start < prefetchedUntil ? new long[] { start, prefetchedUntil } : null;
+	}
+
+	public synchronized long getWindow() {
+		return window;
+	}
+}
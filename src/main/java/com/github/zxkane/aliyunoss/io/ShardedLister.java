@@ -0,0 +1,212 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.github.zxkane.aliyunoss.store.ObjectStore;
+
+/**
+ * Lists a prefix as concurrent shards of its key range. A listing starts as a
+ * single shard, whenever a page of a shard is truncated the rest of its range
+ * is bisected at a character between the last listed key and the end of the
+ * range, and both halves are listed with their own markers. Dense ranges are
+ * split further with every page, so the number of requests in flight grows
+ * up to the parallelism of the listing however the keys are distributed.
+ *
+ * The shards are disjoint and kept in the order of their ranges, so their
+ * pages are handed out sorted just like the pages of a sequential listing.
+ */
+public class ShardedLister {
+
+	// split points are printable ASCII to compare alike in UTF-8 and UTF-16
+	private static final char MIN_CHAR = ' ';
+
+	private static final char MAX_CHAR = '~';
+
+	private final ObjectStore store;
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param executor
+	 *            executor requesting the pages, owned by the caller
+	 */
+	public ShardedLister(ObjectStore store, ExecutorService executor) {
+		this.store = store;
+		this.executor = executor;
+	}
+
+	/**
+	 * Start listing the prefix, no page is requested before the first call to
+	 * {@link ListingPages#next()}.
+	 *
+	 * @param prefix
+	 *            the prefix to list, empty for the whole bucket
+	 * @param delimiter
+	 *            the delimiter to group keys by or <code>null</code>
+	 * @param maxKeys
+	 *            maximum number of entries of a page
+	 * @param parallelism
+	 *            maximum number of shards listed at the same time
+	 */
+	public ListingPages list(String prefix, String delimiter, int maxKeys, int parallelism) {
+		return new ShardedPages(prefix, delimiter, maxKeys, Math.max(1, parallelism));
+	}
+
+	/**
+	 * @param from
+	 *            position of the first character which may differ, i.e. the
+	 *            length of the listed prefix
+	 * @return a key greater than <code>low</code> and less than
+	 *         <code>high</code>, as short as possible, or <code>null</code>
+	 *         if there is none of printable characters.
+	 */
+	static String midpoint(final String low, final String high, final int from) {
+		for (int i = from; i <= low.length(); i++) {
+			final int lo = i < low.length() ? Math.max(low.charAt(i), MIN_CHAR - 1) : MIN_CHAR - 1;
+			// the end of the range only bounds the positions it shares
+			final boolean bounded = high != null && high.length() > i && high.startsWith(low.substring(0, i));
+			final int hi = bounded ? Math.min(high.charAt(i), MAX_CHAR + 1) : MAX_CHAR + 1;
+			if (hi - lo > 1) {
+				return low.substring(0, i) + (char) ((lo + hi) / 2);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The keys after <code>after</code> up to and including <code>upTo</code>.
+	 */
+	private static final class Shard {
+		private final String after;
+		private final String upTo;
+		private Future<ObjectListing> listing;
+
+		Shard(String after, String upTo) {
+			this.after = after;
+			this.upTo = upTo;
+		}
+
+		boolean contains(final String key) {
+			return (after == null || key.compareTo(after) > 0) && (upTo == null || key.compareTo(upTo) <= 0);
+		}
+	}
+
+	private final class ShardedPages implements ListingPages {
+
+		private final String prefix;
+
+		private final String delimiter;
+
+		private final int maxKeys;
+
+		private final int parallelism;
+
+		// shards not consumed yet, in the order of their ranges
+		private final Deque<Shard> shards = new ArrayDeque<>();
+
+		ShardedPages(String prefix, String delimiter, int maxKeys, int parallelism) {
+			this.prefix = prefix;
+			this.delimiter = delimiter;
+			this.maxKeys = maxKeys;
+			this.parallelism = parallelism;
+			shards.add(new Shard(null, null));
+		}
+
+		@Override
+		public ObjectListing next() throws IOException {
+			request();
+			final Shard shard = shards.poll();
+			if (shard == null) {
+				return null;
+			}
+			final ObjectListing listing = await(shard.listing);
+
+			// a listing continues beyond the shard, and a group of keys may be
+			// listed by both shards it straddles
+			final ObjectListing page = new ObjectListing();
+			boolean beyond = false;
+			for (String commonPrefix : listing.getCommonPrefixes()) {
+				if (shard.contains(commonPrefix)) {
+					page.addCommonPrefix(commonPrefix);
+				} else {
+					beyond |= shard.upTo != null && commonPrefix.compareTo(shard.upTo) > 0;
+				}
+			}
+			for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+				if (shard.contains(objectSummary.getKey())) {
+					page.addObjectSummary(objectSummary);
+				} else {
+					beyond |= shard.upTo != null && objectSummary.getKey().compareTo(shard.upTo) > 0;
+				}
+			}
+
+			if (listing.isTruncated() && !beyond) {
+				final String last = listing.getNextMarker();
+				final String middle = midpoint(last, shard.upTo, prefix.length());
+				if (middle != null) {
+					shards.addFirst(new Shard(middle, shard.upTo));
+					shards.addFirst(new Shard(last, middle));
+				} else {
+					shards.addFirst(new Shard(last, shard.upTo));
+				}
+			}
+			request();
+			return page;
+		}
+
+		/**
+		 * Request the first shards up to the parallelism.
+		 */
+		private void request() {
+			int requested = 0;
+			for (final Shard shard : shards) {
+				if (requested == parallelism) {
+					break;
+				}
+				if (shard.listing == null) {
+					shard.listing = executor.submit(new Callable<ObjectListing>() {
+						@Override
+						public ObjectListing call() {
+							return store.listObjects(prefix, delimiter, shard.after, maxKeys);
+						}
+					});
+				}
+				requested++;
+			}
+		}
+
+		@Override
+		public void close() {
+			for (Shard shard : shards) {
+				if (shard.listing != null) {
+					shard.listing.cancel(true);
+				}
+			}
+			shards.clear();
+		}
+	}
+
+	private static ObjectListing await(final Future<ObjectListing> pending) throws IOException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a listing");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof OSSException) {
+				throw (OSSException) e.getCause();
+			}
+			throw new IOException("Listing failed", e.getCause());
+		}
+	}
+}
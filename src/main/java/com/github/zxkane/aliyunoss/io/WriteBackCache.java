@@ -0,0 +1,539 @@
+package com.github.zxkane.aliyunoss.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Write-back cache of written files. A file is written into a local journal
+ * directory and closing it returns once its content is durable there, the
+ * journal is uploaded by background threads afterwards. Files which are
+ * written or waiting for their upload are served from the journal.
+ *
+ * A journal entry consists of a data file and a file holding its key, the
+ * data file is renamed to its final name only when it is complete. Entries
+ * are named by a sequence number which grows across mounts. Entries left by a
+ * previous mount are uploaded on startup, only the newest one of every key.
+ *
+ * Failed uploads are retried with an exponential backoff, the number of
+ * entries waiting for their upload is bounded, closing files waits while the
+ * backlog is full.
+ */
+public class WriteBackCache implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteBackCache.class);
+
+	private static final String WRITING_SUFFIX = ".part";
+
+	private static final String DATA_SUFFIX = ".data";
+
+	private static final String KEY_SUFFIX = ".key";
+
+	private static final int COPY_SIZE = 1024 * 1024;
+
+	private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+	/**
+	 * Notified when an entry was uploaded.
+	 */
+	public interface Listener {
+		void uploaded(String key, ObjectAttributes attributes);
+	}
+
+	private final File dir;
+
+	private final ObjectWriter objectWriter;
+
+	private final int maxRetries;
+
+	private final Semaphore backlog;
+
+	private final ScheduledThreadPoolExecutor uploadExecutor;
+
+	// sequence number of the next entry
+	private final AtomicLong sequence;
+
+	// latest entry of every key which is written or not uploaded yet
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+	// keys with an upload in progress, uploads of a key are serialized
+	private final Set<String> uploading = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private volatile Listener listener;
+
+	/**
+	 * @param dir
+	 *            journal directory
+	 * @param threads
+	 *            number of threads uploading entries
+	 * @param maxBacklog
+	 *            maximum number of entries waiting for their upload
+	 * @param maxRetries
+	 *            number of times a failed upload is retried before the entry
+	 *            is left for the next mount
+	 */
+	public WriteBackCache(File dir, ObjectWriter objectWriter, int threads, int maxBacklog, int maxRetries) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create the write-back directory " + dir);
+		}
+		this.dir = dir;
+		this.objectWriter = objectWriter;
+		this.maxRetries = maxRetries;
+		this.backlog = new Semaphore(Math.max(1, maxBacklog));
+		this.uploadExecutor = new ScheduledThreadPoolExecutor(Math.max(1, threads),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oss-writeback-" + dir.getName() + "-%d").build());
+		long next = 0;
+		final String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				next = Math.max(next, sequenceOf(baseName(name)) + 1);
+			}
+		}
+		this.sequence = new AtomicLong(next);
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Queue the entries left in the journal by a previous mount. Only the
+	 * newest entry of every key is uploaded, older ones are deleted.
+	 *
+	 * @return the number of recovered entries
+	 */
+	public int recover() throws IOException {
+		final File[] files = dir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		final Map<String, Entry> newest = new HashMap<>();
+		for (File file : files) {
+			final String name = file.getName();
+			if (name.endsWith(WRITING_SUFFIX)) {
+				// never closed, the content is incomplete
+				deleteQuietly(file);
+				deleteQuietly(new File(dir, baseName(name) + KEY_SUFFIX));
+			} else if (name.endsWith(DATA_SUFFIX)) {
+				final File keyFile = new File(dir, baseName(name) + KEY_SUFFIX);
+				if (!keyFile.isFile()) {
+					logger.warn("Dropping journal entry {} without key.", file);
+					deleteQuietly(file);
+					continue;
+				}
+				final String key = new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.UTF_8);
+				final Entry entry = new Entry(key, baseName(name), file.length(), file.lastModified());
+				entry.committed = true;
+				final Entry other = newest.get(key);
+				if (other == null || other.sequence < entry.sequence) {
+					newest.put(key, entry);
+					if (other != null) {
+						drop(other);
+					}
+				} else {
+					drop(entry);
+				}
+			}
+		}
+		int recovered = 0;
+		for (Entry entry : newest.values()) {
+			if (entries.putIfAbsent(entry.key, entry) == null) {
+				// recovered entries exceed the backlog rather than block
+				entry.holdsPermit = backlog.tryAcquire();
+				schedule(entry, 0);
+				recovered++;
+			} else {
+				// written again by this mount already
+				drop(entry);
+			}
+		}
+		if (recovered > 0) {
+			logger.info("Uploading {} files left in the write-back directory {}.", recovered, dir);
+		}
+		return recovered;
+	}
+
+	private void drop(Entry entry) {
+		logger.debug("Dropping superseded journal entry {} of '{}'.", entry.id, entry.key);
+		deleteQuietly(entry.file(DATA_SUFFIX));
+		deleteQuietly(entry.file(KEY_SUFFIX));
+	}
+
+	/**
+	 * Start writing a new version of the object into the journal.
+	 */
+	public Entry create(String key) throws IOException {
+		final Entry entry = new Entry(key, String.format("%016x", sequence.getAndIncrement()), 0, System.currentTimeMillis());
+		entry.channel = FileChannel.open(entry.file(WRITING_SUFFIX).toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		entries.put(key, entry);
+		return entry;
+	}
+
+	/**
+	 * @return attributes of the file if it is written or waiting for its
+	 *         upload, otherwise <code>null</code>.
+	 */
+	public ObjectAttributes getAttributes(String key) {
+		final Entry entry = entries.get(key);
+		return entry == null ? null : ObjectAttributes.file(entry.size, entry.lastModified, null);
+	}
+
+	/**
+	 * @return names of the files in the directory which are written or
+	 *         waiting for their upload.
+	 */
+	public List<String> getPendingChildren(String dir) {
+		final String prefix = dir.isEmpty() ? "" : dir + "/";
+		final List<String> children = new ArrayList<>();
+		for (String key : entries.keySet()) {
+			if (key.startsWith(prefix) && key.indexOf('/', prefix.length()) < 0) {
+				children.add(key.substring(prefix.length()));
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * @return the number of entries which are written or waiting for their
+	 *         upload.
+	 */
+	public int getPendingCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Read the file from the journal if it is written or waiting for its
+	 * upload.
+	 *
+	 * @return the number of bytes put into the buffer or -1 if the file is not
+	 *         in the journal.
+	 */
+	public int read(String key, ByteBuffer buffer, long offset, long size) throws IOException {
+		final Entry entry = entries.get(key);
+		if (entry == null) {
+			return -1;
+		}
+		final long end = Math.min(offset + size, entry.size);
+		if (offset >= end) {
+			return 0;
+		}
+		final ByteBuffer slice = buffer.duplicate();
+		slice.limit(slice.position() + (int) (end - offset));
+		final FileChannel channel = entry.channel;
+		if (channel != null && channel.isOpen()) {
+			try {
+				return readFully(channel, slice, buffer, offset);
+			} catch (ClosedChannelException e) {
+				// committed in the meantime, read the data file from the start
+				slice.position(buffer.position());
+			}
+		}
+		try (FileChannel committed = FileChannel.open(entry.file(DATA_SUFFIX).toPath(), StandardOpenOption.READ)) {
+			return readFully(committed, slice, buffer, offset);
+		} catch (NoSuchFileException e) {
+			// uploaded in the meantime
+			return -1;
+		}
+	}
+
+	private static int readFully(FileChannel channel, ByteBuffer slice, ByteBuffer buffer, long offset) throws IOException {
+		int read = 0;
+		while (slice.hasRemaining()) {
+			final int n = channel.read(slice, offset + read);
+			if (n < 0) {
+				break;
+			}
+			read += n;
+		}
+		buffer.position(buffer.position() + read);
+		return read;
+	}
+
+	private void schedule(final Entry entry, final long delayMillis) {
+		try {
+			uploadExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					upload(entry);
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			logger.debug("Write-back of '{}' is closed, leaving it in the journal.", entry.key);
+		}
+	}
+
+	private void upload(final Entry entry) {
+		final Entry latest = entries.get(entry.key);
+		if (latest != null && latest != entry && latest.committed) {
+			// a newer version is uploaded instead
+			logger.debug("Skipping upload of superseded version of '{}'.", entry.key);
+			finish(entry);
+			return;
+		}
+		if (!uploading.add(entry.key)) {
+			schedule(entry, 100);
+			return;
+		}
+		try {
+			final ObjectAttributes attributes = uploadFile(entry);
+			logger.debug("Uploaded '{}' with {} bytes from the write-back journal.", entry.key, entry.size);
+			finish(entry);
+			final Listener current = listener;
+			if (current != null && entries.get(entry.key) == null) {
+				current.uploaded(entry.key, attributes);
+			}
+		} catch (IOException | RuntimeException e) {
+			entry.attempts++;
+			if (entry.attempts > maxRetries) {
+				logger.error("Giving up uploading '{}' after {} attempts, it is left in {}.", entry.key, entry.attempts, dir, e);
+				entries.remove(entry.key, entry);
+				releasePermit(entry);
+			} else {
+				final long backoff = Math.min(MAX_BACKOFF_MILLIS, 1000L << Math.min(entry.attempts - 1, 16));
+				logger.warn("Upload of '{}' failed, retrying in {} ms.", entry.key, backoff, e);
+				schedule(entry, backoff);
+			}
+		} finally {
+			uploading.remove(entry.key);
+		}
+	}
+
+	private ObjectAttributes uploadFile(final Entry entry) throws IOException {
+		final ObjectWriter.Upload upload = objectWriter.open(entry.key);
+		try (RandomAccessFile input = new RandomAccessFile(entry.file(DATA_SUFFIX), "r")) {
+			final FileChannel channel = input.getChannel();
+			final ByteBuffer buffer = ByteBuffer.allocate(COPY_SIZE);
+			long position = 0;
+			int n;
+			while ((n = channel.read(buffer, position)) > 0) {
+				buffer.flip();
+				upload.write(buffer, position, n);
+				buffer.clear();
+				position += n;
+			}
+			return upload.complete();
+		} catch (IOException | RuntimeException e) {
+			upload.abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Remove the entry from the journal.
+	 */
+	private void finish(final Entry entry) {
+		entries.remove(entry.key, entry);
+		deleteQuietly(entry.file(DATA_SUFFIX));
+		deleteQuietly(entry.file(KEY_SUFFIX));
+		releasePermit(entry);
+	}
+
+	private void releasePermit(final Entry entry) {
+		if (entry.holdsPermit) {
+			entry.holdsPermit = false;
+			backlog.release();
+		}
+	}
+
+	private static String baseName(String name) {
+		final int dot = name.lastIndexOf('.');
+		return dot < 0 ? name : name.substring(0, dot);
+	}
+
+	/**
+	 * @return the sequence number of the entry or -1 if it was named
+	 *         differently.
+	 */
+	private static long sequenceOf(String id) {
+		try {
+			return Long.parseLong(id, 16);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Flush the entries of the directory, so a renamed file survives a crash.
+	 * Platforms which can not open a directory, like Windows, are skipped.
+	 */
+	private static void syncDirectory(File dir) throws IOException {
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			logger.debug("Could not open {} to flush it.", dir, e);
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void deleteQuietly(File file) {
+		if (file.exists() && !file.delete()) {
+			logger.warn("Could not delete {}.", file);
+		}
+	}
+
+	/**
+	 * Stop uploading, entries which are not uploaded yet stay in the journal
+	 * for the next mount.
+	 */
+	@Override
+	public void close() throws IOException {
+		uploadExecutor.shutdownNow();
+		final int pending = entries.size();
+		if (pending > 0) {
+			logger.info("Leaving {} files in the write-back directory {} for the next mount.", pending, dir);
+		}
+		for (Entry entry : entries.values()) {
+			final FileChannel channel = entry.channel;
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * A file in the journal.
+	 */
+	public class Entry {
+
+		private final String key;
+
+		private final String id;
+
+		private final long sequence;
+
+		private volatile long size;
+
+		private volatile long lastModified;
+
+		private volatile FileChannel channel;
+
+		private volatile boolean committed;
+
+		private boolean holdsPermit;
+
+		private int attempts;
+
+		Entry(String key, String id, long size, long lastModified) {
+			this.key = key;
+			this.id = id;
+			this.sequence = sequenceOf(id);
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		private File file(String suffix) {
+			return new File(dir, id + suffix);
+		}
+
+		/**
+		 * Write the content of the buffer at the offset, files in the journal
+		 * can be written at any offset.
+		 */
+		public synchronized void write(ByteBuffer buffer, long offset, int length) throws IOException {
+			final ByteBuffer slice = buffer.duplicate();
+			slice.limit(slice.position() + length);
+			long position = offset;
+			while (slice.hasRemaining()) {
+				position += channel.write(slice, position);
+			}
+			buffer.position(buffer.position() + length);
+			size = Math.max(size, position);
+			lastModified = System.currentTimeMillis();
+		}
+
+		public synchronized void truncate(long length) throws IOException {
+			if (length < size) {
+				channel.truncate(length);
+			} else if (length > size) {
+				channel.write(ByteBuffer.allocate(1), length - 1);
+			}
+			size = length;
+			lastModified = System.currentTimeMillis();
+		}
+
+		/**
+		 * Make the file durable in the journal and queue its upload. This
+		 * waits while the backlog of uploads is full.
+		 */
+		public synchronized void commit() throws IOException {
+			try {
+				backlog.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the write-back backlog");
+			}
+			holdsPermit = true;
+			try {
+				channel.force(true);
+				channel.close();
+				try (FileChannel keyChannel = FileChannel.open(file(KEY_SUFFIX).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+					keyChannel.write(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)));
+					keyChannel.force(true);
+				}
+				Files.move(file(WRITING_SUFFIX).toPath(), file(DATA_SUFFIX).toPath(), StandardCopyOption.ATOMIC_MOVE);
+				syncDirectory(dir);
+			} catch (IOException | RuntimeException e) {
+				releasePermit(this);
+				throw e;
+			}
+			committed = true;
+			schedule(this, 0);
+		}
+
+		/**
+		 * Drop the file from the journal without uploading it.
+		 */
+		public synchronized void discard() throws IOException {
+			entries.remove(key, this);
+			if (channel != null) {
+				channel.close();
+			}
+			deleteQuietly(file(WRITING_SUFFIX));
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Reads the statistics of a cache whenever they are asked for.
+ */
+public class CacheMetrics implements CacheMetricsMXBean {
+
+	private final String name;
+
+	private final Supplier<CacheStats> stats;
+
+	public CacheMetrics(String name, Supplier<CacheStats> stats) {
+		this.name = name;
+		this.stats = stats;
+	}
+
+	public CacheStats getStats() {
+		return stats.get();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getHitCount() {
+		return stats.get().hitCount();
+	}
+
+	@Override
+	public long getMissCount() {
+		return stats.get().missCount();
+	}
+
+	@Override
+	public double getHitRatio() {
+		return stats.get().hitRate();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return stats.get().evictionCount();
+	}
+}
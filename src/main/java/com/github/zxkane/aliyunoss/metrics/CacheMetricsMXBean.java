@@ -0,0 +1,17 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+/**
+ * Hits and misses of a cache as seen through JMX.
+ */
+public interface CacheMetricsMXBean {
+
+	String getName();
+
+	long getHitCount();
+
+	long getMissCount();
+
+	double getHitRatio();
+
+	long getEvictionCount();
+}
@@ -0,0 +1,102 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds. Like HdrHistogram every
+ * power of two is split into 8 linear sub-buckets, so a percentile is known
+ * within 12.5% over the whole range of a long with less than 500 counters.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long micros) {
+		final long value = Math.max(micros, 0);
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// another thread raised the maximum, compare again
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of all recorded microseconds.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		final long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100, e.g. 99.9
+	 * @return the highest microseconds of the bucket holding the percentile,
+	 *         0 if nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	static int index(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValue(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final long subBucket = index % SUB_BUCKETS;
+		final long next = (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+		// the last bucket ends at the largest long
+		return next < 0 ? Long.MAX_VALUE : next - 1;
+	}
+}
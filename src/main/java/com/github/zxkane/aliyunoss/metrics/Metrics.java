@@ -0,0 +1,259 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheStats;
+
+/**
+ * The metrics of a mounted bucket: every FUSE operation, every kind of OSS
+ * request and every cache. Operations and requests are created on first use
+ * and never removed.
+ *
+ * The metrics can be registered as MXBeans in the platform MBean server below
+ * {@value #DOMAIN} and written in the text format of Prometheus.
+ */
+public class Metrics implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+	public static final String DOMAIN = "com.github.zxkane.aliyunoss";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final String bucketName;
+
+	private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentSkipListMap<>();
+
+	private final ConcurrentMap<String, OperationMetrics> requests = new ConcurrentSkipListMap<>();
+
+	private final ConcurrentMap<String, CacheMetrics> caches = new ConcurrentSkipListMap<>();
+
+	private final List<ObjectName> registered = new ArrayList<>();
+
+	public Metrics(String bucketName) {
+		this.bucketName = bucketName;
+	}
+
+	public String getBucketName() {
+		return bucketName;
+	}
+
+	/**
+	 * @return the metrics of a FUSE operation, e.g. getattr.
+	 */
+	public OperationMetrics operation(String name) {
+		return getOrCreate(operations, name);
+	}
+
+	/**
+	 * @return the metrics of a kind of OSS request, e.g. GetObject.
+	 */
+	public OperationMetrics request(String name) {
+		return getOrCreate(requests, name);
+	}
+
+	private static OperationMetrics getOrCreate(final ConcurrentMap<String, OperationMetrics> metrics, final String name) {
+		OperationMetrics existing = metrics.get(name);
+		if (existing == null) {
+			final OperationMetrics created = new OperationMetrics(name);
+			existing = metrics.putIfAbsent(name, created);
+			if (existing == null) {
+				existing = created;
+			}
+		}
+		return existing;
+	}
+
+	public void registerCache(String name, Supplier<CacheStats> stats) {
+		caches.put(name, new CacheMetrics(name, stats));
+	}
+
+	public Collection<OperationMetrics> getOperations() {
+		return operations.values();
+	}
+
+	public Collection<OperationMetrics> getRequests() {
+		return requests.values();
+	}
+
+	public Collection<CacheMetrics> getCaches() {
+		return caches.values();
+	}
+
+	/**
+	 * Register the operations, requests and caches known so far in the
+	 * platform MBean server. Failures are logged, the mount works without
+	 * JMX.
+	 */
+	public synchronized void registerMBeans() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (OperationMetrics operation : operations.values()) {
+			register(server, "FuseOperation", operation.getName(), operation);
+		}
+		for (OperationMetrics request : requests.values()) {
+			register(server, "OssRequest", request.getName(), request);
+		}
+		for (CacheMetrics cache : caches.values()) {
+			register(server, "Cache", cache.getName(), cache);
+		}
+	}
+
+	private void register(final MBeanServer server, final String type, final String name, final Object mbean) {
+		try {
+			final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",bucket=" + ObjectName.quote(bucketName) + ",name="
+					+ ObjectName.quote(name));
+			server.registerMBean(mbean, objectName);
+			registered.add(objectName);
+		} catch (JMException e) {
+			logger.warn("Can not register the metrics of {} {} of bucket {} in JMX.", type, name, bucketName, e);
+		}
+	}
+
+	/**
+	 * Unregister all MBeans.
+	 */
+	@Override
+	public synchronized void close() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName objectName : registered) {
+			try {
+				server.unregisterMBean(objectName);
+			} catch (JMException e) {
+				logger.warn("Can not unregister {} from JMX.", objectName, e);
+			}
+		}
+		registered.clear();
+	}
+
+	/**
+	 * Write the metrics of the buckets in the text exposition format of
+	 * Prometheus. Latencies are summaries in seconds, every sample is labelled
+	 * with its bucket.
+	 */
+	public static void writePrometheus(Iterable<Metrics> all, Writer out) throws IOException {
+		writeOperations(all, out, true);
+		writeOperations(all, out, false);
+
+		type(out, "aliyunoss_cache_hits_total", "counter", "Lookups answered by the cache.");
+		for (Metrics metrics : all) {
+			for (CacheMetrics cache : metrics.caches.values()) {
+				sample(out, "aliyunoss_cache_hits_total", metrics.labels("cache", cache.getName()), cache.getStats().hitCount());
+			}
+		}
+		type(out, "aliyunoss_cache_misses_total", "counter", "Lookups the cache could not answer.");
+		for (Metrics metrics : all) {
+			for (CacheMetrics cache : metrics.caches.values()) {
+				sample(out, "aliyunoss_cache_misses_total", metrics.labels("cache", cache.getName()), cache.getStats().missCount());
+			}
+		}
+		type(out, "aliyunoss_cache_evictions_total", "counter", "Entries evicted from the cache.");
+		for (Metrics metrics : all) {
+			for (CacheMetrics cache : metrics.caches.values()) {
+				sample(out, "aliyunoss_cache_evictions_total", metrics.labels("cache", cache.getName()), cache.getStats().evictionCount());
+			}
+		}
+		type(out, "aliyunoss_cache_hit_ratio", "gauge", "Share of the lookups answered by the cache.");
+		for (Metrics metrics : all) {
+			for (CacheMetrics cache : metrics.caches.values()) {
+				sample(out, "aliyunoss_cache_hit_ratio", metrics.labels("cache", cache.getName()), cache.getStats().hitRate());
+			}
+		}
+		out.flush();
+	}
+
+	private static void writeOperations(final Iterable<Metrics> all, final Writer out, final boolean fuse) throws IOException {
+		final String prefix = fuse ? "aliyunoss_fuse_" : "aliyunoss_oss_";
+		final String label = fuse ? "operation" : "request";
+		final String what = fuse ? "FUSE operations" : "OSS requests";
+
+		type(out, prefix + label + "s_total", "counter", "Finished " + what + ".");
+		for (Metrics metrics : all) {
+			for (OperationMetrics operation : metrics.of(fuse)) {
+				sample(out, prefix + label + "s_total", metrics.labels(label, operation.getName()), operation.getCount());
+			}
+		}
+		type(out, prefix + "errors_total", "counter", "Failed " + what + " by error code.");
+		for (Metrics metrics : all) {
+			for (OperationMetrics operation : metrics.of(fuse)) {
+				for (Map.Entry<String, Long> code : operation.getErrorCodes().entrySet()) {
+					sample(out, prefix + "errors_total", metrics.labels(label, operation.getName(), "code", code.getKey()), code.getValue());
+				}
+			}
+		}
+		type(out, prefix + "in_flight", "gauge", "Running " + what + ".");
+		for (Metrics metrics : all) {
+			for (OperationMetrics operation : metrics.of(fuse)) {
+				sample(out, prefix + "in_flight", metrics.labels(label, operation.getName()), operation.getInFlight());
+			}
+		}
+		type(out, prefix + "bytes_total", "counter", "Bytes transferred by " + what + ".");
+		for (Metrics metrics : all) {
+			for (OperationMetrics operation : metrics.of(fuse)) {
+				sample(out, prefix + "bytes_total", metrics.labels(label, operation.getName()), operation.getBytes());
+			}
+		}
+		type(out, prefix + "latency_seconds", "summary", "Latency of " + what + ".");
+		for (Metrics metrics : all) {
+			for (OperationMetrics operation : metrics.of(fuse)) {
+				final LatencyHistogram latency = operation.getLatency();
+				for (double quantile : QUANTILES) {
+					sample(out, prefix + "latency_seconds", metrics.labels(label, operation.getName(), "quantile", Double.toString(quantile)),
+							seconds(latency.getValueAtPercentile(quantile * 100)));
+				}
+				sample(out, prefix + "latency_seconds_sum", metrics.labels(label, operation.getName()), seconds(latency.getSum()));
+				sample(out, prefix + "latency_seconds_count", metrics.labels(label, operation.getName()), latency.getCount());
+			}
+		}
+	}
+
+	private Collection<OperationMetrics> of(final boolean fuse) {
+		return fuse ? operations.values() : requests.values();
+	}
+
+	private String labels(final String... namesAndValues) {
+		final StringBuilder labels = new StringBuilder("{bucket=\"").append(escape(bucketName)).append('"');
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			labels.append(',').append(namesAndValues[i]).append("=\"").append(escape(namesAndValues[i + 1])).append('"');
+		}
+		return labels.append('}').toString();
+	}
+
+	private static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static double seconds(final long micros) {
+		return (double) micros / TimeUnit.SECONDS.toMicros(1);
+	}
+
+	private static void type(final Writer out, final String name, final String type, final String help) throws IOException {
+		out.write("# HELP " + name + " " + help + "\n");
+		out.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	private static void sample(final Writer out, final String name, final String labels, final long value) throws IOException {
+		out.write(name + labels + " " + value + "\n");
+	}
+
+	private static void sample(final Writer out, final String name, final String labels, final double value) throws IOException {
+		out.write(name + labels + " " + value + "\n");
+	}
+}
@@ -0,0 +1,71 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of all mounted buckets to Prometheus at
+ * <code>/metrics</code>.
+ */
+public class MetricsServer implements Closeable {
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param address
+	 *            address to listen at, e.g. the loopback interface
+	 * @param metrics
+	 *            the metrics of the buckets mounted at the time of a scrape
+	 * @throws IOException
+	 *             If the address can not be bound.
+	 */
+	public MetricsServer(InetSocketAddress address, final Supplier<? extends Iterable<Metrics>> metrics) throws IOException {
+		this.server = HttpServer.create(address, 0);
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("metrics-server-%d").build());
+		server.setExecutor(executor);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					final StringWriter text = new StringWriter();
+					Metrics.writePrometheus(metrics.get(), text);
+					final byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+					exchange.sendResponseHeaders(200, body.length);
+					try (OutputStream out = exchange.getResponseBody()) {
+						out.write(body);
+					}
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,139 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of a single kind of operation. Every operation is
+ * started and then either succeeds or fails:
+ *
+ * <pre>
+ * final long start = metrics.start();
+ * ...
+ * metrics.succeeded(start, bytes);
+ * </pre>
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+	private final String name;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final ConcurrentMap<String, AtomicLong> errorCodes = new ConcurrentHashMap<>();
+
+	public OperationMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the start of the operation to pass when it finishes.
+	 */
+	public long start() {
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param transferred
+	 *            bytes read or written by the operation
+	 */
+	public void succeeded(long start, long transferred) {
+		finish(start);
+		if (transferred > 0) {
+			bytes.addAndGet(transferred);
+		}
+	}
+
+	public void failed(long start, String errorCode) {
+		finish(start);
+		errors.incrementAndGet();
+		AtomicLong counter = errorCodes.get(errorCode);
+		if (counter == null) {
+			final AtomicLong created = new AtomicLong();
+			counter = errorCodes.putIfAbsent(errorCode, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	private void finish(final long start) {
+		latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+		inFlight.decrementAndGet();
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getCount() {
+		return latency.getCount();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public Map<String, Long> getErrorCodes() {
+		final Map<String, Long> codes = new TreeMap<>();
+		for (Map.Entry<String, AtomicLong> entry : errorCodes.entrySet()) {
+			codes.put(entry.getKey(), entry.getValue().get());
+		}
+		return codes;
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		return latency.getMean();
+	}
+
+	@Override
+	public long getMedianMicros() {
+		return latency.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getPercentile99Micros() {
+		return latency.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getPercentile999Micros() {
+		return latency.getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public long getMaxMicros() {
+		return latency.getMax();
+	}
+}
@@ -0,0 +1,38 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+import java.util.Map;
+
+/**
+ * Counters and latency percentiles of a FUSE operation or an OSS request as
+ * seen through JMX.
+ */
+public interface OperationMetricsMXBean {
+
+	String getName();
+
+	/**
+	 * @return number of finished operations, failed ones included.
+	 */
+	long getCount();
+
+	long getErrors();
+
+	/**
+	 * @return number of failed operations by their error code.
+	 */
+	Map<String, Long> getErrorCodes();
+
+	int getInFlight();
+
+	long getBytes();
+
+	double getMeanMicros();
+
+	long getMedianMicros();
+
+	long getPercentile99Micros();
+
+	long getPercentile999Micros();
+
+	long getMaxMicros();
+}
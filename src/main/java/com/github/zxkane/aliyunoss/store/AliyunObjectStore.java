@@ -0,0 +1,130 @@
+package com.github.zxkane.aliyunoss.store;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.DeleteObjectsRequest;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+import com.aliyun.oss.model.UploadPartCopyRequest;
+import com.aliyun.oss.model.UploadPartRequest;
+
+/**
+ * A bucket of Aliyun OSS accessed by the Aliyun SDK. The client is owned by
+ * the caller.
+ */
+public class AliyunObjectStore implements ObjectStore {
+
+	private final OSSClient ossClient;
+
+	private final String bucketName;
+
+	public AliyunObjectStore(OSSClient ossClient, String bucketName) {
+		this.ossClient = ossClient;
+		this.bucketName = bucketName;
+	}
+
+	@Override
+	public String getBucketName() {
+		return bucketName;
+	}
+
+	@Override
+	public ObjectMetadata headObject(String key) {
+		return ossClient.getObjectMetadata(bucketName, key);
+	}
+
+	@Override
+	public OSSObject getObject(String key, long start, long end) {
+		final GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, key);
+		getObjectRequest.setRange(start, end - 1);
+		return ossClient.getObject(getObjectRequest);
+	}
+
+	@Override
+	public ObjectListing listObjects(String prefix, String delimiter, String marker, int maxKeys) {
+		final ListObjectsRequest listObjectsRequest = new ListObjectsRequest(bucketName);
+		listObjectsRequest.setPrefix(prefix);
+		listObjectsRequest.setDelimiter(delimiter);
+		listObjectsRequest.setMaxKeys(maxKeys);
+		if (marker != null && !marker.isEmpty()) {
+			listObjectsRequest.setMarker(marker);
+		}
+		return ossClient.listObjects(listObjectsRequest);
+	}
+
+	@Override
+	public String putObject(String key, byte[] content, int offset, int length) {
+		final ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(length);
+		return ossClient.putObject(bucketName, key, new ByteArrayInputStream(content, offset, length), metadata).getETag();
+	}
+
+	@Override
+	public String initiateMultipartUpload(String key) {
+		return ossClient.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key)).getUploadId();
+	}
+
+	@Override
+	public PartETag uploadPart(String key, String uploadId, int partNumber, byte[] content, int offset, int length) {
+		final UploadPartRequest request = new UploadPartRequest();
+		request.setBucketName(bucketName);
+		request.setKey(key);
+		request.setUploadId(uploadId);
+		request.setPartNumber(partNumber);
+		request.setPartSize(length);
+		request.setInputStream(new ByteArrayInputStream(content, offset, length));
+		return ossClient.uploadPart(request).getPartETag();
+	}
+
+	@Override
+	public PartETag uploadPartCopy(String sourceKey, String key, String uploadId, int partNumber, long start, long length) {
+		final UploadPartCopyRequest request = new UploadPartCopyRequest(bucketName, sourceKey, bucketName, key);
+		request.setUploadId(uploadId);
+		request.setPartNumber(partNumber);
+		request.setBeginIndex(start);
+		request.setPartSize(length);
+		return ossClient.uploadPartCopy(request).getPartETag();
+	}
+
+	@Override
+	public String completeMultipartUpload(String key, String uploadId, List<PartETag> partETags) {
+		return ossClient.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags)).getETag();
+	}
+
+	@Override
+	public void abortMultipartUpload(String key, String uploadId) {
+		ossClient.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+	}
+
+	@Override
+	public String copyObject(String sourceKey, String destinationKey) {
+		return ossClient.copyObject(bucketName, sourceKey, bucketName, destinationKey).getETag();
+	}
+
+	@Override
+	public void deleteObject(String key) {
+		ossClient.deleteObject(bucketName, key);
+	}
+
+	@Override
+	public void deleteObjects(List<String> keys) {
+		final DeleteObjectsRequest request = new DeleteObjectsRequest(bucketName);
+		request.setKeys(keys);
+		request.setQuiet(true);
+		ossClient.deleteObjects(request);
+	}
+
+	@Override
+	public void close() {
+		ossClient.shutdown();
+	}
+}
@@ -0,0 +1,378 @@
+package com.github.zxkane.aliyunoss.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+import com.google.common.hash.Hashing;
+
+/**
+ * A bucket held in memory which answers like OSS, for tests and benchmarks of
+ * the filesystem without network access.
+ *
+ * The behavior of a remote bucket can be simulated: every request waits for
+ * the latency, content sent or received waits for the bandwidth of a single
+ * connection and a share of the requests fails with
+ * {@link OSSErrorCode#INTERNAL_ERROR}. Server side copies do not wait for the
+ * bandwidth.
+ */
+public class InMemoryObjectStore implements ObjectStore {
+
+	private static final String CONTENT_RANGE = "Content-Range";
+
+	private static final String ETAG = "ETag";
+
+	private final String bucketName;
+
+	private final ConcurrentNavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+
+	private final ConcurrentMap<String, Upload> uploads = new ConcurrentHashMap<>();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private volatile long latencyMicros;
+
+	private volatile long bandwidth;
+
+	private volatile double errorRate;
+
+	public InMemoryObjectStore(String bucketName) {
+		this.bucketName = bucketName;
+	}
+
+	/**
+	 * @param latencyMicros
+	 *            microseconds every request waits before it is answered
+	 */
+	public void setLatencyMicros(long latencyMicros) {
+		this.latencyMicros = latencyMicros;
+	}
+
+	/**
+	 * @param bandwidth
+	 *            bytes per second sent or received by a single request, 0
+	 *            for no limit
+	 */
+	public void setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * @param errorRate
+	 *            share of the requests failing, between 0 and 1
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * @return number of requests received so far.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of objects in the bucket.
+	 */
+	public int size() {
+		return objects.size();
+	}
+
+	/**
+	 * @return number of multipart uploads neither completed nor aborted.
+	 */
+	public int getOpenUploads() {
+		return uploads.size();
+	}
+
+	/**
+	 * Store the object without simulating a request, e.g. to prepare the
+	 * bucket of a test.
+	 */
+	public void put(String key, byte[] content) {
+		objects.put(key, new StoredObject(content));
+	}
+
+	@Override
+	public String getBucketName() {
+		return bucketName;
+	}
+
+	@Override
+	public ObjectMetadata headObject(String key) {
+		request(0);
+		return metadata(find(key));
+	}
+
+	@Override
+	public OSSObject getObject(String key, long start, long end) {
+		request(0);
+		final StoredObject object = find(key);
+		final ObjectMetadata metadata = metadata(object);
+		final byte[] content = object.content;
+		final OSSObject result = new OSSObject();
+		result.setKey(key);
+		result.setObjectMetadata(metadata);
+		if (content.length == 0 && start == 0) {
+			result.setObjectContent(new ByteArrayInputStream(content));
+			return result;
+		}
+		if (start >= content.length) {
+			throw error(OSSErrorCode.INVALID_RANGE, "Range " + start + "-" + (end - 1) + " is beyond the end of object " + key);
+		}
+		final int last = (int) Math.min(end, content.length) - 1;
+		transfer(last + 1 - start);
+		metadata.setHeader(CONTENT_RANGE, "bytes " + start + "-" + last + "/" + content.length);
+		metadata.setContentLength(last + 1 - start);
+		result.setObjectContent(new ByteArrayInputStream(content, (int) start, last + 1 - (int) start));
+		return result;
+	}
+
+	@Override
+	public ObjectListing listObjects(String prefix, String delimiter, String marker, int maxKeys) {
+		request(0);
+		final String from = prefix == null ? "" : prefix;
+		final ObjectListing listing = new ObjectListing();
+		listing.setPrefix(from);
+		listing.setDelimiter(delimiter);
+		listing.setMarker(marker);
+		listing.setMaxKeys(maxKeys);
+
+		Map.Entry<String, StoredObject> entry;
+		if (marker == null || marker.compareTo(from) < 0) {
+			entry = objects.ceilingEntry(from);
+		} else if (delimiter != null && marker.startsWith(from) && marker.endsWith(delimiter)
+				&& marker.indexOf(delimiter, from.length()) == marker.length() - delimiter.length()) {
+			// the listing continues after the group of the marker
+			entry = objects.higherEntry(marker + Character.MAX_VALUE);
+		} else {
+			entry = objects.higherEntry(marker);
+		}
+
+		String last = null;
+		int entries = 0;
+		while (entry != null && entry.getKey().startsWith(from)) {
+			if (entries == maxKeys) {
+				listing.setTruncated(true);
+				listing.setNextMarker(last);
+				break;
+			}
+			final String key = entry.getKey();
+			final int group = delimiter == null || delimiter.isEmpty() ? -1 : key.indexOf(delimiter, from.length());
+			if (group >= 0) {
+				last = key.substring(0, group + delimiter.length());
+				listing.addCommonPrefix(last);
+				entry = objects.higherEntry(last + Character.MAX_VALUE);
+			} else {
+				last = key;
+				final OSSObjectSummary summary = new OSSObjectSummary();
+				summary.setKey(key);
+				summary.setSize(entry.getValue().content.length);
+				summary.setETag(entry.getValue().etag);
+				summary.setLastModified(new Date(entry.getValue().lastModified));
+				listing.addObjectSummary(summary);
+				entry = objects.higherEntry(key);
+			}
+			entries++;
+		}
+		return listing;
+	}
+
+	@Override
+	public String putObject(String key, byte[] content, int offset, int length) {
+		request(length);
+		final StoredObject object = new StoredObject(Arrays.copyOfRange(content, offset, offset + length));
+		objects.put(key, object);
+		return object.etag;
+	}
+
+	@Override
+	public String initiateMultipartUpload(String key) {
+		request(0);
+		final String uploadId = UUID.randomUUID().toString();
+		uploads.put(uploadId, new Upload(key));
+		return uploadId;
+	}
+
+	@Override
+	public PartETag uploadPart(String key, String uploadId, int partNumber, byte[] content, int offset, int length) {
+		request(length);
+		final byte[] part = Arrays.copyOfRange(content, offset, offset + length);
+		findUpload(key, uploadId).parts.put(partNumber, part);
+		return new PartETag(partNumber, etag(part));
+	}
+
+	@Override
+	public PartETag uploadPartCopy(String sourceKey, String key, String uploadId, int partNumber, long start, long length) {
+		request(0);
+		final byte[] content = find(sourceKey).content;
+		if (start < 0 || start + length > content.length) {
+			throw error(OSSErrorCode.INVALID_RANGE, "Range " + start + "+" + length + " is beyond the end of object " + sourceKey);
+		}
+		final byte[] part = Arrays.copyOfRange(content, (int) start, (int) (start + length));
+		findUpload(key, uploadId).parts.put(partNumber, part);
+		return new PartETag(partNumber, etag(part));
+	}
+
+	@Override
+	public String completeMultipartUpload(String key, String uploadId, List<PartETag> partETags) {
+		request(0);
+		final Upload upload = findUpload(key, uploadId);
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for (PartETag partETag : partETags) {
+			final byte[] part = upload.parts.get(partETag.getPartNumber());
+			if (part == null || !etag(part).equals(partETag.getETag())) {
+				throw error("InvalidPart", "Part " + partETag.getPartNumber() + " of upload " + uploadId + " was not uploaded");
+			}
+			content.write(part, 0, part.length);
+		}
+		uploads.remove(uploadId);
+		final StoredObject object = new StoredObject(content.toByteArray());
+		objects.put(key, object);
+		return object.etag;
+	}
+
+	@Override
+	public void abortMultipartUpload(String key, String uploadId) {
+		request(0);
+		findUpload(key, uploadId);
+		uploads.remove(uploadId);
+	}
+
+	@Override
+	public String copyObject(String sourceKey, String destinationKey) {
+		request(0);
+		final StoredObject object = new StoredObject(find(sourceKey).content);
+		objects.put(destinationKey, object);
+		return object.etag;
+	}
+
+	@Override
+	public void deleteObject(String key) {
+		request(0);
+		objects.remove(key);
+	}
+
+	@Override
+	public void deleteObjects(List<String> keys) {
+		request(0);
+		if (keys.size() > 1000) {
+			throw error(OSSErrorCode.INVALID_ARGUMENT, "More than 1000 keys to delete");
+		}
+		for (String key : keys) {
+			objects.remove(key);
+		}
+	}
+
+	/**
+	 * The objects are kept, so the store can be mounted again.
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Simulate the latency, the transfer of the request body and the errors
+	 * of a request.
+	 */
+	private void request(final long bodyLength) {
+		requests.incrementAndGet();
+		pause(latencyMicros);
+		transfer(bodyLength);
+		final double rate = errorRate;
+		if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+			throw error(OSSErrorCode.INTERNAL_ERROR, "Injected error");
+		}
+	}
+
+	private void transfer(final long length) {
+		final long limit = bandwidth;
+		if (limit > 0 && length > 0) {
+			pause(length * 1000000 / limit);
+		}
+	}
+
+	private static void pause(final long micros) {
+		if (micros <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ClientException("Interrupted while waiting for the simulated bucket", e);
+		}
+	}
+
+	private StoredObject find(final String key) {
+		final StoredObject object = objects.get(key);
+		if (object == null) {
+			throw error(OSSErrorCode.NO_SUCH_KEY, "Object " + key + " does not exist");
+		}
+		return object;
+	}
+
+	private Upload findUpload(final String key, final String uploadId) {
+		final Upload upload = uploads.get(uploadId);
+		if (upload == null || !upload.key.equals(key)) {
+			throw error(OSSErrorCode.NO_SUCH_UPLOAD, "Upload " + uploadId + " of object " + key + " does not exist");
+		}
+		return upload;
+	}
+
+	private OSSException error(final String errorCode, final String message) {
+		return new OSSException(message, errorCode, null, null, null, null, null);
+	}
+
+	private static ObjectMetadata metadata(final StoredObject object) {
+		final ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(object.content.length);
+		metadata.setLastModified(new Date(object.lastModified));
+		metadata.setHeader(ETAG, object.etag);
+		return metadata;
+	}
+
+	private static String etag(final byte[] content) {
+		return Hashing.md5().hashBytes(content).toString().toUpperCase();
+	}
+
+	private static final class StoredObject {
+		private final byte[] content;
+		private final String etag;
+		private final long lastModified;
+
+		StoredObject(byte[] content) {
+			this.content = content;
+			this.etag = etag(content);
+			this.lastModified = System.currentTimeMillis();
+		}
+	}
+
+	private static final class Upload {
+		private final String key;
+		private final ConcurrentMap<Integer, byte[]> parts = new ConcurrentHashMap<>();
+
+		Upload(String key) {
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package com.github.zxkane.aliyunoss.store;
+
+import java.util.List;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.ServiceException;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+import com.github.zxkane.aliyunoss.metrics.Metrics;
+import com.github.zxkane.aliyunoss.metrics.OperationMetrics;
+
+/**
+ * Records the latency, the transferred bytes and the error codes of every
+ * request to another store, by the name of the request in the API of OSS.
+ * The latency of GetObject ends with the headers of the response, reading
+ * the content is up to the caller.
+ */
+public class InstrumentedObjectStore implements ObjectStore {
+
+	private final ObjectStore store;
+
+	private final OperationMetrics head;
+
+	private final OperationMetrics get;
+
+	private final OperationMetrics list;
+
+	private final OperationMetrics put;
+
+	private final OperationMetrics initiateUpload;
+
+	private final OperationMetrics uploadPart;
+
+	private final OperationMetrics uploadPartCopy;
+
+	private final OperationMetrics completeUpload;
+
+	private final OperationMetrics abortUpload;
+
+	private final OperationMetrics copy;
+
+	private final OperationMetrics delete;
+
+	private final OperationMetrics deleteMultiple;
+
+	public InstrumentedObjectStore(ObjectStore store, Metrics metrics) {
+		this.store = store;
+		this.head = metrics.request("HeadObject");
+		this.get = metrics.request("GetObject");
+		this.list = metrics.request("ListObjects");
+		this.put = metrics.request("PutObject");
+		this.initiateUpload = metrics.request("InitiateMultipartUpload");
+		this.uploadPart = metrics.request("UploadPart");
+		this.uploadPartCopy = metrics.request("UploadPartCopy");
+		this.completeUpload = metrics.request("CompleteMultipartUpload");
+		this.abortUpload = metrics.request("AbortMultipartUpload");
+		this.copy = metrics.request("CopyObject");
+		this.delete = metrics.request("DeleteObject");
+		this.deleteMultiple = metrics.request("DeleteMultipleObjects");
+	}
+
+	@Override
+	public String getBucketName() {
+		return store.getBucketName();
+	}
+
+	@Override
+	public ObjectMetadata headObject(String key) {
+		final long start = head.start();
+		try {
+			final ObjectMetadata metadata = store.headObject(key);
+			head.succeeded(start, 0);
+			return metadata;
+		} catch (RuntimeException e) {
+			head.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public OSSObject getObject(String key, long start, long end) {
+		final long started = get.start();
+		try {
+			final OSSObject object = store.getObject(key, start, end);
+			get.succeeded(started, object.getObjectMetadata().getContentLength());
+			return object;
+		} catch (RuntimeException e) {
+			get.failed(started, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public ObjectListing listObjects(String prefix, String delimiter, String marker, int maxKeys) {
+		final long start = list.start();
+		try {
+			final ObjectListing listing = store.listObjects(prefix, delimiter, marker, maxKeys);
+			list.succeeded(start, 0);
+			return listing;
+		} catch (RuntimeException e) {
+			list.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public String putObject(String key, byte[] content, int offset, int length) {
+		final long start = put.start();
+		try {
+			final String etag = store.putObject(key, content, offset, length);
+			put.succeeded(start, length);
+			return etag;
+		} catch (RuntimeException e) {
+			put.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public String initiateMultipartUpload(String key) {
+		final long start = initiateUpload.start();
+		try {
+			final String uploadId = store.initiateMultipartUpload(key);
+			initiateUpload.succeeded(start, 0);
+			return uploadId;
+		} catch (RuntimeException e) {
+			initiateUpload.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public PartETag uploadPart(String key, String uploadId, int partNumber, byte[] content, int offset, int length) {
+		final long start = uploadPart.start();
+		try {
+			final PartETag partETag = store.uploadPart(key, uploadId, partNumber, content, offset, length);
+			uploadPart.succeeded(start, length);
+			return partETag;
+		} catch (RuntimeException e) {
+			uploadPart.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public PartETag uploadPartCopy(String sourceKey, String key, String uploadId, int partNumber, long start, long length) {
+		final long started = uploadPartCopy.start();
+		try {
+			final PartETag partETag = store.uploadPartCopy(sourceKey, key, uploadId, partNumber, start, length);
+			// the content stays on the server
+			uploadPartCopy.succeeded(started, 0);
+			return partETag;
+		} catch (RuntimeException e) {
+			uploadPartCopy.failed(started, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public String completeMultipartUpload(String key, String uploadId, List<PartETag> partETags) {
+		final long start = completeUpload.start();
+		try {
+			final String etag = store.completeMultipartUpload(key, uploadId, partETags);
+			completeUpload.succeeded(start, 0);
+			return etag;
+		} catch (RuntimeException e) {
+			completeUpload.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public void abortMultipartUpload(String key, String uploadId) {
+		final long start = abortUpload.start();
+		try {
+			store.abortMultipartUpload(key, uploadId);
+			abortUpload.succeeded(start, 0);
+		} catch (RuntimeException e) {
+			abortUpload.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public String copyObject(String sourceKey, String destinationKey) {
+		final long start = copy.start();
+		try {
+			final String etag = store.copyObject(sourceKey, destinationKey);
+			copy.succeeded(start, 0);
+			return etag;
+		} catch (RuntimeException e) {
+			copy.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public void deleteObject(String key) {
+		final long start = delete.start();
+		try {
+			store.deleteObject(key);
+			delete.succeeded(start, 0);
+		} catch (RuntimeException e) {
+			delete.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public void deleteObjects(List<String> keys) {
+		final long start = deleteMultiple.start();
+		try {
+			store.deleteObjects(keys);
+			deleteMultiple.succeeded(start, 0);
+		} catch (RuntimeException e) {
+			deleteMultiple.failed(start, errorCode(e));
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() {
+		store.close();
+	}
+
+	private static String errorCode(final RuntimeException e) {
+		String code = null;
+		if (e instanceof ServiceException) {
+			code = ((ServiceException) e).getErrorCode();
+		} else if (e instanceof ClientException) {
+			code = ((ClientException) e).getErrorCode();
+		}
+		return code != null ? code : e.getClass().getSimpleName();
+	}
+}
@@ -0,0 +1,92 @@
+package com.github.zxkane.aliyunoss.store;
+
+import java.util.List;
+
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+
+/**
+ * The requests the filesystem sends to the bucket it mounts. Every call is a
+ * single request against a single bucket.
+ *
+ * Results use the model classes of the Aliyun SDK. Failures are thrown as
+ * {@link com.aliyun.oss.OSSException} with the error codes of OSS, e.g.
+ * {@link com.aliyun.oss.OSSErrorCode#NO_SUCH_KEY}, or as
+ * {@link com.aliyun.oss.ClientException} if no answer was received.
+ */
+public interface ObjectStore {
+
+	/**
+	 * @return name of the bucket, e.g. for names of threads and directories.
+	 */
+	String getBucketName();
+
+	/**
+	 * @return content length, last modification and ETag of the object.
+	 */
+	ObjectMetadata headObject(String key);
+
+	/**
+	 * Open the content of the object in range [start, end). The metadata of
+	 * the result carries the Content-Range header of the response, if OSS
+	 * answers with the whole object instead it has none.
+	 */
+	OSSObject getObject(String key, long start, long end);
+
+	/**
+	 * @param delimiter
+	 *            the delimiter to group keys by or <code>null</code>
+	 * @param marker
+	 *            the key or group the listing continues after or
+	 *            <code>null</code> from the start
+	 * @return a single page of the listing
+	 */
+	ObjectListing listObjects(String prefix, String delimiter, String marker, int maxKeys);
+
+	/**
+	 * @return ETag of the new object.
+	 */
+	String putObject(String key, byte[] content, int offset, int length);
+
+	/**
+	 * @return the upload id.
+	 */
+	String initiateMultipartUpload(String key);
+
+	PartETag uploadPart(String key, String uploadId, int partNumber, byte[] content, int offset, int length);
+
+	/**
+	 * Upload the range [start, start + length) of another object as a part
+	 * without passing the content through the client.
+	 */
+	PartETag uploadPartCopy(String sourceKey, String key, String uploadId, int partNumber, long start, long length);
+
+	/**
+	 * @param partETags
+	 *            the uploaded parts sorted by their number
+	 * @return ETag of the new object.
+	 */
+	String completeMultipartUpload(String key, String uploadId, List<PartETag> partETags);
+
+	void abortMultipartUpload(String key, String uploadId);
+
+	/**
+	 * @return ETag of the copy.
+	 */
+	String copyObject(String sourceKey, String destinationKey);
+
+	void deleteObject(String key);
+
+	/**
+	 * Delete up to 1000 objects with a single request, missing objects are
+	 * ignored.
+	 */
+	void deleteObjects(List<String> keys);
+
+	/**
+	 * Release the connections of the store, it is not used afterwards.
+	 */
+	void close();
+}
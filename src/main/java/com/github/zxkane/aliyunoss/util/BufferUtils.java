@@ -0,0 +1,74 @@
+package com.github.zxkane.aliyunoss.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Moves object content from the streams of the OSS SDK into buffers without
+ * allocating on every call.
+ */
+public class BufferUtils {
+
+	static final int TRANSFER_SIZE = 64 * 1024;
+
+	/**
+	 * Staging array of every thread for buffers without an accessible array,
+	 * e.g. the direct buffers handed over by FUSE.
+	 */
+	private static final ThreadLocal<byte[]> TRANSFER_BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[TRANSFER_SIZE];
+		}
+	};
+
+	/**
+	 * Read up to <code>length</code> bytes from the stream into the buffer
+	 * starting at its position. Heap buffers are read into directly, direct
+	 * buffers through a staging array of the calling thread.
+	 *
+	 * @return the number of bytes put into the buffer, less than
+	 *         <code>length</code> only if the stream ended before
+	 */
+	public static int transfer(final InputStream input, final ByteBuffer buffer, final long length) throws IOException {
+		final int total = (int) Math.min(length, buffer.remaining());
+		int read = 0;
+		if (buffer.hasArray()) {
+			final byte[] array = buffer.array();
+			final int base = buffer.arrayOffset() + buffer.position();
+			int bytesRead;
+			while (read < total && (bytesRead = input.read(array, base + read, total - read)) > -1) {
+				read += bytesRead;
+			}
+			buffer.position(buffer.position() + read);
+			return read;
+		}
+
+		final byte[] transfer = TRANSFER_BUFFER.get();
+		int bytesRead;
+		while (read < total && (bytesRead = input.read(transfer, 0, Math.min(transfer.length, total - read))) > -1) {
+			buffer.put(transfer, 0, bytesRead);
+			read += bytesRead;
+		}
+		return read;
+	}
+
+	/**
+	 * Read exactly <code>len</code> bytes from the stream into the array.
+	 *
+	 * @throws EOFException
+	 *             If the stream ends before.
+	 */
+	public static void readFully(final InputStream input, final byte[] dest, int off, int len) throws IOException {
+		while (len > 0) {
+			final int bytesRead = input.read(dest, off, len);
+			if (bytesRead < 0) {
+				throw new EOFException("Stream ended " + len + " bytes before the requested range");
+			}
+			off += bytesRead;
+			len -= bytesRead;
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.github.zxkane.aliyunoss.util;
 import java.io.File;
 import java.io.IOException;
 
+import net.fusejna.ErrorCodes;
 import net.fusejna.FuseJna;
 
 public class FuseUtils {
@@ -23,4 +24,42 @@ public class FuseUtils {
 		// if mountpoint exists, try to unmount it before re-using it
 		FuseJna.unmount(mountPoint);
 	}
+
+	/**
+	 * @return the symbolic name of an error code returned by the filesystem,
+	 *         e.g. ENOENT, or its number if it returns no such error.
+	 */
+	public static String errorName(int errno) {
+		if (errno == ErrorCodes.ENOENT()) {
+			return "ENOENT";
+		}
+		if (errno == ErrorCodes.EIO()) {
+			return "EIO";
+		}
+		if (errno == ErrorCodes.EAGAIN()) {
+			return "EAGAIN";
+		}
+		if (errno == ErrorCodes.EINTR()) {
+			return "EINTR";
+		}
+		if (errno == ErrorCodes.EROFS()) {
+			return "EROFS";
+		}
+		if (errno == ErrorCodes.ENOTSUP()) {
+			return "ENOTSUP";
+		}
+		if (errno == ErrorCodes.ENOTEMPTY()) {
+			return "ENOTEMPTY";
+		}
+		if (errno == ErrorCodes.EBUSY()) {
+			return "EBUSY";
+		}
+		if (errno == ErrorCodes.EBADF()) {
+			return "EBADF";
+		}
+		if (errno == ErrorCodes.EISDIR()) {
+			return "EISDIR";
+		}
+		return String.valueOf(errno);
+	}
 }
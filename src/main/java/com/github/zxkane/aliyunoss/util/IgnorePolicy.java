@@ -0,0 +1,85 @@
+package com.github.zxkane.aliyunoss.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Paths which are answered as missing without asking OSS, e.g. the files
+ * shells, file explorers and build tools look for in every directory.
+ *
+ * A pattern is a glob unless it starts with <code>regex:</code>. Globs
+ * starting with '/' match the whole path, other globs match the name of the
+ * file in any directory. In globs '*' and '?' match within a name, '**'
+ * matches across directories. Regular expressions match the whole path.
+ */
+public class IgnorePolicy {
+
+	private static final String REGEX = "regex:";
+
+	/**
+	 * Probes of shells and file explorers on the root of the mount and
+	 * AppleDouble files.
+	 */
+	public static final List<String> DEFAULT_PATTERNS = Collections.unmodifiableList(
+			Arrays.asList("/._.", "/.git", "/HEAD", "/.DS_Store", "/.hidden", "/.Trash", "/.Trash-1000", "._*"));
+
+	private final List<Pattern> pathPatterns = new ArrayList<>();
+
+	private final List<Pattern> namePatterns = new ArrayList<>();
+
+	public IgnorePolicy(List<String> patterns) {
+		for (String pattern : patterns) {
+			if (pattern.startsWith(REGEX)) {
+				pathPatterns.add(Pattern.compile(pattern.substring(REGEX.length())));
+			} else if (pattern.startsWith("/")) {
+				pathPatterns.add(Pattern.compile(globToRegex(pattern)));
+			} else if (!pattern.isEmpty()) {
+				namePatterns.add(Pattern.compile(globToRegex(pattern)));
+			}
+		}
+	}
+
+	/**
+	 * @param path
+	 *            the path starting with '/'
+	 */
+	public boolean isIgnored(String path) {
+		for (Pattern pattern : pathPatterns) {
+			if (pattern.matcher(path).matches()) {
+				return true;
+			}
+		}
+		if (!namePatterns.isEmpty()) {
+			final String name = path.substring(path.lastIndexOf('/') + 1);
+			for (Pattern pattern : namePatterns) {
+				if (pattern.matcher(name).matches()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	static String globToRegex(final String glob) {
+		final StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+				regex.append(".*");
+				i++;
+			} else if (c == '*') {
+				regex.append("[^/]*");
+			} else if (c == '?') {
+				regex.append("[^/]");
+			} else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+				regex.append('\\').append(c);
+			} else {
+				regex.append(c);
+			}
+		}
+		return regex.toString();
+	}
+}
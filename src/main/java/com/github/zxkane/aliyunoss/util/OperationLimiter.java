@@ -0,0 +1,127 @@
+package com.github.zxkane.aliyunoss.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounds the number of operations of one kind which run against OSS at the
+ * same time. Callers beyond the limit wait until a permit is free. Failing
+ * them instead would not help: the kernel does not retry a FUSE request that
+ * fails with EAGAIN, the error reaches stat(2), read(2) or readdir in the
+ * application. The number of waiting callers is bounded by the kernel, which
+ * keeps at most max_background asynchronous requests pending and slows down
+ * writers beyond congestion_threshold, and by the threads of the
+ * applications issuing synchronous requests.
+ */
+public class OperationLimiter {
+
+	private final String name;
+
+	private final ResizableSemaphore permits;
+
+	private volatile int concurrency;
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/**
+	 * @param concurrency
+	 *            maximum number of operations running at the same time, 0
+	 *            removes the limit
+	 */
+	public OperationLimiter(String name, int concurrency) {
+		this.name = name;
+		this.permits = concurrency > 0 ? new ResizableSemaphore(concurrency) : null;
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Take a permit, waiting until one is free if the limit is reached. Every
+	 * successful acquire must be followed by a {@link #release()}.
+	 *
+	 * @return <code>false</code> if the thread was interrupted while waiting.
+	 */
+	public boolean acquire() {
+		if (permits == null || permits.tryAcquire()) {
+			return true;
+		}
+		queued.incrementAndGet();
+		try {
+			permits.acquire();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			queued.decrementAndGet();
+		}
+	}
+
+	public void release() {
+		if (permits != null) {
+			permits.release();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Change the limit of a running limiter. Operations running beyond a
+	 * lowered limit finish, new ones wait until the running ones are below
+	 * it.
+	 *
+	 * @throws IllegalStateException
+	 *             If the limiter was created without a limit.
+	 */
+	public synchronized void setConcurrency(int concurrency) {
+		Preconditions.checkArgument(concurrency > 0, "Concurrency must be positive but was %s.", concurrency);
+		if (permits == null) {
+			throw new IllegalStateException("The " + name + " operations are not limited.");
+		}
+		final int delta = concurrency - this.concurrency;
+		if (delta > 0) {
+			permits.release(delta);
+		} else if (delta < 0) {
+			permits.reducePermits(-delta);
+		}
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * @return maximum number of operations running at the same time, 0 if
+	 *         they are not limited.
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * @return number of operations holding a permit.
+	 */
+	public int getRunning() {
+		return permits == null ? 0 : Math.max(0, concurrency - permits.availablePermits());
+	}
+
+	/**
+	 * @return number of operations waiting for a permit.
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	private static final class ResizableSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		ResizableSemaphore(int permits) {
+			super(permits, true);
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+}
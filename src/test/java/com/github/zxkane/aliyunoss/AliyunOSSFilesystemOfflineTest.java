@@ -0,0 +1,409 @@
+package com.github.zxkane.aliyunoss;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.OSSException;
+import com.github.zxkane.aliyunoss.metrics.Metrics;
+import com.github.zxkane.aliyunoss.metrics.OperationMetrics;
+import com.github.zxkane.aliyunoss.store.InMemoryObjectStore;
+
+import net.fusejna.DirectoryFiller;
+import net.fusejna.ErrorCodes;
+import net.fusejna.FileInfoWrapperFactory;
+import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructFuseFileInfo.FileInfoWrapper;
+import net.fusejna.StructStat.StatWrapper;
+import net.fusejna.types.TypeMode.NodeType;
+
+/**
+ * Runs the filesystem against a bucket held in memory, no credentials needed.
+ */
+public class AliyunOSSFilesystemOfflineTest {
+
+	private InMemoryObjectStore store;
+
+	private AliyunOSSFilesystem fs;
+
+	@Before
+	public void setUp() throws IOException {
+		store = new InMemoryObjectStore("bucket");
+		store.put("folder/", new byte[0]);
+		store.put("folder/small", content(400));
+		store.put("folder/large", content(3 * 1024 * 1024));
+		store.put("virtual/file", content(10));
+		store.put("top", content(100));
+		MountConfig config = new MountConfig();
+		config.setReadOnly(false);
+		config.setDeleteDelay(0);
+		fs = new AliyunOSSFilesystem(store, config, false);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		fs.close();
+	}
+
+	@Test
+	public void testGetAttr() {
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/folder", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/virtual", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/folder/large", stat));
+		assertEquals(NodeType.FILE, stat.type());
+		assertEquals(3 * 1024 * 1024, stat.size());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/folder/missing", stat));
+	}
+
+	@Test
+	public void testCachedAttributesNeedNoRequests() {
+		StatWrapper stat = getStatsWrapper();
+		store.setLatencyMicros(1000);
+		assertEquals(0, fs.getattr("/top", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/missing", stat));
+		long requests = store.getRequests();
+		assertEquals(0, fs.getattr("/top", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/missing", stat));
+		assertEquals(requests, store.getRequests());
+	}
+
+	@Test
+	public void testReadDir() {
+		List<String> entries = new ArrayList<>();
+		assertEquals(0, fs.readdir("/", new ListFiller(entries)));
+		Collections.sort(entries);
+		assertEquals(Arrays.asList("/folder", "/virtual", "top"), entries);
+
+		fs.setReadMaxKeys(1);
+		entries.clear();
+		assertEquals(0, fs.readdir("/folder", new ListFiller(entries)));
+		Collections.sort(entries);
+		assertEquals(Arrays.asList("folder/large", "folder/small"), entries);
+	}
+
+	@Test
+	public void testRead() {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		assertEquals(4096, fs.read("/folder/large", buffer, 4096, 2 * 1024 * 1024 - 100, null));
+		byte[] expected = Arrays.copyOfRange(content(3 * 1024 * 1024), 2 * 1024 * 1024 - 100, 2 * 1024 * 1024 - 100 + 4096);
+		assertArrayEquals(expected, buffer.array());
+
+		buffer = ByteBuffer.allocate(1000);
+		assertEquals(400, fs.read("/folder/small", buffer, 1000, 0, null));
+	}
+
+	@Test
+	public void testCloseReleasesStore() throws IOException {
+		final AtomicInteger closed = new AtomicInteger();
+		AliyunOSSFilesystem mounted = new AliyunOSSFilesystem(new InMemoryObjectStore("bucket") {
+			@Override
+			public void close() {
+				closed.incrementAndGet();
+			}
+		}, new MountConfig(), false);
+		assertEquals(0, closed.get());
+		mounted.close();
+		assertEquals(1, closed.get());
+	}
+
+	@Test
+	public void testReadOnlyByDefault() throws IOException {
+		AliyunOSSFilesystem readOnly = new AliyunOSSFilesystem(store, new MountConfig(), false);
+		try {
+			assertEquals(-ErrorCodes.EROFS(), readOnly.create("/folder/new", null, getFileInfoWrapper("/folder/new")));
+			assertEquals(-ErrorCodes.EROFS(), readOnly.unlink("/folder/small"));
+			assertEquals(400, store.headObject("folder/small").getContentLength());
+		} finally {
+			readOnly.close();
+		}
+	}
+
+	@Test
+	public void testWriteRenameAndDelete() throws IOException {
+		FileInfoWrapper info = getFileInfoWrapper("/folder/new");
+		assertEquals(0, fs.create("/folder/new", null, info));
+		assertEquals(5, fs.write("/folder/new", ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }), 5, 0, info));
+		assertEquals(0, fs.release("/folder/new", info));
+		assertEquals(5, store.headObject("folder/new").getContentLength());
+
+		assertEquals(0, fs.rename("/folder/new", "/renamed"));
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/folder/new", stat));
+		assertEquals(0, fs.getattr("/renamed", stat));
+		assertEquals(5, stat.size());
+
+		assertEquals(0, fs.unlink("/renamed"));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/renamed", stat));
+		assertEquals(-ErrorCodes.ENOTEMPTY(), fs.rmdir("/folder"));
+		fs.close();
+		assertEquals(5, store.size());
+		assertTrue(store.listObjects("renamed", null, null, 1).getObjectSummaries().isEmpty());
+	}
+
+	@Test
+	public void testRenameDirectoryKeepsOtherCachedPaths() {
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/top", stat));
+		assertEquals(0, fs.getattr("/folder/small", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/moved", stat));
+
+		assertEquals(0, fs.rename("/folder", "/moved"));
+		long requests = store.getRequests();
+		assertEquals(0, fs.getattr("/top", stat));
+		assertEquals(requests, store.getRequests());
+
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/folder/small", stat));
+		assertEquals(0, fs.getattr("/moved/small", stat));
+		assertEquals(400, stat.size());
+		List<String> entries = new ArrayList<>();
+		assertEquals(0, fs.readdir("/", new ListFiller(entries)));
+		Collections.sort(entries);
+		assertEquals(Arrays.asList("/moved", "/virtual", "top"), entries);
+	}
+
+	@Test
+	public void testKeyFilterMissesAreNotCached() throws IOException, InterruptedException {
+		MountConfig config = new MountConfig();
+		config.setKeyFilter(true);
+		AliyunOSSFilesystem filtered = new AliyunOSSFilesystem(store, config, false);
+		try {
+			StatWrapper stat = getStatsWrapper();
+			// wait for the first build of the filter answering without requests
+			for (int i = 0;; i++) {
+				long requests = store.getRequests();
+				assertEquals(-ErrorCodes.ENOENT(), filtered.getattr("/probe" + i, stat));
+				if (store.getRequests() == requests) {
+					break;
+				}
+				assertTrue(i < 500);
+				Thread.sleep(10);
+			}
+			assertEquals(-ErrorCodes.ENOENT(), filtered.getattr("/missing", stat));
+			assertFalse(filtered.getMetadataCache().isNotFound("missing"));
+		} finally {
+			filtered.close();
+		}
+	}
+
+	@Test
+	public void testGetAttrOfFileBeingWritten() {
+		FileInfoWrapper info = getFileInfoWrapper("/folder/new");
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.create("/folder/new", null, info));
+		assertEquals(3, fs.write("/folder/new", ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 3, 0, info));
+		// expired from the cache while the object is not uploaded yet
+		fs.getMetadataCache().invalidateAll();
+		assertEquals(0, fs.getattr("/folder/new", stat));
+		assertEquals(NodeType.FILE, stat.type());
+		assertEquals(3, stat.size());
+
+		assertEquals(0, fs.release("/folder/new", info));
+		assertEquals(0, fs.getattr("/folder/new", stat));
+		assertEquals(3, stat.size());
+	}
+
+	@Test
+	public void testMetrics() {
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/folder/small", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/folder/missing", stat));
+		assertEquals(400, fs.read("/folder/small", ByteBuffer.allocate(1000), 1000, 0, null));
+
+		Metrics metrics = fs.getMetrics();
+		assertEquals(2, metrics.operation("getattr").getCount());
+		assertEquals(Collections.singletonMap("ENOENT", 1L), metrics.operation("getattr").getErrorCodes());
+		assertEquals(400, metrics.operation("read").getBytes());
+		assertEquals(400, metrics.request("GetObject").getBytes());
+		assertEquals(store.getRequests(), totalRequests(metrics));
+	}
+
+	@Test
+	public void testPrewarm() throws IOException {
+		assertEquals(5, fs.prewarm("/"));
+		final long requests = store.getRequests();
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/virtual", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/folder/large", stat));
+		assertEquals(3 * 1024 * 1024, stat.size());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/folder/missing", stat));
+		assertEquals(requests, store.getRequests());
+
+		fs.flushMetadata();
+		assertEquals(0, fs.getattr("/folder/large", stat));
+		assertTrue(store.getRequests() > requests);
+	}
+
+	@Test
+	public void testPrewarmData() throws IOException {
+		assertEquals(3, fs.prewarm("/folder/", true));
+		final long requests = store.getRequests();
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		assertEquals(4096, fs.read("/folder/large", buffer, 4096, 2 * 1024 * 1024 - 100, null));
+		assertEquals(400, fs.read("/folder/small", ByteBuffer.allocate(1000), 1000, 0, null));
+		assertEquals(requests, store.getRequests());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPinWithoutDiskCache() throws IOException {
+		fs.pin("/folder");
+	}
+
+	@Test
+	public void testPin() throws IOException {
+		File cacheDir = File.createTempFile("AliOSSCache", ".dir");
+		cacheDir.delete();
+		MountConfig config = new MountConfig();
+		config.setCacheDir(cacheDir);
+		config.setMemoryCacheSize(0);
+		config.setDiskCacheSize(1024 * 1024);
+		AliyunOSSFilesystem pinning = new AliyunOSSFilesystem(store, config, false);
+		try {
+			assertEquals(3, pinning.pin("/folder"));
+			// the pinned content is kept beyond the size of the disk cache
+			assertEquals(3 * 1024 * 1024 + 400, pinning.getBlockCache().getPinnedUsage());
+			final long requests = store.getRequests();
+			assertEquals(1000, pinning.read("/folder/large", ByteBuffer.allocate(1000), 1000, 0, null));
+			assertEquals(requests, store.getRequests());
+
+			assertTrue(pinning.unpin("/folder"));
+			assertTrue(pinning.getBlockCache().getDiskUsage() <= 1024 * 1024);
+		} finally {
+			pinning.close();
+			FileUtils.deleteDirectory(cacheDir);
+		}
+	}
+
+	@Test
+	public void testRewriteFileWaitingForUpload() throws IOException, InterruptedException {
+		File writeBackDir = File.createTempFile("AliOSSWriteBack", ".dir");
+		writeBackDir.delete();
+		MountConfig config = new MountConfig();
+		config.setReadOnly(false);
+		config.setWriteBackDir(writeBackDir);
+		AliyunOSSFilesystem writing = new AliyunOSSFilesystem(store, config, false);
+		try {
+			FileInfoWrapper info = getFileInfoWrapper("/f");
+			assertEquals(0, writing.create("/f", null, info));
+			assertEquals(5, writing.write("/f", ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }), 5, 0, info));
+			assertEquals(0, writing.release("/f", info));
+
+			// what the shell does for "echo x > f"
+			assertEquals(0, writing.truncate("/f", 0));
+			StatWrapper stat = getStatsWrapper();
+			assertEquals(0, writing.getattr("/f", stat));
+			assertEquals(0, stat.size());
+			info = FileInfoWrapperFactory.create("/f", 1); // O_WRONLY
+			assertEquals(0, writing.open("/f", info));
+			assertEquals(1, writing.write("/f", ByteBuffer.wrap(new byte[] { 9 }), 1, 0, info));
+			assertEquals(0, writing.release("/f", info));
+
+			for (int i = 0; i < 500 && !Arrays.equals(new byte[] { 9 }, content(store, "f")); i++) {
+				Thread.sleep(10);
+			}
+			assertArrayEquals(new byte[] { 9 }, content(store, "f"));
+		} finally {
+			writing.close();
+			FileUtils.deleteDirectory(writeBackDir);
+		}
+	}
+
+	private static byte[] content(InMemoryObjectStore store, String key) throws IOException {
+		try {
+			return IOUtils.toByteArray(store.getObject(key, 0, Long.MAX_VALUE).getObjectContent());
+		} catch (OSSException e) {
+			return null;
+		}
+	}
+
+	@Test
+	public void testSetReadAhead() {
+		fs.setReadAheadMax(0);
+		assertEquals(0, fs.getReadAheadMax());
+		assertEquals(0, fs.open("/top", getFileInfoWrapper("/top")));
+		fs.setReadAheadMax(8 * 1024 * 1024);
+		fs.setPrefetchThreads(2);
+		assertEquals(2, fs.getPrefetchThreads());
+	}
+
+	private static long totalRequests(Metrics metrics) {
+		long requests = 0;
+		for (OperationMetrics request : metrics.getRequests()) {
+			requests += request.getCount();
+		}
+		return requests;
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFailingBucket() {
+		store.setErrorRate(1);
+		fs.getattr("/unknown", getStatsWrapper());
+	}
+
+	private static byte[] content(int size) {
+		byte[] content = new byte[size];
+		for (int i = 0; i < size; i++) {
+			content[i] = (byte) (i % 251);
+		}
+		return content;
+	}
+
+	private static final class ListFiller implements DirectoryFiller {
+		private final List<String> entries;
+
+		private ListFiller(List<String> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public boolean add(String... files) {
+			return add(Arrays.asList(files));
+		}
+
+		@Override
+		public boolean add(Iterable<String> files) {
+			for (String file : files) {
+				entries.add(file);
+			}
+			return true;
+		}
+	}
+
+	private StatWrapper getStatsWrapper() {
+		try {
+			return StatWrapperFactory.create();
+		} catch (UnsatisfiedLinkError | NoClassDefFoundError e) {
+			Assume.assumeNoException(e); // stop test silently without fuse-binaries
+			return null;
+		}
+	}
+
+	private FileInfoWrapper getFileInfoWrapper(String path) {
+		try {
+			return FileInfoWrapperFactory.create(path);
+		} catch (UnsatisfiedLinkError | NoClassDefFoundError e) {
+			Assume.assumeNoException(e); // stop test silently without fuse-binaries
+			return null;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.github.zxkane.aliyunoss;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MountConfigTest {
+
+	@Test
+	public void testResolveEndpoint() {
+		MountConfig config = new MountConfig();
+		assertEquals("oss-cn-hangzhou.aliyuncs.com", config.resolveEndpoint("oss-cn-hangzhou.aliyuncs.com"));
+
+		config.setInternalEndpoint(true);
+		assertEquals("oss-cn-hangzhou-internal.aliyuncs.com", config.resolveEndpoint("oss-cn-hangzhou.aliyuncs.com"));
+		assertEquals("http://oss-cn-hangzhou-internal.aliyuncs.com", config.resolveEndpoint("http://oss-cn-hangzhou.aliyuncs.com"));
+		assertEquals("oss-cn-hangzhou-internal.aliyuncs.com", config.resolveEndpoint("oss-cn-hangzhou-internal.aliyuncs.com"));
+
+		config.setCname("media.example.com");
+		assertEquals("media.example.com", config.resolveEndpoint("oss-cn-hangzhou.aliyuncs.com"));
+	}
+}
@@ -0,0 +1,171 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.zxkane.aliyunoss.cache.BlockCache.BlockKey;
+
+public class BlockCacheTest {
+
+	private File cacheDir;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheDir = File.createTempFile("AliOSSCache", ".dir");
+		cacheDir.delete();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(cacheDir);
+	}
+
+	@Test
+	public void testMemoryTier() throws IOException {
+		BlockCache cache = new BlockCache(4, 1024, null, 0);
+		assertEquals(4, cache.getBlockSize());
+		assertNull(cache.get(new BlockKey("a", "e1", 0)));
+
+		cache.put(new BlockKey("a", "e1", 0), new byte[] { 1, 2, 3, 4 });
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, cache.get(new BlockKey("a", "e1", 0)));
+		// another version of the object does not hit
+		assertNull(cache.get(new BlockKey("a", "e2", 0)));
+		assertNull(cache.get(new BlockKey("a", "e1", 1)));
+
+		cache.invalidate("a");
+		assertNull(cache.get(new BlockKey("a", "e1", 0)));
+		cache.close();
+	}
+
+	@Test
+	public void testDiskTierEvictsLeastRecentlyUsed() throws IOException {
+		BlockCache cache = new BlockCache(4, 0, cacheDir, 8);
+		cache.put(new BlockKey("a", "e", 0), new byte[] { 1, 2, 3, 4 });
+		cache.put(new BlockKey("a", "e", 1), new byte[] { 5, 6, 7, 8 });
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, cache.get(new BlockKey("a", "e", 0)));
+
+		cache.put(new BlockKey("b", "e", 0), new byte[] { 9, 9 });
+		assertNull(cache.get(new BlockKey("a", "e", 1)));
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, cache.get(new BlockKey("a", "e", 0)));
+		assertArrayEquals(new byte[] { 9, 9 }, cache.get(new BlockKey("b", "e", 0)));
+		assertEquals(2, cacheDir.listFiles().length);
+
+		cache.invalidateAll();
+		assertEquals(0, cacheDir.listFiles().length);
+		cache.close();
+	}
+
+	@Test
+	public void testDiskTierIsReindexed() throws IOException {
+		BlockCache cache = new BlockCache(4, 1024, cacheDir, 1024);
+		cache.put(new BlockKey("a", "e", 0), new byte[] { 1, 2, 3, 4 });
+		cache.put(new BlockKey("a", null, 1), new byte[] { 5, 6 });
+		cache.close();
+		// left over by an interrupted write
+		assertTrue(new File(cacheDir, "block1.tmp").createNewFile());
+
+		cache = new BlockCache(4, 1024, cacheDir, 1024);
+		assertEquals(6, cache.getDiskUsage());
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, cache.get(new BlockKey("a", "e", 0)));
+		assertArrayEquals(new byte[] { 5, 6 }, cache.get(new BlockKey("a", null, 1)));
+		assertNull(cache.get(new BlockKey("a", "e2", 0)));
+		assertEquals(2, cacheDir.listFiles().length);
+		cache.close();
+
+		// the reindexed blocks are evicted down to a smaller disk tier
+		cache = new BlockCache(4, 0, cacheDir, 4);
+		assertEquals(1, cacheDir.listFiles().length);
+		cache.close();
+	}
+
+	@Test
+	public void testInvalidateDropsBlocksOfOneObject() throws IOException {
+		BlockCache cache = new BlockCache(4, 8, cacheDir, 1024);
+		cache.put(new BlockKey("a", "e1", 0), new byte[] { 1, 2, 3, 4 });
+		cache.put(new BlockKey("a", "e2", 1), new byte[] { 5, 6 });
+		cache.put(new BlockKey("b", "e", 0), new byte[] { 7, 8 });
+		// evicted from memory and served from disk again
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, cache.get(new BlockKey("a", "e1", 0)));
+		cache.close();
+
+		cache = new BlockCache(4, 8, cacheDir, 1024);
+		assertArrayEquals(new byte[] { 5, 6 }, cache.get(new BlockKey("a", "e2", 1)));
+		cache.invalidate("a");
+		assertNull(cache.get(new BlockKey("a", "e1", 0)));
+		assertNull(cache.get(new BlockKey("a", "e2", 1)));
+		assertArrayEquals(new byte[] { 7, 8 }, cache.get(new BlockKey("b", "e", 0)));
+		assertEquals(2, cache.getDiskUsage());
+		assertEquals(2, cache.getMemoryUsage());
+		assertEquals(1, cacheDir.listFiles().length);
+		cache.close();
+	}
+
+	@Test
+	public void testResize() throws IOException {
+		BlockCache cache = new BlockCache(4, 8, cacheDir, 8);
+		cache.put(new BlockKey("a", "e", 0), new byte[] { 1, 2, 3, 4 });
+		cache.put(new BlockKey("a", "e", 1), new byte[] { 5, 6, 7, 8 });
+		assertEquals(8, cache.getMemoryUsage());
+		assertEquals(8, cache.getDiskUsage());
+
+		cache.setMemorySize(4);
+		assertEquals(4, cache.getMemoryCapacity());
+		assertEquals(4, cache.getMemoryUsage());
+		cache.setDiskSize(4);
+		assertEquals(4, cache.getDiskCapacity());
+		assertEquals(4, cache.getDiskUsage());
+		assertEquals(1, cacheDir.listFiles().length);
+
+		cache.setMemorySize(0);
+		assertEquals(0, cache.getMemoryUsage());
+		// the least recently used block left the disk, the other is still served
+		assertNull(cache.get(new BlockKey("a", "e", 0)));
+		assertArrayEquals(new byte[] { 5, 6, 7, 8 }, cache.get(new BlockKey("a", "e", 1)));
+		cache.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testResizeMissingDiskTier() throws IOException {
+		new BlockCache(4, 8, null, 0).setDiskSize(8);
+	}
+
+	@Test
+	public void testPinnedBlocksAreNotEvicted() throws IOException {
+		BlockCache cache = new BlockCache(4, 0, cacheDir, 8);
+		cache.pin("models/");
+		cache.put(new BlockKey("models/a", "e", 0), new byte[] { 1, 2, 3, 4 });
+		cache.put(new BlockKey("other", "e", 0), new byte[] { 5, 6, 7, 8 });
+		cache.put(new BlockKey("other", "e", 1), new byte[] { 9, 9, 9, 9 });
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, cache.get(new BlockKey("models/a", "e", 0)));
+		assertNull(cache.get(new BlockKey("other", "e", 0)));
+		assertEquals(4, cache.getPinnedUsage());
+
+		// pinned blocks are kept beyond the size of the disk tier
+		cache.put(new BlockKey("models/a", "e", 1), new byte[] { 1, 1, 1, 1 });
+		cache.put(new BlockKey("models/a", "e", 2), new byte[] { 2, 2, 2, 2 });
+		assertEquals(12, cache.getPinnedUsage());
+		assertNull(cache.get(new BlockKey("other", "e", 1)));
+
+		assertTrue(cache.unpin("models/"));
+		assertFalse(cache.unpin("models/"));
+		assertEquals(8, cache.getDiskUsage());
+		assertEquals(0, cache.getPinnedUsage());
+		cache.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPinMissingDiskTier() throws IOException {
+		new BlockCache(4, 8, null, 0).pin("models/");
+	}
+}
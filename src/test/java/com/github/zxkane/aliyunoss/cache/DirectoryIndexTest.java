@@ -0,0 +1,105 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DirectoryIndexTest {
+
+	@Test
+	public void testAddDirectoryAddsParents() {
+		DirectoryIndex index = new DirectoryIndex(100, 60);
+		index.addDirectory("a/b/c");
+		assertTrue(index.contains("a/b/c"));
+		assertTrue(index.contains("a/b"));
+		assertTrue(index.contains("a"));
+		assertFalse(index.contains("a/b/d"));
+		assertEquals(3, index.size());
+
+		index.invalidate("a/b");
+		assertFalse(index.contains("a/b"));
+		index.addDirectory("a/b/c");
+		assertTrue(index.contains("a/b"));
+	}
+
+	@Test
+	public void testInvalidateTree() {
+		DirectoryIndex index = new DirectoryIndex(100, 60);
+		index.addDirectory("a/b/c");
+		index.addDirectory("a/bc");
+		index.invalidateTree("a/b");
+		assertFalse(index.contains("a/b/c"));
+		assertFalse(index.contains("a/b"));
+		assertTrue(index.contains("a/bc"));
+		assertTrue(index.contains("a"));
+	}
+
+	@Test
+	public void testChildrenOfListing() throws InterruptedException {
+		DirectoryIndex index = new DirectoryIndex(100, 60);
+		index.addDirectory("a");
+		assertNull(index.getChildren("a", 60000));
+
+		index.setChildren("a", Arrays.asList("x", "y"));
+		assertTrue(index.getChildren("a", 60000).contains("x"));
+		assertFalse(index.getChildren("a", 60000).contains("z"));
+
+		index.addChild("a", "z");
+		index.removeChild("a", "x");
+		assertTrue(index.getChildren("a", 60000).contains("z"));
+		assertFalse(index.getChildren("a", 60000).contains("x"));
+
+		// children of a directory which was not listed stay unknown
+		index.addDirectory("b");
+		index.addChild("b", "z");
+		assertNull(index.getChildren("b", 60000));
+
+		Thread.sleep(5);
+		assertNull(index.getChildren("a", 1));
+	}
+
+	@Test
+	public void testBoundedByEntries() {
+		DirectoryIndex index = new DirectoryIndex(10, 60);
+		for (int i = 0; i < 100; i++) {
+			index.addDirectory("d" + i);
+		}
+		assertTrue(index.size() <= 10);
+	}
+
+	@Test
+	public void testConcurrentAdds() throws InterruptedException {
+		final DirectoryIndex index = new DirectoryIndex(100000, 60);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		final CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < 1000; i++) {
+						index.addDirectory("p" + (i % 10) + "/t" + thread + "/" + i);
+					}
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(10 + 10 * 8 + 8 * 1000, index.size());
+	}
+}
@@ -0,0 +1,116 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.github.zxkane.aliyunoss.io.DirectoryLister;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+
+public class KeyFilterTest {
+
+	private DirectoryLister lister;
+
+	private KeyFilter filter;
+
+	private final NavigableSet<String> keys = new ConcurrentSkipListSet<>();
+
+	/**
+	 * Lists the keys of the test without grouping them.
+	 */
+	private class ListingOSSClient extends OSSClient {
+
+		ListingOSSClient() {
+			super("http://localhost", "id", "key");
+		}
+
+		@Override
+		public ObjectListing listObjects(ListObjectsRequest request) {
+			ObjectListing listing = new ObjectListing();
+			String marker = request.getMarker() == null ? "" : request.getMarker();
+			for (String key : keys.tailSet(marker, false)) {
+				if (listing.getObjectSummaries().size() == request.getMaxKeys()) {
+					listing.setTruncated(true);
+					listing.setNextMarker(listing.getObjectSummaries().get(request.getMaxKeys() - 1).getKey());
+					break;
+				}
+				OSSObjectSummary summary = new OSSObjectSummary();
+				summary.setKey(key);
+				summary.setLastModified(new Date(0));
+				listing.addObjectSummary(summary);
+			}
+			return listing;
+		}
+	}
+
+	@Before
+	public void setUp() {
+		for (int i = 0; i < 3000; i++) {
+			keys.add(String.format("data/%02d/%05d", i % 10, i));
+		}
+		keys.add("empty/");
+		lister = new DirectoryLister(new AliyunObjectStore(new ListingOSSClient(), "bucket"), 4, 2, 4);
+		filter = new KeyFilter(lister, 4, 10000, 3600);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		filter.close();
+		lister.close();
+	}
+
+	@Test
+	public void testEverythingMightExistBeforeBuilt() {
+		assertFalse(filter.isReady());
+		assertTrue(filter.mightExist("missing"));
+	}
+
+	@Test
+	public void testKeysAndTheirFolders() throws IOException {
+		filter.build();
+		assertTrue(filter.isReady());
+		assertTrue(filter.mightExist("data/03/00013"));
+		assertTrue(filter.mightExist("data/03"));
+		assertTrue(filter.mightExist("data"));
+		assertTrue(filter.mightExist("empty"));
+
+		int falsePositives = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (filter.mightExist("data/03/missing" + i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("false positives " + falsePositives, falsePositives < 50);
+	}
+
+	@Test
+	public void testAddedKeys() throws IOException {
+		filter.build();
+		filter.add("new/file");
+		assertTrue(filter.mightExist("new/file"));
+
+		filter.add("other/dir/");
+		assertTrue(filter.mightExist("other/dir"));
+		assertTrue(filter.mightExist("other"));
+	}
+
+	@Test
+	public void testRebuildSeesNewKeys() throws IOException {
+		filter.build();
+		keys.add("later/file");
+		filter.build();
+		assertTrue(filter.mightExist("later/file"));
+	}
+}
@@ -0,0 +1,101 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MetadataCacheTest {
+
+	@Test
+	public void testPositiveEntries() {
+		MetadataCache cache = new MetadataCache(60, 10, 60, 10);
+		assertNull(cache.get("a"));
+
+		cache.put("a", ObjectAttributes.file(10, 1000, "etag"));
+		assertEquals(10, cache.get("a").getSize());
+		assertEquals("etag", cache.get("a").getEtag());
+		assertFalse(cache.get("a").isDirectory());
+
+		cache.put("d", ObjectAttributes.directory(0));
+		assertTrue(cache.get("d").isDirectory());
+		assertEquals(2, cache.size());
+
+		cache.invalidate("a");
+		assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void testNegativeEntriesAreClearedByAttributes() {
+		MetadataCache cache = new MetadataCache(60, 10, 60, 10);
+		cache.put("a", ObjectAttributes.file(10, 1000, "etag"));
+		cache.putNotFound("a");
+		assertTrue(cache.isNotFound("a"));
+		assertNull(cache.get("a"));
+
+		cache.put("a", ObjectAttributes.file(10, 1000, "etag"));
+		assertFalse(cache.isNotFound("a"));
+
+		cache.putNotFound("b");
+		cache.invalidateNotFound("b");
+		assertFalse(cache.isNotFound("b"));
+	}
+
+	@Test
+	public void testInvalidatePrefix() {
+		MetadataCache cache = new MetadataCache(60, 10, 60, 10);
+		cache.put("a/b", ObjectAttributes.file(10, 1000, "etag"));
+		cache.putNotFound("a/c");
+		cache.put("ab", ObjectAttributes.file(10, 1000, "etag"));
+		cache.invalidatePrefix("a/");
+		assertNull(cache.get("a/b"));
+		assertFalse(cache.isNotFound("a/c"));
+		assertEquals(10, cache.get("ab").getSize());
+	}
+
+	@Test
+	public void testSizeBound() {
+		MetadataCache cache = new MetadataCache(60, 2, 60, 2);
+		for (int i = 0; i < 10; i++) {
+			cache.put("k" + i, ObjectAttributes.file(i, 1000, "etag"));
+			cache.putNotFound("n" + i);
+		}
+		assertTrue(cache.size() <= 2);
+	}
+
+	@Test
+	public void testSetMaximumSize() {
+		MetadataCache cache = new MetadataCache(60, 2, 60, 2);
+		cache.put("a", ObjectAttributes.file(10, 1000, "etag"));
+		assertEquals(10, cache.get("a").getSize());
+
+		cache.setMaximumSize(10);
+		assertEquals(10, cache.getMaximumSize());
+		assertNull(cache.get("a"));
+		for (int i = 0; i < 10; i++) {
+			cache.put("file" + i, ObjectAttributes.file(i, 1000, "etag"));
+		}
+		assertEquals(10, cache.size());
+		// the statistics of the replaced cache are kept
+		assertEquals(1, cache.stats().hitCount());
+		assertEquals(1, cache.stats().missCount());
+	}
+
+	@Test
+	public void testPinnedEntriesAreNotEvicted() {
+		MetadataCache cache = new MetadataCache(60, 2, 60, 2);
+		cache.pin("models/");
+		for (int i = 0; i < 10; i++) {
+			cache.put("models/file" + i, ObjectAttributes.file(i, 1000, "etag"));
+			cache.put("other" + i, ObjectAttributes.file(i, 1000, "etag"));
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, cache.get("models/file" + i).getSize());
+		}
+		assertTrue(cache.size() <= 12);
+		assertTrue(cache.unpin("models/"));
+		assertFalse(cache.unpin("models/"));
+	}
+}
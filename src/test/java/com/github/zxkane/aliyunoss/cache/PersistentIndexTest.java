@@ -0,0 +1,164 @@
+package com.github.zxkane.aliyunoss.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.github.zxkane.aliyunoss.io.DirectoryLister;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+
+public class PersistentIndexTest {
+
+	private static final int OBJECTS = 5000;
+
+	private File dir;
+
+	private DirectoryLister lister;
+
+	private PersistentIndex index;
+
+	/**
+	 * Lists keys "data/00000" to "data/04999" and a marker "empty/".
+	 */
+	private static class ListingOSSClient extends OSSClient {
+
+		ListingOSSClient() {
+			super("http://localhost", "id", "key");
+		}
+
+		@Override
+		public ObjectListing listObjects(ListObjectsRequest request) {
+			ObjectListing listing = new ObjectListing();
+			String marker = request.getMarker() == null ? "" : request.getMarker();
+			for (int i = 0; i <= OBJECTS && listing.getObjectSummaries().size() < request.getMaxKeys(); i++) {
+				String key = i < OBJECTS ? String.format("data/%05d", i) : "empty/";
+				if (key.compareTo(marker) > 0) {
+					OSSObjectSummary summary = new OSSObjectSummary();
+					summary.setKey(key);
+					summary.setSize(i);
+					summary.setLastModified(new Date(1000L * i));
+					summary.setETag("etag" + i);
+					listing.addObjectSummary(summary);
+				}
+			}
+			if (listing.getObjectSummaries().size() == request.getMaxKeys()) {
+				listing.setTruncated(true);
+				listing.setNextMarker(listing.getObjectSummaries().get(request.getMaxKeys() - 1).getKey());
+			}
+			return listing;
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("index").toFile();
+		lister = new DirectoryLister(new AliyunObjectStore(new ListingOSSClient(), "bucket"), 4, 2, 4);
+		index = new PersistentIndex(dir, lister, 4, 3600);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		index.close();
+		lister.close();
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testLooksUpRefreshedSnapshot() throws IOException {
+		assertNull(index.get("data/00042"));
+		index.refresh();
+
+		assertEquals(OBJECTS + 1, index.size());
+		for (int i : new int[] { 0, 1, 42, 2999, OBJECTS - 1 }) {
+			ObjectAttributes attributes = index.get(String.format("data/%05d", i));
+			assertEquals(i, attributes.getSize());
+			assertEquals(1000L * i, attributes.getLastModified());
+			assertEquals("etag" + i, attributes.getEtag());
+		}
+		assertTrue(index.get("data").isDirectory());
+		assertTrue(index.get("empty").isDirectory());
+		assertNull(index.get("data/0004"));
+		assertNull(index.get("zzz"));
+		assertNull(index.get("a"));
+	}
+
+	@Test
+	public void testLookupsDuringRefresh() throws IOException, InterruptedException {
+		index.refresh();
+		final AtomicBoolean refreshing = new AtomicBoolean(true);
+		final AtomicInteger missed = new AtomicInteger();
+		Thread[] readers = new Thread[4];
+		for (int r = 0; r < readers.length; r++) {
+			readers[r] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; refreshing.get(); i++) {
+						int n = i % OBJECTS;
+						ObjectAttributes attributes = index.get(String.format("data/%05d", n));
+						if (attributes == null || attributes.getSize() != n) {
+							missed.incrementAndGet();
+						}
+					}
+				}
+			};
+			readers[r].start();
+		}
+		try {
+			for (int i = 0; i < 10; i++) {
+				index.refresh();
+			}
+		} finally {
+			refreshing.set(false);
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		}
+		// replaced snapshots stay open while they are read
+		assertEquals(0, missed.get());
+	}
+
+	@Test
+	public void testChangesOverlaySnapshot() throws IOException {
+		index.refresh();
+		index.put("new", ObjectAttributes.file(7, 0, null));
+		index.remove("data/00001");
+		index.removePrefix("empty/");
+
+		assertEquals(7, index.get("new").getSize());
+		assertNull(index.get("data/00001"));
+		assertNull(index.get("empty/"));
+		assertEquals(2, index.get("data/00002").getSize());
+	}
+
+	@Test
+	public void testOpensSnapshotOfPreviousMount() throws IOException, InterruptedException {
+		index.refresh();
+		index.close();
+
+		index = new PersistentIndex(dir, lister, 4, 3600);
+		index.start();
+		for (int i = 0; i < 100 && index.size() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(OBJECTS + 1, index.size());
+		assertEquals(123, index.get("data/00123").getSize());
+	}
+}
@@ -0,0 +1,85 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+
+public class DeleteBatcherTest {
+
+	private RecordingOSSClient client;
+
+	private DeleteBatcher batcher;
+
+	private final AtomicInteger notified = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+		client = new RecordingOSSClient();
+		batcher = new DeleteBatcher(new AliyunObjectStore(client, "bucket"), 60000, 2);
+		batcher.setListener(new DeleteBatcher.Listener() {
+			@Override
+			public void deleted(List<String> keys) {
+				notified.incrementAndGet();
+			}
+
+			@Override
+			public void failed(List<String> keys, Exception e) {
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		batcher.close();
+	}
+
+	@Test
+	public void testDeletesAreBatched() throws IOException {
+		for (int i = 0; i < 2500; i++) {
+			client.objects.put("dir/" + i, new byte[0]);
+			batcher.delete("dir/" + i);
+		}
+		client.objects.put("other", new byte[0]);
+		assertTrue(batcher.isPending("dir/2499"));
+
+		batcher.flush("dir/");
+		assertEquals(Arrays.asList(1000, 1000, 500), client.deleteBatches);
+		assertEquals(3, notified.get());
+		assertEquals(0, batcher.getPendingCount());
+		assertEquals(1, client.objects.size());
+	}
+
+	@Test
+	public void testCancelWithdrawsPendingDelete() throws IOException {
+		client.objects.put("a", new byte[0]);
+		client.objects.put("b", new byte[0]);
+		batcher.delete("a");
+		batcher.delete("b");
+		batcher.cancel("a");
+		assertFalse(batcher.isPending("a"));
+
+		batcher.flush("");
+		assertEquals(Arrays.asList(1), client.deleteBatches);
+		assertTrue(client.objects.containsKey("a"));
+		assertFalse(client.objects.containsKey("b"));
+	}
+
+	@Test
+	public void testCloseSendsPendingDeletes() throws IOException {
+		client.objects.put("a", new byte[0]);
+		batcher.delete("a");
+		batcher.close();
+		assertFalse(client.objects.containsKey("a"));
+	}
+}
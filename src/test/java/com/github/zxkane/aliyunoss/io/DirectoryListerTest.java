@@ -0,0 +1,112 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+
+public class DirectoryListerTest {
+
+	private RecordingOSSClient client;
+
+	private DirectoryLister lister;
+
+	@Before
+	public void setUp() {
+		client = new RecordingOSSClient();
+		lister = new DirectoryLister(new AliyunObjectStore(client, "bucket"), 4, 3, 1);
+		for (int i = 0; i < 25; i++) {
+			client.objects.put(String.format("dir/%02d", i), new byte[0]);
+		}
+		client.objects.put("dir/sub/a", new byte[0]);
+		client.objects.put("other", new byte[0]);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		lister.close();
+	}
+
+	private List<String> listAll() throws IOException {
+		List<String> entries = new ArrayList<>();
+		try (ListingPages pages = lister.list("dir/", "/", 10)) {
+			ObjectListing listing;
+			while ((listing = pages.next()) != null) {
+				for (OSSObjectSummary summary : listing.getObjectSummaries()) {
+					entries.add(summary.getKey());
+				}
+				entries.addAll(listing.getCommonPrefixes());
+			}
+		}
+		return entries;
+	}
+
+	@Test
+	public void testListsAllPages() throws IOException {
+		List<String> entries = listAll();
+		assertEquals(26, entries.size());
+		assertEquals("dir/00", entries.get(0));
+		assertEquals("dir/sub/", entries.get(25));
+		assertEquals(3, client.listMarkers.size());
+	}
+
+	@Test
+	public void testRemembersMarkers() throws IOException {
+		listAll();
+		client.listMarkers.clear();
+
+		assertEquals(26, listAll().size());
+		// all remembered pages are requested, none twice
+		assertEquals(new HashSet<>(Arrays.asList("", "dir/09", "dir/19")), new HashSet<>(client.listMarkers));
+		assertEquals(3, client.listMarkers.size());
+	}
+
+	@Test
+	public void testRemembersMarkersOfShardedListing() throws IOException {
+		lister.close();
+		lister = new DirectoryLister(new AliyunObjectStore(client, "bucket"), 4, 3, 4);
+		assertEquals(26, new HashSet<>(listAll()).size());
+		client.listMarkers.clear();
+
+		assertEquals(26, listAll().size());
+		assertEquals(new HashSet<>(Arrays.asList("", "dir/09", "dir/19")), new HashSet<>(client.listMarkers));
+		assertEquals(3, client.listMarkers.size());
+	}
+
+	@Test
+	public void testFollowsChangedListing() throws IOException {
+		listAll();
+		client.objects.put("dir/000", new byte[0]);
+		client.objects.remove("dir/24");
+		client.objects.remove("dir/sub/a");
+		client.listMarkers.clear();
+
+		List<String> entries = listAll();
+		assertEquals(25, entries.size());
+		assertEquals("dir/000", entries.get(1));
+		assertEquals("dir/23", entries.get(24));
+	}
+
+	@Test
+	public void testCloseStopsEarly() throws IOException {
+		try (ListingPages pages = lister.list("dir/", "/", 10)) {
+			assertEquals(10, pages.next().getObjectSummaries().size());
+		}
+		try (ListingPages pages = lister.list("missing/", "/", 10)) {
+			assertEquals(0, pages.next().getObjectSummaries().size());
+			assertNull(pages.next());
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+
+public class FileHandleTest {
+
+	private static final class TrackedStream extends ByteArrayInputStream {
+		boolean closed;
+
+		TrackedStream() {
+			super(new byte[100]);
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+		}
+	}
+
+	@Test
+	public void testStreamIsKeptForSequentialReads() throws IOException {
+		FileHandle handle = new FileHandle("a", ObjectAttributes.file(100, 0, "etag"), null);
+		assertFalse(handle.isSequential(0));
+		handle.setNextOffset(10);
+		assertTrue(handle.isSequential(10));
+
+		TrackedStream stream = new TrackedStream();
+		handle.attachStream(stream, 20);
+		assertSame(stream, handle.detachStream(20));
+		assertFalse(stream.closed);
+		// detached streams are owned by the reader
+		assertNull(handle.detachStream(20));
+	}
+
+	@Test
+	public void testStreamIsClosedOnSeek() throws IOException {
+		FileHandle handle = new FileHandle("a", ObjectAttributes.file(100, 0, "etag"), null);
+		TrackedStream stream = new TrackedStream();
+		handle.attachStream(stream, 20);
+		assertNull(handle.detachStream(50));
+		assertTrue(stream.closed);
+	}
+
+	@Test
+	public void testCloseReleasesStream() throws IOException {
+		FileHandle handle = new FileHandle("a", ObjectAttributes.file(100, 0, "etag"), new ReadAhead(10, 100));
+		TrackedStream stream = new TrackedStream();
+		handle.attachStream(stream, 20);
+		handle.close();
+		assertTrue(stream.closed);
+		assertNull(handle.detachStream(20));
+	}
+}
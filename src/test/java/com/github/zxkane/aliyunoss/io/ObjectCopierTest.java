@@ -0,0 +1,86 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+
+public class ObjectCopierTest {
+
+	private static final int PART_SIZE = ObjectWriter.MIN_PART_SIZE;
+
+	private RecordingOSSClient client;
+
+	private ObjectCopier copier;
+
+	@Before
+	public void setUp() {
+		client = new RecordingOSSClient();
+		copier = new ObjectCopier(new AliyunObjectStore(client, "bucket"), PART_SIZE, 2);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		copier.close();
+	}
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		return content;
+	}
+
+	@Test
+	public void testSmallObjectIsCopiedAtOnce() throws IOException {
+		byte[] content = content(1000);
+		client.objects.put("source", content);
+
+		assertEquals("copy", copier.copy("source", "destination", content.length));
+		assertEquals(0, client.initiated.get());
+		assertArrayEquals(content, client.objects.get("destination"));
+		assertArrayEquals(content, client.objects.get("source"));
+	}
+
+	@Test
+	public void testLargeObjectIsCopiedInParts() throws IOException {
+		byte[] content = content(PART_SIZE * 3 + 17);
+		client.objects.put("source", content);
+
+		assertEquals("multipart", copier.copy("source", "destination", content.length));
+		assertEquals(1, client.initiated.get());
+		assertEquals(4, client.parts.size());
+		assertArrayEquals(content, client.objects.get("destination"));
+	}
+
+	@Test
+	public void testMoveReplacesPrefix() throws IOException {
+		List<OSSObjectSummary> objects = new ArrayList<>();
+		for (String key : new String[] { "dir/a", "dir/sub/b", "dir/sub/" }) {
+			byte[] content = content(key.length());
+			client.objects.put(key, content);
+			OSSObjectSummary summary = new OSSObjectSummary();
+			summary.setKey(key);
+			summary.setSize(content.length);
+			objects.add(summary);
+		}
+
+		assertEquals(3, copier.move(objects, "dir/", "moved/"));
+		assertArrayEquals(content(5), client.objects.get("moved/a"));
+		assertArrayEquals(content(9), client.objects.get("moved/sub/b"));
+		assertArrayEquals(content(8), client.objects.get("moved/sub/"));
+		assertFalse(client.objects.containsKey("dir/a"));
+		assertEquals(3, client.objects.size());
+	}
+}
@@ -0,0 +1,73 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.model.OSSObject;
+import com.github.zxkane.aliyunoss.cache.BlockCache;
+import com.github.zxkane.aliyunoss.cache.BlockCache.BlockKey;
+import com.github.zxkane.aliyunoss.store.InMemoryObjectStore;
+
+public class ObjectReaderTest {
+
+	private static final byte[] CONTENT = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+
+	private final AtomicInteger failingGets = new AtomicInteger();
+
+	private InMemoryObjectStore store;
+
+	private BlockCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		store = new InMemoryObjectStore("bucket") {
+			@Override
+			public OSSObject getObject(String key, long start, long end) {
+				if (failingGets.getAndDecrement() > 0) {
+					throw new ClientException("Connection reset");
+				}
+				return super.getObject(key, start, end);
+			}
+		};
+		store.put("object", CONTENT);
+		cache = new BlockCache(4, 1024, null, 0);
+	}
+
+	@Test
+	public void testReadsBlocksAroundCachedOne() throws IOException {
+		ObjectReader reader = new ObjectReader(store, cache);
+		cache.put(new BlockKey("object", "etag", 1), new byte[] { 4, 5, 6, 7 });
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		assertEquals(10, reader.read("object", "etag", CONTENT.length, buffer, 1, 10));
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 }, buffer.array());
+		reader.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testFailedFetchReleasesLaterBlocks() throws IOException {
+		ObjectReader reader = new ObjectReader(store, cache);
+		// blocks 0 and 2 are fetched by two requests, the first one fails
+		cache.put(new BlockKey("object", "etag", 1), new byte[] { 4, 5, 6, 7 });
+		failingGets.set(1);
+		try {
+			reader.read("object", "etag", CONTENT.length, ByteBuffer.allocate(12), 0, 12);
+			fail();
+		} catch (ClientException e) {
+			// expected
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(12);
+		assertEquals(12, reader.read("object", "etag", CONTENT.length, buffer, 0, 12));
+		assertArrayEquals(CONTENT, buffer.array());
+		reader.close();
+	}
+}
@@ -0,0 +1,133 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+import com.github.zxkane.aliyunoss.store.InMemoryObjectStore;
+
+public class ObjectWriterTest {
+
+	private static final int PART_SIZE = ObjectWriter.MIN_PART_SIZE;
+
+	private RecordingOSSClient client;
+
+	private ObjectWriter writer;
+
+	@Before
+	public void setUp() {
+		client = new RecordingOSSClient();
+		writer = new ObjectWriter(new AliyunObjectStore(client, "bucket"), PART_SIZE, 2, 2);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		writer.close();
+	}
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		return content;
+	}
+
+	@Test
+	public void testSmallFileIsPut() throws IOException {
+		byte[] content = content(1000);
+		ObjectWriter.Upload upload = writer.open("small");
+		assertTrue(upload.write(ByteBuffer.wrap(content, 0, 600), 0, 600));
+		assertTrue(upload.write(ByteBuffer.wrap(content, 600, 400), 600, 400));
+		ObjectAttributes attributes = upload.complete();
+
+		assertEquals(1000, attributes.getSize());
+		assertEquals("put", attributes.getEtag());
+		assertEquals(0, client.initiated.get());
+		assertArrayEquals(content, client.objects.get("small"));
+	}
+
+	@Test
+	public void testLargeFileIsUploadedInParts() throws IOException {
+		byte[] content = content(PART_SIZE * 5 + 123);
+		ObjectWriter.Upload upload = writer.open("large");
+		// writes of FUSE do not line up with parts
+		int offset = 0;
+		while (offset < content.length) {
+			int length = Math.min(70000, content.length - offset);
+			assertTrue(upload.write(ByteBuffer.wrap(content, offset, length), offset, length));
+			offset += length;
+		}
+		upload.checkFailure();
+		ObjectAttributes attributes = upload.complete();
+
+		assertEquals(content.length, attributes.getSize());
+		assertEquals("multipart", attributes.getEtag());
+		assertEquals(1, client.initiated.get());
+		assertEquals(6, client.parts.size());
+		assertArrayEquals(content, client.objects.get("large"));
+	}
+
+	@Test
+	public void testNonSequentialWriteIsRefused() throws IOException {
+		ObjectWriter.Upload upload = writer.open("gap");
+		assertFalse(upload.write(ByteBuffer.wrap(new byte[10]), 5, 10));
+		assertEquals(0, upload.getPosition());
+	}
+
+	@Test(expected = IOException.class)
+	public void testCompleteTwice() throws IOException {
+		ObjectWriter.Upload upload = writer.open("twice");
+		upload.complete();
+		upload.complete();
+	}
+
+	@Test(timeout = 10000)
+	public void testAbortReturnsBuffersOfQueuedParts() throws IOException, InterruptedException {
+		InMemoryObjectStore store = new InMemoryObjectStore("bucket");
+		store.setLatencyMicros(200000);
+		ObjectWriter slowWriter = new ObjectWriter(store, PART_SIZE, 1, 2);
+		try {
+			// one part is uploading, the other one is queued
+			ObjectWriter.Upload aborted = slowWriter.open("aborted");
+			assertTrue(aborted.write(ByteBuffer.wrap(content(2 * PART_SIZE)), 0, 2 * PART_SIZE));
+			aborted.abort();
+			assertTrue(aborted.isClosed());
+
+			// both buffers are free again once the interrupted upload ends
+			while (slowWriter.availableBuffers() < 2) {
+				Thread.sleep(1);
+			}
+			store.setLatencyMicros(0);
+			ObjectWriter.Upload upload = slowWriter.open("next");
+			assertTrue(upload.write(ByteBuffer.wrap(content(3 * PART_SIZE)), 0, 3 * PART_SIZE));
+			assertEquals(3 * PART_SIZE, upload.complete().getSize());
+			assertEquals(0, store.getOpenUploads());
+		} finally {
+			slowWriter.close();
+		}
+	}
+
+	@Test
+	public void testCloseAbortsOpenUploads() throws IOException {
+		InMemoryObjectStore store = new InMemoryObjectStore("bucket");
+		ObjectWriter openWriter = new ObjectWriter(store, PART_SIZE, 1, 2);
+		ObjectWriter.Upload upload = openWriter.open("open");
+		assertTrue(upload.write(ByteBuffer.wrap(content(PART_SIZE + 10)), 0, PART_SIZE + 10));
+		assertEquals(1, store.getOpenUploads());
+
+		openWriter.close();
+		assertTrue(upload.isClosed());
+		assertEquals(0, store.getOpenUploads());
+	}
+}
@@ -0,0 +1,59 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+
+public class PathResolverTest {
+
+	private RecordingOSSClient client;
+
+	private PathResolver resolver;
+
+	@Before
+	public void setUp() {
+		client = new RecordingOSSClient();
+		resolver = new PathResolver(new AliyunObjectStore(client, "bucket"));
+		client.objects.put("file", new byte[3]);
+		client.objects.put("implicit/part-0", new byte[0]);
+		client.objects.put("marked/", new byte[0]);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		resolver.close();
+	}
+
+	@Test
+	public void testResolvesFile() throws IOException {
+		ObjectAttributes attributes = resolver.resolve("file", false);
+		assertFalse(attributes.isDirectory());
+		assertEquals(3, attributes.getSize());
+	}
+
+	@Test
+	public void testResolvesDirectories() throws IOException {
+		assertTrue(resolver.resolve("implicit", false).isDirectory());
+		assertTrue(resolver.resolve("marked", false).isDirectory());
+		assertNull(resolver.resolve("missing", false));
+		assertNull(resolver.resolve("implicit/part", false));
+	}
+
+	@Test
+	public void testKnownDirectoryIsNotListed() throws IOException {
+		client.listMarkers.clear();
+		assertTrue(resolver.resolve("implicit", true).isDirectory());
+		assertTrue(client.listMarkers.isEmpty());
+		assertEquals(1, client.heads.get());
+	}
+}
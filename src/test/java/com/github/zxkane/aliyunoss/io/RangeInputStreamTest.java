@@ -0,0 +1,90 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.junit.Test;
+
+public class RangeInputStreamTest {
+
+	private static final class ResponseStream extends ByteArrayInputStream implements ConnectionReleaseTrigger {
+		boolean aborted;
+		boolean closed;
+
+		ResponseStream(byte[] content) {
+			super(content);
+		}
+
+		@Override
+		public void releaseConnection() throws IOException {
+			close();
+		}
+
+		@Override
+		public void abortConnection() throws IOException {
+			aborted = true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+		}
+	}
+
+	@Test
+	public void testStopsAtEndOfRange() throws IOException {
+		RangeInputStream input = new RangeInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }), 3);
+		byte[] read = new byte[5];
+		assertEquals(3, input.read(read));
+		assertEquals(-1, input.read());
+		assertArrayEquals(new byte[] { 1, 2, 3, 0, 0 }, read);
+		assertEquals(0, input.getRemaining());
+	}
+
+	@Test
+	public void testAbortsConnectionOnEarlyClose() throws IOException {
+		ResponseStream response = new ResponseStream(new byte[] { 1, 2, 3, 4, 5 });
+		RangeInputStream input = new RangeInputStream(response, 4);
+		assertEquals(1, input.read());
+		input.close();
+		assertTrue(response.aborted);
+		assertFalse(response.closed);
+	}
+
+	@Test
+	public void testClosesConnectionWhenConsumed() throws IOException {
+		ResponseStream response = new ResponseStream(new byte[] { 1, 2, 3, 4, 5 });
+		RangeInputStream input = new RangeInputStream(response, 2);
+		assertEquals(2, input.read(new byte[10]));
+		input.close();
+		assertFalse(response.aborted);
+		assertTrue(response.closed);
+	}
+
+	@Test
+	public void testAbortsConnectionOfLongerResponse() throws IOException {
+		ResponseStream response = new ResponseStream(new byte[] { 1, 2, 3, 4, 5 });
+		RangeInputStream input = new RangeInputStream(response, 2, true);
+		assertEquals(2, input.read(new byte[10]));
+		assertEquals(-1, input.read());
+		input.close();
+		assertTrue(response.aborted);
+		assertFalse(response.closed);
+	}
+
+	@Test
+	public void testParseContentRange() {
+		assertArrayEquals(new long[] { 100, 199 }, RangeInputStream.parseContentRange("bytes 100-199/1000"));
+		assertArrayEquals(new long[] { 0, 0 }, RangeInputStream.parseContentRange(" bytes 0-0/*"));
+		assertNull(RangeInputStream.parseContentRange("bytes */1000"));
+		assertNull(RangeInputStream.parseContentRange("items 1-2/3"));
+		assertNull(RangeInputStream.parseContentRange("bytes a-b/3"));
+	}
+}
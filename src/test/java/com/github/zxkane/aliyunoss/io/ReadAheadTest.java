@@ -0,0 +1,47 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ReadAheadTest {
+
+	private static final long KB = 1024;
+
+	private static final long MB = 1024 * KB;
+
+	@Test
+	public void testWindowGrowsWhileSequential() {
+		ReadAhead readAhead = new ReadAhead(MB, 4 * MB);
+		assertArrayEquals(new long[] { 128 * KB, 128 * KB + MB }, readAhead.onRead(0, 128 * KB, 100 * MB));
+		// still far from the end of the prefetched range
+		assertNull(readAhead.onRead(128 * KB, 256 * KB, 100 * MB));
+
+		long offset = 256 * KB;
+		for (int i = 0; i < 64; i++, offset += 128 * KB) {
+			readAhead.onRead(offset, offset + 128 * KB, 100 * MB);
+		}
+		assertEquals(4 * MB, readAhead.getWindow());
+	}
+
+	@Test
+	public void testRandomAccessResetsWindow() {
+		ReadAhead readAhead = new ReadAhead(MB, 4 * MB);
+		long offset = 0;
+		for (int i = 0; i < 64; i++, offset += 128 * KB) {
+			readAhead.onRead(offset, offset + 128 * KB, 100 * MB);
+		}
+		assertNull(readAhead.onRead(50 * MB, 50 * MB + 4 * KB, 100 * MB));
+		assertEquals(MB, readAhead.getWindow());
+		assertArrayEquals(new long[] { 50 * MB + 8 * KB, 50 * MB + 8 * KB + MB }, readAhead.onRead(50 * MB + 4 * KB, 50 * MB + 8 * KB, 100 * MB));
+	}
+
+	@Test
+	public void testClampedToObjectSize() {
+		ReadAhead readAhead = new ReadAhead(MB, 4 * MB);
+		assertArrayEquals(new long[] { 128 * KB, 512 * KB }, readAhead.onRead(0, 128 * KB, 512 * KB));
+		assertNull(readAhead.onRead(384 * KB, 512 * KB, 512 * KB));
+	}
+}
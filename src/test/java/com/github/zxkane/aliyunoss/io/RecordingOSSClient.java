@@ -0,0 +1,207 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadResult;
+import com.aliyun.oss.model.CopyObjectResult;
+import com.aliyun.oss.model.DeleteObjectsRequest;
+import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadResult;
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+import com.aliyun.oss.model.PutObjectResult;
+import com.aliyun.oss.model.UploadPartCopyRequest;
+import com.aliyun.oss.model.UploadPartCopyResult;
+import com.aliyun.oss.model.UploadPartRequest;
+import com.aliyun.oss.model.UploadPartResult;
+
+/**
+ * Keeps the objects and parts which are uploaded in memory.
+ */
+class RecordingOSSClient extends OSSClient {
+
+	final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+	final Map<String, byte[]> parts = new ConcurrentHashMap<>();
+
+	final AtomicInteger initiated = new AtomicInteger();
+
+	// number of the next PUTs which fail
+	final AtomicInteger failingPuts = new AtomicInteger();
+
+	// markers of every listing request, empty for the first page
+	final List<String> listMarkers = new CopyOnWriteArrayList<>();
+
+	// number of HEAD requests
+	final AtomicInteger heads = new AtomicInteger();
+
+	// number of keys of every DeleteObjects request
+	final List<Integer> deleteBatches = new CopyOnWriteArrayList<>();
+
+	RecordingOSSClient() {
+		super("http://localhost", "id", "key");
+	}
+
+	@Override
+	public PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata) {
+		if (failingPuts.getAndDecrement() > 0) {
+			throw new ClientException("Connection refused");
+		}
+		objects.put(key, readAll(input));
+		PutObjectResult result = new PutObjectResult();
+		result.setETag("put");
+		return result;
+	}
+
+	@Override
+	public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+		initiated.incrementAndGet();
+		InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+		result.setUploadId("upload");
+		return result;
+	}
+
+	@Override
+	public UploadPartResult uploadPart(UploadPartRequest request) {
+		parts.put(request.getKey() + "#" + request.getPartNumber(), readAll(request.getInputStream()));
+		UploadPartResult result = new UploadPartResult();
+		result.setPartNumber(request.getPartNumber());
+		result.setETag("part" + request.getPartNumber());
+		return result;
+	}
+
+	@Override
+	public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		List<PartETag> partETags = request.getPartETags();
+		for (int i = 0; i < partETags.size(); i++) {
+			assertEquals(i + 1, partETags.get(i).getPartNumber());
+			byte[] part = parts.get(request.getKey() + "#" + partETags.get(i).getPartNumber());
+			content.write(part, 0, part.length);
+		}
+		objects.put(request.getKey(), content.toByteArray());
+		CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+		result.setETag("multipart");
+		return result;
+	}
+
+	@Override
+	public CopyObjectResult copyObject(String sourceBucketName, String sourceKey, String destinationBucketName, String destinationKey) {
+		objects.put(destinationKey, objects.get(sourceKey).clone());
+		CopyObjectResult result = new CopyObjectResult();
+		result.setEtag("copy");
+		return result;
+	}
+
+	@Override
+	public UploadPartCopyResult uploadPartCopy(UploadPartCopyRequest request) {
+		int begin = request.getBeginIndex().intValue();
+		byte[] source = objects.get(request.getSourceKey());
+		parts.put(request.getKey() + "#" + request.getPartNumber(),
+				Arrays.copyOfRange(source, begin, begin + request.getPartSize().intValue()));
+		UploadPartCopyResult result = new UploadPartCopyResult();
+		result.setPartNumber(request.getPartNumber());
+		result.setETag("part" + request.getPartNumber());
+		return result;
+	}
+
+	@Override
+	public void deleteObject(String bucketName, String key) {
+		objects.remove(key);
+	}
+
+	@Override
+	public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+		deleteBatches.add(request.getKeys().size());
+		for (String key : request.getKeys()) {
+			objects.remove(key);
+		}
+		return new DeleteObjectsResult(Collections.<String> emptyList());
+	}
+
+	@Override
+	public ObjectMetadata getObjectMetadata(String bucketName, String key) {
+		heads.incrementAndGet();
+		byte[] content = objects.get(key);
+		if (content == null) {
+			throw new OSSException("Not found", OSSErrorCode.NO_SUCH_KEY, null, null, null, null, null);
+		}
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(content.length);
+		metadata.setLastModified(new Date(0));
+		return metadata;
+	}
+
+	@Override
+	public ObjectListing listObjects(ListObjectsRequest request) {
+		final String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+		final String marker = request.getMarker() == null ? "" : request.getMarker();
+		listMarkers.add(marker);
+		ObjectListing listing = new ObjectListing();
+		int entries = 0;
+		String last = null;
+		for (String key : new TreeSet<>(objects.keySet())) {
+			if (!key.startsWith(prefix) || key.compareTo(marker) <= 0) {
+				continue;
+			}
+			final int delimiter = request.getDelimiter() == null ? -1 : key.indexOf(request.getDelimiter(), prefix.length());
+			final String entry = delimiter < 0 ? key : key.substring(0, delimiter + 1);
+			if (entry.equals(last) || entry.compareTo(marker) <= 0) {
+				continue;
+			}
+			if (entries == request.getMaxKeys()) {
+				listing.setTruncated(true);
+				listing.setNextMarker(last);
+				break;
+			}
+			if (delimiter < 0) {
+				OSSObjectSummary summary = new OSSObjectSummary();
+				summary.setKey(key);
+				summary.setSize(objects.get(key).length);
+				summary.setLastModified(new Date(0));
+				listing.addObjectSummary(summary);
+			} else {
+				listing.addCommonPrefix(entry);
+			}
+			last = entry;
+			entries++;
+		}
+		return listing;
+	}
+
+	private static byte[] readAll(InputStream input) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		try {
+			while ((n = input.read(buffer)) > 0) {
+				output.write(buffer, 0, n);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return output.toByteArray();
+	}
+}
@@ -0,0 +1,107 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+
+public class ShardedListerTest {
+
+	private RecordingOSSClient client;
+
+	private ExecutorService executor;
+
+	private ShardedLister lister;
+
+	@Before
+	public void setUp() {
+		client = new RecordingOSSClient();
+		executor = Executors.newFixedThreadPool(4);
+		lister = new ShardedLister(new AliyunObjectStore(client, "bucket"), executor);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private List<String> listAll(String prefix, String delimiter, int parallelism) throws IOException {
+		List<String> entries = new ArrayList<>();
+		try (ListingPages pages = lister.list(prefix, delimiter, 10, parallelism)) {
+			ObjectListing listing;
+			while ((listing = pages.next()) != null) {
+				List<String> page = new ArrayList<>(listing.getCommonPrefixes());
+				for (OSSObjectSummary summary : listing.getObjectSummaries()) {
+					page.add(summary.getKey());
+				}
+				Collections.sort(page);
+				entries.addAll(page);
+			}
+		}
+		return entries;
+	}
+
+	@Test
+	public void testMidpoint() {
+		assertEquals("p/p", ShardedLister.midpoint("p/a", null, 2));
+		String middle = ShardedLister.midpoint("p/a", "p/c", 2);
+		assertEquals("p/b", middle);
+		middle = ShardedLister.midpoint("p/a", "p/b", 2);
+		assertTrue(middle.compareTo("p/a") > 0 && middle.compareTo("p/b") < 0);
+		middle = ShardedLister.midpoint("p/2023-01-05/x", "p/3", 2);
+		assertTrue(middle.compareTo("p/2023-01-05/x") > 0 && middle.compareTo("p/3") < 0);
+		assertNull(ShardedLister.midpoint("p/~", "p/~ ", 2));
+	}
+
+	@Test
+	public void testListsSortedWithoutDuplicates() throws IOException {
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			keys.add("data/" + UUID.randomUUID());
+		}
+		for (int i = 0; i < 50; i++) {
+			keys.add(String.format("data/2023-01-%02d/part", i));
+		}
+		keys.add("data/2023-01-01/other");
+		keys.add("other");
+		for (String key : keys) {
+			client.objects.put(key, new byte[0]);
+		}
+
+		List<String> flat = listAll("data/", null, 8);
+		List<String> expected = new ArrayList<>(keys);
+		expected.remove("other");
+		Collections.sort(expected);
+		assertEquals(expected, flat);
+		assertTrue(client.listMarkers.size() > 35);
+
+		List<String> grouped = listAll("data/", "/", 8);
+		List<String> sorted = new ArrayList<>(new TreeSet<>(grouped));
+		assertEquals(300 + 50, grouped.size());
+		assertEquals(sorted, grouped);
+	}
+
+	@Test
+	public void testSmallListingIsOneRequest() throws IOException {
+		client.objects.put("a", new byte[0]);
+		client.objects.put("b", new byte[0]);
+		assertEquals(2, listAll("", null, 8).size());
+		assertEquals(1, client.listMarkers.size());
+	}
+}
@@ -0,0 +1,153 @@
+package com.github.zxkane.aliyunoss.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.zxkane.aliyunoss.cache.ObjectAttributes;
+import com.github.zxkane.aliyunoss.store.AliyunObjectStore;
+
+public class WriteBackCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private RecordingOSSClient client;
+
+	private ObjectWriter writer;
+
+	@Before
+	public void setUp() {
+		client = new RecordingOSSClient();
+		writer = new ObjectWriter(new AliyunObjectStore(client, "bucket"), ObjectWriter.MIN_PART_SIZE, 2, 4);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		writer.close();
+	}
+
+	private static CountDownLatch awaitUploads(WriteBackCache cache, int count) {
+		final CountDownLatch uploaded = new CountDownLatch(count);
+		cache.setListener(new WriteBackCache.Listener() {
+			@Override
+			public void uploaded(String key, ObjectAttributes attributes) {
+				uploaded.countDown();
+			}
+		});
+		return uploaded;
+	}
+
+	@Test
+	public void testPendingFilesAreServedFromJournal() throws IOException, InterruptedException {
+		File dir = folder.newFolder();
+		WriteBackCache cache = new WriteBackCache(dir, writer, 2, 10, 3);
+		CountDownLatch uploaded = awaitUploads(cache, 1);
+
+		WriteBackCache.Entry entry = cache.create("thumbs/a.jpg");
+		entry.write(ByteBuffer.wrap("world".getBytes(StandardCharsets.UTF_8)), 6, 5);
+		entry.write(ByteBuffer.wrap("hello ".getBytes(StandardCharsets.UTF_8)), 0, 6);
+		assertEquals(11, cache.getAttributes("thumbs/a.jpg").getSize());
+		assertEquals(Arrays.asList("a.jpg"), cache.getPendingChildren("thumbs"));
+		assertTrue(cache.getPendingChildren("").isEmpty());
+
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		assertEquals(5, cache.read("thumbs/a.jpg", buffer, 6, 100));
+		assertEquals(-1, cache.read("thumbs/b.jpg", buffer, 0, 100));
+
+		entry.commit();
+		assertTrue(uploaded.await(5, TimeUnit.SECONDS));
+		assertArrayEquals("hello world".getBytes(StandardCharsets.UTF_8), client.objects.get("thumbs/a.jpg"));
+		assertNull(cache.getAttributes("thumbs/a.jpg"));
+		assertEquals(0, dir.list().length);
+		cache.close();
+	}
+
+	@Test
+	public void testFailedUploadIsRetried() throws IOException, InterruptedException {
+		WriteBackCache cache = new WriteBackCache(folder.newFolder(), writer, 1, 10, 3);
+		CountDownLatch uploaded = awaitUploads(cache, 1);
+		client.failingPuts.set(1);
+
+		WriteBackCache.Entry entry = cache.create("manifest.json");
+		entry.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 0, 3);
+		entry.commit();
+		assertTrue(uploaded.await(10, TimeUnit.SECONDS));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, client.objects.get("manifest.json"));
+		cache.close();
+	}
+
+	@Test
+	public void testJournalIsRecovered() throws IOException, InterruptedException {
+		File dir = folder.newFolder();
+		Files.write(new File(dir, "x.data").toPath(), new byte[] { 4, 5 });
+		Files.write(new File(dir, "x.key").toPath(), "left/over".getBytes(StandardCharsets.UTF_8));
+		// an entry which was never closed is dropped
+		Files.write(new File(dir, "y.part").toPath(), new byte[] { 6 });
+
+		WriteBackCache cache = new WriteBackCache(dir, writer, 1, 10, 3);
+		CountDownLatch uploaded = awaitUploads(cache, 1);
+		assertEquals(1, cache.recover());
+		assertTrue(uploaded.await(5, TimeUnit.SECONDS));
+		assertArrayEquals(new byte[] { 4, 5 }, client.objects.get("left/over"));
+		assertEquals(0, dir.list().length);
+		cache.close();
+	}
+
+	@Test
+	public void testNewestVersionIsRecovered() throws IOException, InterruptedException {
+		File dir = folder.newFolder();
+		for (int i = 0; i < 3; i++) {
+			File data = new File(dir, String.format("%016x.data", i));
+			Files.write(data.toPath(), new byte[] { (byte) i });
+			Files.write(new File(dir, String.format("%016x.key", i)).toPath(), "report.csv".getBytes(StandardCharsets.UTF_8));
+			// the modification time does not decide which version is the newest
+			assertTrue(data.setLastModified(1000000000000L - i * 1000));
+		}
+
+		WriteBackCache cache = new WriteBackCache(dir, writer, 1, 1, 3);
+		CountDownLatch uploaded = awaitUploads(cache, 1);
+		assertEquals(1, cache.recover());
+		assertTrue(uploaded.await(5, TimeUnit.SECONDS));
+		assertArrayEquals(new byte[] { 2 }, client.objects.get("report.csv"));
+		assertEquals(0, dir.list().length);
+
+		// new entries follow the recovered ones and the backlog is free again
+		WriteBackCache.Entry entry = cache.create("report.csv");
+		entry.write(ByteBuffer.wrap(new byte[] { 3 }), 0, 1);
+		assertTrue(new File(dir, String.format("%016x.part", 3)).isFile());
+		uploaded = awaitUploads(cache, 1);
+		entry.commit();
+		assertTrue(uploaded.await(5, TimeUnit.SECONDS));
+		assertArrayEquals(new byte[] { 3 }, client.objects.get("report.csv"));
+		cache.close();
+	}
+
+	@Test
+	public void testDiscardedEntryIsNotUploaded() throws IOException {
+		File dir = folder.newFolder();
+		WriteBackCache cache = new WriteBackCache(dir, writer, 1, 10, 3);
+		WriteBackCache.Entry entry = cache.create("tmp");
+		entry.write(ByteBuffer.wrap(new byte[] { 1 }), 0, 1);
+		entry.discard();
+		assertNull(cache.getAttributes("tmp"));
+		assertEquals(0, dir.list().length);
+		cache.close();
+	}
+}
@@ -0,0 +1,47 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBucketsCoverAllValues() {
+		for (long value = 0; value < 100000; value++) {
+			final int index = LatencyHistogram.index(value);
+			assertTrue(value <= LatencyHistogram.highestValue(index));
+			assertTrue(index == 0 || value > LatencyHistogram.highestValue(index - 1));
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500, histogram.getSum());
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500.5, histogram.getMean(), 0.001);
+		assertWithin(500, histogram.getValueAtPercentile(50));
+		assertWithin(990, histogram.getValueAtPercentile(99));
+		assertEquals(1000, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testNegativeValuesCountAsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue("expected " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.125);
+	}
+}
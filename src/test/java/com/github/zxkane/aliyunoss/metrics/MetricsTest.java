@@ -0,0 +1,123 @@
+package com.github.zxkane.aliyunoss.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheStats;
+import com.google.common.io.ByteStreams;
+
+public class MetricsTest {
+
+	private Metrics metrics;
+
+	@Before
+	public void setUp() {
+		metrics = new Metrics("bucket");
+		OperationMetrics getattr = metrics.operation("getattr");
+		getattr.succeeded(getattr.start(), 0);
+		getattr.failed(getattr.start(), "ENOENT");
+		OperationMetrics get = metrics.request("GetObject");
+		get.succeeded(get.start(), 4096);
+		metrics.registerCache("block", new Supplier<CacheStats>() {
+			@Override
+			public CacheStats get() {
+				return new CacheStats(3, 1, 0, 0, 0, 2);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		metrics.close();
+	}
+
+	@Test
+	public void testOperationCounters() {
+		OperationMetrics getattr = metrics.operation("getattr");
+		assertEquals(2, getattr.getCount());
+		assertEquals(1, getattr.getErrors());
+		assertEquals(Collections.singletonMap("ENOENT", 1L), getattr.getErrorCodes());
+		assertEquals(0, getattr.getInFlight());
+		assertEquals(4096, metrics.request("GetObject").getBytes());
+
+		getattr.start();
+		assertEquals(1, getattr.getInFlight());
+	}
+
+	@Test
+	public void testPrometheusText() throws IOException {
+		StringWriter text = new StringWriter();
+		Metrics.writePrometheus(Arrays.asList(metrics), text);
+		List<String> lines = Arrays.asList(text.toString().split("\n"));
+		assertTrue(lines.contains("# TYPE aliyunoss_fuse_operations_total counter"));
+		assertTrue(lines.contains("aliyunoss_fuse_operations_total{bucket=\"bucket\",operation=\"getattr\"} 2"));
+		assertTrue(lines.contains("aliyunoss_fuse_errors_total{bucket=\"bucket\",operation=\"getattr\",code=\"ENOENT\"} 1"));
+		assertTrue(lines.contains("aliyunoss_fuse_latency_seconds_count{bucket=\"bucket\",operation=\"getattr\"} 2"));
+		assertTrue(lines.contains("aliyunoss_oss_requests_total{bucket=\"bucket\",request=\"GetObject\"} 1"));
+		assertTrue(lines.contains("aliyunoss_oss_bytes_total{bucket=\"bucket\",request=\"GetObject\"} 4096"));
+		assertTrue(lines.contains("aliyunoss_cache_hit_ratio{bucket=\"bucket\",cache=\"block\"} 0.75"));
+		assertTrue(lines.contains("aliyunoss_cache_evictions_total{bucket=\"bucket\",cache=\"block\"} 2"));
+		for (String line : lines) {
+			if (line.startsWith("aliyunoss_fuse_latency_seconds{")) {
+				assertTrue(line, line.contains("quantile=\""));
+			}
+		}
+	}
+
+	@Test
+	public void testMBeansAreRegisteredUntilClosed() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName getattr = new ObjectName(Metrics.DOMAIN + ":type=FuseOperation,bucket=\"bucket\",name=\"getattr\"");
+		ObjectName block = new ObjectName(Metrics.DOMAIN + ":type=Cache,bucket=\"bucket\",name=\"block\"");
+		metrics.registerMBeans();
+		assertEquals(2L, server.getAttribute(getattr, "Count"));
+		assertEquals(0.75, (Double) server.getAttribute(block, "HitRatio"), 0.001);
+
+		metrics.close();
+		assertFalse(server.isRegistered(getattr));
+	}
+
+	@Test
+	public void testServer() throws IOException {
+		MetricsServer server = new MetricsServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new Supplier<List<Metrics>>() {
+			@Override
+			public List<Metrics> get() {
+				return Arrays.asList(metrics);
+			}
+		});
+		try {
+			URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), "/metrics");
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			assertEquals(200, connection.getResponseCode());
+			assertTrue(connection.getContentType().startsWith("text/plain"));
+			try (InputStream in = connection.getInputStream()) {
+				String body = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+				assertTrue(body.contains("aliyunoss_fuse_operations_total{bucket=\"bucket\",operation=\"getattr\"} 2"));
+			}
+		} finally {
+			server.close();
+		}
+	}
+}
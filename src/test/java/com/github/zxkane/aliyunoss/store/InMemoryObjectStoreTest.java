@@ -0,0 +1,153 @@
+package com.github.zxkane.aliyunoss.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.common.utils.IOUtils;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import com.aliyun.oss.model.PartETag;
+
+public class InMemoryObjectStoreTest {
+
+	private InMemoryObjectStore store;
+
+	@Before
+	public void setUp() {
+		store = new InMemoryObjectStore("bucket");
+		store.put("a/1", new byte[] { 1 });
+		store.put("a/2", new byte[] { 2 });
+		store.put("a/b/", new byte[0]);
+		store.put("a/b/3", new byte[] { 3 });
+		store.put("a/c/4", new byte[] { 4 });
+		store.put("d", new byte[] { 5 });
+	}
+
+	@Test
+	public void testListGroupsByDelimiter() {
+		ObjectListing listing = store.listObjects("a/", "/", null, 1000);
+		assertEquals(Arrays.asList("a/1", "a/2"), keys(listing));
+		assertEquals(Arrays.asList("a/b/", "a/c/"), listing.getCommonPrefixes());
+		assertFalse(listing.isTruncated());
+
+		listing = store.listObjects("", null, null, 1000);
+		assertEquals(Arrays.asList("a/1", "a/2", "a/b/", "a/b/3", "a/c/4", "d"), keys(listing));
+	}
+
+	@Test
+	public void testListPagesContinueAtMarker() {
+		List<String> entries = new ArrayList<>();
+		String marker = null;
+		ObjectListing listing;
+		do {
+			listing = store.listObjects("a/", "/", marker, 1);
+			entries.addAll(keys(listing));
+			entries.addAll(listing.getCommonPrefixes());
+			marker = listing.getNextMarker();
+		} while (listing.isTruncated());
+		assertEquals(Arrays.asList("a/1", "a/2", "a/b/", "a/c/"), entries);
+	}
+
+	@Test
+	public void testRangedGet() throws IOException {
+		store.put("data", new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+		OSSObject object = store.getObject("data", 2, 5);
+		assertArrayEquals(new byte[] { 2, 3, 4 }, IOUtils.readStreamAsByteArray(object.getObjectContent()));
+		assertEquals("bytes 2-4/8", object.getObjectMetadata().getRawMetadata().get("Content-Range"));
+
+		object = store.getObject("data", 6, 100);
+		assertArrayEquals(new byte[] { 6, 7 }, IOUtils.readStreamAsByteArray(object.getObjectContent()));
+		try {
+			store.getObject("data", 8, 10);
+			fail("Range beyond the end");
+		} catch (OSSException e) {
+			assertEquals(OSSErrorCode.INVALID_RANGE, e.getErrorCode());
+		}
+	}
+
+	@Test
+	public void testMissingKey() {
+		try {
+			store.headObject("missing");
+			fail("Object does not exist");
+		} catch (OSSException e) {
+			assertEquals(OSSErrorCode.NO_SUCH_KEY, e.getErrorCode());
+		}
+	}
+
+	@Test
+	public void testMultipartUpload() throws IOException {
+		store.put("source", new byte[] { 7, 8, 9 });
+		String uploadId = store.initiateMultipartUpload("target");
+		PartETag first = store.uploadPart("target", uploadId, 1, new byte[] { 0, 1, 2 }, 1, 2);
+		PartETag second = store.uploadPartCopy("source", "target", uploadId, 2, 1, 2);
+		String etag = store.completeMultipartUpload("target", uploadId, Arrays.asList(first, second));
+
+		assertEquals(etag, store.headObject("target").getETag());
+		assertEquals(4, store.headObject("target").getContentLength());
+		assertArrayEquals(new byte[] { 1, 2, 8, 9 }, IOUtils.readStreamAsByteArray(store.getObject("target", 0, 4).getObjectContent()));
+		try {
+			store.abortMultipartUpload("target", uploadId);
+			fail("Upload is completed");
+		} catch (OSSException e) {
+			assertEquals(OSSErrorCode.NO_SUCH_UPLOAD, e.getErrorCode());
+		}
+	}
+
+	@Test
+	public void testCopyAndDelete() {
+		String etag = store.copyObject("d", "e");
+		assertEquals(store.headObject("d").getETag(), etag);
+		store.deleteObject("d");
+		store.deleteObjects(Arrays.asList("a/1", "a/2", "missing"));
+		assertEquals(Arrays.asList("a/b/", "a/b/3", "a/c/4", "e"), keys(store.listObjects("", null, null, 1000)));
+	}
+
+	@Test
+	public void testInjectedErrors() {
+		store.setErrorRate(1);
+		try {
+			store.listObjects("", null, null, 1000);
+			fail("Every request fails");
+		} catch (OSSException e) {
+			assertEquals(OSSErrorCode.INTERNAL_ERROR, e.getErrorCode());
+		}
+		store.setErrorRate(0);
+		assertNull(store.listObjects("", null, null, 1000).getNextMarker());
+	}
+
+	@Test
+	public void testInjectedLatencyAndBandwidth() {
+		store.setLatencyMicros(20000);
+		store.setBandwidth(1000000);
+		long started = System.nanoTime();
+		store.putObject("large", new byte[20000], 0, 20000);
+		long elapsedMillis = (System.nanoTime() - started) / 1000000;
+		// 20 ms of latency and 20 ms of transfer
+		assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 40);
+		assertEquals(1, store.getRequests());
+	}
+
+	private static List<String> keys(ObjectListing listing) {
+		List<String> keys = new ArrayList<>();
+		for (OSSObjectSummary objectSummary : listing.getObjectSummaries()) {
+			keys.add(objectSummary.getKey());
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,61 @@
+package com.github.zxkane.aliyunoss.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.github.zxkane.aliyunoss.metrics.Metrics;
+import com.github.zxkane.aliyunoss.metrics.OperationMetrics;
+
+public class InstrumentedObjectStoreTest {
+
+	private Metrics metrics;
+
+	private ObjectStore store;
+
+	@Before
+	public void setUp() {
+		InMemoryObjectStore bucket = new InMemoryObjectStore("bucket");
+		bucket.put("a", new byte[100]);
+		metrics = new Metrics("bucket");
+		store = new InstrumentedObjectStore(bucket, metrics);
+	}
+
+	@Test
+	public void testRequestsAreCounted() {
+		store.headObject("a");
+		store.getObject("a", 10, 50);
+		store.putObject("b", new byte[10], 0, 7);
+		store.listObjects("", "/", null, 1000);
+
+		assertEquals(1, metrics.request("HeadObject").getCount());
+		OperationMetrics get = metrics.request("GetObject");
+		assertEquals(1, get.getCount());
+		assertEquals(40, get.getBytes());
+		assertEquals(0, get.getInFlight());
+		assertEquals(7, metrics.request("PutObject").getBytes());
+		assertEquals(1, metrics.request("ListObjects").getCount());
+		assertEquals(0, metrics.request("CopyObject").getCount());
+	}
+
+	@Test
+	public void testErrorsAreCountedByCode() {
+		try {
+			store.headObject("missing");
+			fail("missing object was found");
+		} catch (OSSException e) {
+			assertEquals(OSSErrorCode.NO_SUCH_KEY, e.getErrorCode());
+		}
+		OperationMetrics head = metrics.request("HeadObject");
+		assertEquals(1, head.getCount());
+		assertEquals(1, head.getErrors());
+		assertEquals(Collections.singletonMap(OSSErrorCode.NO_SUCH_KEY, 1L), head.getErrorCodes());
+		assertEquals(0, head.getInFlight());
+	}
+}
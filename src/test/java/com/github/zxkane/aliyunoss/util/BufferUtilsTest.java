@@ -0,0 +1,61 @@
+package com.github.zxkane.aliyunoss.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BufferUtilsTest {
+
+	private static byte[] content(int size) {
+		byte[] content = new byte[size];
+		for (int i = 0; i < size; i++) {
+			content[i] = (byte) i;
+		}
+		return content;
+	}
+
+	@Test
+	public void testTransferIntoDirectBuffer() throws IOException {
+		final byte[] content = content(BufferUtils.TRANSFER_SIZE * 2 + 17);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(content.length + 10);
+		buffer.put((byte) 42);
+
+		assertEquals(content.length, BufferUtils.transfer(new ByteArrayInputStream(content), buffer, content.length + 10));
+		assertEquals(content.length + 1, buffer.position());
+
+		byte[] result = new byte[content.length];
+		buffer.position(1);
+		buffer.get(result);
+		assertArrayEquals(content, result);
+	}
+
+	@Test
+	public void testTransferIntoHeapBuffer() throws IOException {
+		final byte[] content = content(100);
+		ByteBuffer buffer = ByteBuffer.allocate(60);
+		buffer.position(10);
+
+		assertEquals(40, BufferUtils.transfer(new ByteArrayInputStream(content), buffer, 40));
+		assertEquals(50, buffer.position());
+		assertArrayEquals(Arrays.copyOf(content, 40), Arrays.copyOfRange(buffer.array(), 10, 50));
+	}
+
+	@Test
+	public void testTransferStopsAtLength() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(100);
+		assertEquals(30, BufferUtils.transfer(new ByteArrayInputStream(content(100)), buffer, 30));
+		assertEquals(30, buffer.position());
+	}
+
+	@Test(expected = EOFException.class)
+	public void testReadFullyFailsOnShortStream() throws IOException {
+		BufferUtils.readFully(new ByteArrayInputStream(content(10)), new byte[20], 0, 20);
+	}
+}
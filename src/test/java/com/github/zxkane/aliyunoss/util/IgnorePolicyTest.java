@@ -0,0 +1,59 @@
+package com.github.zxkane.aliyunoss.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class IgnorePolicyTest {
+
+	@Test
+	public void testDefaults() {
+		IgnorePolicy policy = new IgnorePolicy(IgnorePolicy.DEFAULT_PATTERNS);
+		assertTrue(policy.isIgnored("/.git"));
+		assertTrue(policy.isIgnored("/.Trash-1000"));
+		assertTrue(policy.isIgnored("/._photo.jpg"));
+		assertTrue(policy.isIgnored("/a/b/._photo.jpg"));
+		assertFalse(policy.isIgnored("/a/.git"));
+		assertFalse(policy.isIgnored("/a/photo.jpg"));
+		assertFalse(policy.isIgnored("/a/_photo.jpg"));
+	}
+
+	@Test
+	public void testGlobs() {
+		IgnorePolicy policy = new IgnorePolicy(Arrays.asList("*.swp", "/build/**", "/logs/?.log", "Thumbs.db"));
+		assertTrue(policy.isIgnored("/a/b/.file.swp"));
+		assertTrue(policy.isIgnored("/build/classes/A.class"));
+		assertTrue(policy.isIgnored("/logs/1.log"));
+		assertTrue(policy.isIgnored("/pictures/Thumbs.db"));
+		assertFalse(policy.isIgnored("/a/file.swp.txt"));
+		assertFalse(policy.isIgnored("/src/build/A.class"));
+		assertFalse(policy.isIgnored("/logs/10.log"));
+		assertFalse(policy.isIgnored("/logs/a/1.log"));
+		assertFalse(policy.isIgnored("/pictures/Thumbs_db"));
+	}
+
+	@Test
+	public void testRegex() {
+		IgnorePolicy policy = new IgnorePolicy(Arrays.asList("regex:/tmp/[0-9]+"));
+		assertTrue(policy.isIgnored("/tmp/123"));
+		assertFalse(policy.isIgnored("/tmp/123/a"));
+		assertFalse(policy.isIgnored("/tmp/abc"));
+	}
+
+	@Test
+	public void testNothingIgnored() {
+		IgnorePolicy policy = new IgnorePolicy(Arrays.asList(""));
+		assertFalse(policy.isIgnored("/.git"));
+	}
+
+	@Test
+	public void testGlobToRegex() {
+		assertEquals("\\.git", IgnorePolicy.globToRegex(".git"));
+		assertEquals("[^/]*\\.\\(1\\)", IgnorePolicy.globToRegex("*.(1)"));
+		assertEquals("/a/.*", IgnorePolicy.globToRegex("/a/**"));
+	}
+}
@@ -0,0 +1,105 @@
+package com.github.zxkane.aliyunoss.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class OperationLimiterTest {
+
+	@Test
+	public void testUnlimited() {
+		OperationLimiter limiter = new OperationLimiter("test", 0);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.acquire());
+		}
+	}
+
+	@Test
+	public void testWaitsForPermit() throws InterruptedException {
+		final OperationLimiter limiter = new OperationLimiter("test", 1);
+		assertTrue(limiter.acquire());
+
+		final CountDownLatch acquired = new CountDownLatch(2);
+		Thread[] waiters = new Thread[2];
+		for (int i = 0; i < waiters.length; i++) {
+			waiters[i] = new Thread() {
+				@Override
+				public void run() {
+					if (limiter.acquire()) {
+						acquired.countDown();
+						limiter.release();
+					}
+				}
+			};
+			waiters[i].start();
+		}
+		while (limiter.getQueued() < 2) {
+			Thread.sleep(1);
+		}
+		// nobody is turned away, all wait for their turn
+		assertEquals(2, acquired.getCount());
+
+		limiter.release();
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		for (Thread waiter : waiters) {
+			waiter.join();
+		}
+		assertEquals(0, limiter.getQueued());
+		assertEquals(0, limiter.getRunning());
+	}
+
+	@Test
+	public void testInterruptedWhileWaiting() throws InterruptedException {
+		final OperationLimiter limiter = new OperationLimiter("test", 1);
+		assertTrue(limiter.acquire());
+
+		final boolean[] result = { true };
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				result[0] = limiter.acquire();
+			}
+		};
+		waiter.start();
+		while (limiter.getQueued() == 0) {
+			Thread.sleep(1);
+		}
+		waiter.interrupt();
+		waiter.join();
+		assertFalse(result[0]);
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	public void testSetConcurrency() {
+		OperationLimiter limiter = new OperationLimiter("test", 1);
+		assertTrue(limiter.acquire());
+
+		limiter.setConcurrency(3);
+		assertEquals(3, limiter.getConcurrency());
+		assertTrue(limiter.acquire());
+		assertTrue(limiter.acquire());
+		assertEquals(3, limiter.getRunning());
+
+		// the running operations finish, only one may run afterwards
+		limiter.setConcurrency(1);
+		assertEquals(3, limiter.getRunning());
+		limiter.release();
+		limiter.release();
+		assertEquals(1, limiter.getRunning());
+		limiter.release();
+		assertEquals(0, limiter.getRunning());
+		assertTrue(limiter.acquire());
+		assertEquals(1, limiter.getRunning());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSetConcurrencyOfUnlimited() {
+		new OperationLimiter("test", 0).setConcurrency(1);
+	}
+}
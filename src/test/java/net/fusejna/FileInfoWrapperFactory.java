@@ -0,0 +1,15 @@
+package net.fusejna;
+
+import net.fusejna.StructFuseFileInfo.FileInfoWrapper;
+
+public class FileInfoWrapperFactory {
+	public static FileInfoWrapper create(String path) {
+		return new FileInfoWrapper(path, new StructFuseFileInfo());
+	}
+
+	public static FileInfoWrapper create(String path, int flags) {
+		StructFuseFileInfo info = new StructFuseFileInfo();
+		info.flags = flags;
+		return new FileInfoWrapper(path, info);
+	}
+}